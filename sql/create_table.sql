@@ -51,6 +51,44 @@ create table chat_history
     INDEX idx_appId_createTime (appId, createTime) -- 游标查询核心索引
 ) comment '对话历史' collate = utf8mb4_unicode_ci;
 
+-- 对话历史死信表：批量写入时无法入库的坏行（超长、非法字符等），保留原始内容便于排查和补录
+create table if not exists chat_history_dead_letter
+(
+    id           bigint auto_increment comment 'id' primary key,
+    appId        bigint                             null comment '应用id',
+    userId       bigint                             null comment '用户id',
+    messageType  varchar(32)                        null comment 'user/ai',
+    payload      mediumtext                         not null comment '原始记录（JSON）',
+    errorCode    int                                null comment '数据库错误码',
+    errorMessage varchar(1024)                      null comment '错误信息',
+    createTime   datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+    INDEX idx_appId (appId)
+) comment '对话历史死信' collate = utf8mb4_unicode_ci;
+
+-- 应用代码版本表：每次生成成功的源码版本目录，同时作为语义缓存的数据源（promptEmbedding 为提示词向量）
+create table if not exists app_code_version
+(
+    id              bigint                             not null comment 'id' primary key,
+    appId           bigint                             not null comment '应用id',
+    userId          bigint                             null comment '用户id',
+    codeGenType     varchar(64)                        null comment '代码生成类型',
+    prompt          text                               null comment '用户提示词',
+    promptEmbedding text                               null comment '提示词向量（float32 小端序 Base64）',
+    codeLocation    varchar(512)                       null comment '源码版本目录（COS）',
+    deployKey       varchar(64)                        null comment '部署标识',
+    deployStatus    int      default 0                 not null comment '部署状态',
+    modelName       varchar(128)                       null comment '模型名称',
+    score           double                             null comment '评分',
+    isCurrent       tinyint  default 0                 not null comment '是否当前版本',
+    createTime      datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+    updateTime      datetime default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间',
+    isDelete        tinyint  default 0                 not null comment '是否删除',
+    INDEX idx_appId (appId)
+) comment '应用代码版本' collate = utf8mb4_unicode_ci;
+
+-- 已有库补充向量列的长度（旧表中 promptEmbedding 可能是 varchar）
+-- alter table app_code_version modify promptEmbedding text null comment '提示词向量（float32 小端序 Base64）';
+
 -- 用户钱包表：核心资产数据
 CREATE TABLE IF NOT EXISTS user_wallet
 (
@@ -6,7 +6,6 @@ import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.TokenStream;
 import dev.langchain4j.service.UserMessage;
-import reactor.core.publisher.Flux;
 
 
 public interface AiCodeGeneratorService {
@@ -35,20 +34,20 @@ public interface AiCodeGeneratorService {
      *
      * @param sessionId 会话ID（格式：userId:appId）
      * @param userMessage 用户消息
-     * @return 生成的代码结果
+     * @return 生成过程的流式响应（TokenStream 可以拿到 StreamingHandle，客户端断开时能关闭上游）
      */
     @SystemMessage(fromResource = "prompt/codegen-html-system-prompt.txt")
-    Flux<String> generateHtmlCodeStream(@MemoryId String sessionId, @UserMessage String userMessage);
+    TokenStream generateHtmlCodeStream(@MemoryId String sessionId, @UserMessage String userMessage);
 
     /**
      * 生成多文件代码（流式）
      *
      * @param sessionId 会话ID（格式：userId:appId）
      * @param userMessage 用户消息
-     * @return 生成的代码结果
+     * @return 生成过程的流式响应
      */
     @SystemMessage(fromResource = "prompt/codegen-multi-file-system-prompt.txt")
-    Flux<String> generateMultiFileCodeStream(@MemoryId String sessionId, @UserMessage String userMessage);
+    TokenStream generateMultiFileCodeStream(@MemoryId String sessionId, @UserMessage String userMessage);
 
     /**
      * 生成 Vue 项目代码（流式）
@@ -1,18 +1,26 @@
 package com.hao.haoaicode.ai;
 
 import com.hao.haoaicode.ai.gradrail.PromptSafetyInputGuardrail;
+import com.hao.haoaicode.ai.memory.ChatMemorySummarizer;
+import com.hao.haoaicode.ai.memory.TokenBudgetChatMemory;
 import com.hao.haoaicode.ai.tools.ToolManager;
 import com.hao.haoaicode.exception.BusinessException;
 import com.hao.haoaicode.exception.ErrorCode;
 import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import dev.langchain4j.data.message.ToolExecutionResultMessage;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.TokenCountEstimator;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.openai.OpenAiChatModelName;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
 import dev.langchain4j.service.AiServices;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -39,6 +47,24 @@ public class AiCodeGeneratorServiceFactory {
     @Resource
     private ToolManager toolManager;
 
+    @Resource
+    private ChatMemorySummarizer chatMemorySummarizer;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 对话记忆的 token 预算（不含系统消息和摘要）
+     */
+    @Value("${chat.memory.token-budget.html:8000}")
+    private int htmlTokenBudget;
+
+    @Value("${chat.memory.token-budget.vue:6000}")
+    private int vueTokenBudget;
+
+    // 本地分词器（o200k_base），不同模型的分词略有差异，用于预算估算足够
+    private final TokenCountEstimator tokenCountEstimator = new OpenAiTokenCountEstimator(OpenAiChatModelName.GPT_4_O);
+
     /**
      * 创建 HTML/MULTI_FILE 类型的共享服务
      */
@@ -47,13 +73,7 @@ public class AiCodeGeneratorServiceFactory {
         return AiServices.builder(AiCodeGeneratorService.class)
             .chatModel(chatModel)
             .streamingChatModel(reasoningStreamingChatModel)
-            .chatMemoryProvider(memoryId -> {
-                return MessageWindowChatMemory.builder()
-                    .id(memoryId)
-                    .chatMemoryStore(chatMemoryStore)
-                    .maxMessages(20)
-                    .build();
-            })
+            .chatMemoryProvider(memoryId -> tokenBudgetChatMemory(memoryId, htmlTokenBudget, "html"))
             .inputGuardrails(new PromptSafetyInputGuardrail())
             .build();
     }
@@ -65,13 +85,7 @@ public class AiCodeGeneratorServiceFactory {
     public AiCodeGeneratorService vueAiService() {
         return AiServices.builder(AiCodeGeneratorService.class)
             .streamingChatModel(reasoningStreamingChatModel)  // 使用同一个模型
-            .chatMemoryProvider(memoryId -> {
-                return MessageWindowChatMemory.builder()
-                    .id(memoryId)
-                    .chatMemoryStore(chatMemoryStore)
-                    .maxMessages(2)
-                    .build();
-            })
+            .chatMemoryProvider(memoryId -> tokenBudgetChatMemory(memoryId, vueTokenBudget, "vue"))
             //.tools(toolManager.getAllTools())
             .inputGuardrails(new PromptSafetyInputGuardrail())
             // .hallucinatedToolNameStrategy(toolExecutionRequest -> 
@@ -83,6 +97,32 @@ public class AiCodeGeneratorServiceFactory {
             .build();
     }
 
+    /**
+     * 按 token 预算裁剪、旧消息滚动摘要的对话记忆
+     */
+    private ChatMemory tokenBudgetChatMemory(Object memoryId, int maxTokens, String type) {
+        DistributionSummary windowTokens = DistributionSummary.builder("app.chat_memory.window_tokens")
+                .description("对话记忆裁剪后的 token 数（不含系统消息）")
+                .tag("type", type)
+                .register(meterRegistry);
+        return new TokenBudgetChatMemory(memoryId, chatMemoryStore, tokenCountEstimator, maxTokens,
+                chatMemorySummarizer, windowTokens);
+    }
+
+    /**
+     * 获取与共享服务相同配置的对话记忆（记忆本身无状态，数据都在 ChatMemoryStore 里）
+     */
+    public ChatMemory getChatMemory(CodeGenTypeEnum codeGenType, Object memoryId) {
+        return switch (codeGenType) {
+            case HTML, MULTI_FILE -> tokenBudgetChatMemory(memoryId, htmlTokenBudget, "html");
+            case VUE_PROJECT, VUE_PROJECT_AGENTIC -> tokenBudgetChatMemory(memoryId, vueTokenBudget, "vue");
+            default -> throw new BusinessException(
+                ErrorCode.SYSTEM_ERROR,
+                "不支持的代码生成类型: " + codeGenType.getValue()
+            );
+        };
+    }
+
     /**
      * 根据代码生成类型获取对应的共享服务
      */
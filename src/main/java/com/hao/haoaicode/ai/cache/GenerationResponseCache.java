@@ -0,0 +1,234 @@
+package com.hao.haoaicode.ai.cache;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.ai.AiCodeGeneratorServiceFactory;
+import com.hao.haoaicode.codec.PayloadCompressor;
+import com.hao.haoaicode.core.pipeline.PostGenerationPipeline;
+import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.service.TokenStream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * 生成响应精确缓存
+ *
+ * 模板类的提示词（“做一个个人博客”“生成一个待办清单”）会被大量用户原样发送，每次都完整调用一次模型。
+ * 这里在模型输出之前按确定性的输入计算 key：
+ *   系统提示词（资源路径 + 内容摘要）+ 最终提示词 + 对话记忆窗口（含滚动摘要）+ 模型请求参数
+ * 1. 未命中：正常调用模型，同时录制每个增量及其相对时间，正常结束后压缩存入 Redis；
+ * 2. 命中：不调用模型，按录制的节奏（可配置倍速）回放，回放的流仍交给原来的流式处理器，
+ *    文件解析、对话历史、版本记录与真实生成完全一致；对话记忆按 AiServices 的方式写入系统/用户/AI 消息；
+ * 3. 只有全部输入完全相同才会命中，默认只处理没有对话历史的首轮生成（多轮对话几乎不可能精确重复）。
+ */
+@Slf4j
+@Component
+public class GenerationResponseCache {
+
+    private static final String KEY_PREFIX = "codegen:response:";
+
+    private static final Map<CodeGenTypeEnum, String> SYSTEM_PROMPT_RESOURCES = Map.of(
+            CodeGenTypeEnum.HTML, "prompt/codegen-html-system-prompt.txt",
+            CodeGenTypeEnum.MULTI_FILE, "prompt/codegen-multi-file-system-prompt.txt",
+            CodeGenTypeEnum.VUE_PROJECT, "prompt/codegen-vue-project-system-prompt.txt"
+    );
+
+    @Resource
+    private AiCodeGeneratorServiceFactory aiCodeGeneratorServiceFactory;
+
+    @Resource
+    private StreamingChatModel reasoningStreamingChatModel;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private PayloadCompressor payloadCompressor;
+
+    @Resource
+    private PostGenerationPipeline postGenerationPipeline;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${code.response-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 回放倍速（相对录制时的节奏），小于等于 0 表示一次性回放
+     */
+    @Value("${code.response-cache.replay-speed:8}")
+    private double replaySpeed;
+
+    @Value("${code.response-cache.ttl-hours:72}")
+    private long ttlHours;
+
+    /**
+     * 超过该字符数的回复不缓存
+     */
+    @Value("${code.response-cache.max-chars:200000}")
+    private int maxChars;
+
+    /**
+     * 只缓存没有对话历史的首轮生成
+     */
+    @Value("${code.response-cache.fresh-only:true}")
+    private boolean freshOnly;
+
+    private final ScheduledExecutorService replayScheduler = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "codegen-response-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // codeGenType -> 系统提示词原文 / 资源路径 + 内容摘要
+    private final Map<CodeGenTypeEnum, String> systemPrompts = new EnumMap<>(CodeGenTypeEnum.class);
+    private final Map<CodeGenTypeEnum, String> systemPromptFingerprints = new EnumMap<>(CodeGenTypeEnum.class);
+
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Counter storeCounter;
+
+    @PostConstruct
+    public void init() {
+        SYSTEM_PROMPT_RESOURCES.forEach((type, resource) -> {
+            String text = ResourceUtil.readUtf8Str(resource);
+            systemPrompts.put(type, text);
+            systemPromptFingerprints.put(type, resource + "#" + SecureUtil.sha256(text));
+        });
+        hitCounter = counter("hit");
+        missCounter = counter("miss");
+        storeCounter = counter("store");
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("app.codegen.response_cache")
+                .description("生成响应精确缓存")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replayScheduler.shutdownNow();
+    }
+
+    /**
+     * 命中时返回回放的 TokenStream，否则调用 generation 发起真实生成并录制输出
+     *
+     * @param sessionId  对话记忆 ID
+     * @param prompt     实际发给模型的用户消息
+     * @param generation 调用 AiServices 发起生成，必须在计算 key 之后执行（它会先往记忆里写入用户消息）
+     */
+    public TokenStream wrap(CodeGenTypeEnum codeGenType, String sessionId, String prompt, Supplier<TokenStream> generation) {
+        if (!enabled || !SYSTEM_PROMPT_RESOURCES.containsKey(codeGenType)) {
+            return generation.get();
+        }
+        String key;
+        ChatMemory chatMemory;
+        try {
+            chatMemory = aiCodeGeneratorServiceFactory.getChatMemory(codeGenType, sessionId);
+            List<ChatMessage> window = chatMemory.messages();
+            if (freshOnly && window.stream().anyMatch(message -> message.type() != ChatMessageType.SYSTEM)) {
+                return generation.get();
+            }
+            key = KEY_PREFIX + key(codeGenType, prompt, window);
+        } catch (Exception e) {
+            log.warn("计算生成响应缓存 key 失败，直接生成, sessionId: {}", sessionId, e);
+            return generation.get();
+        }
+
+        Recording recording = load(key);
+        if (recording != null) {
+            hitCounter.increment();
+            log.info("生成响应缓存命中，回放 {} 个增量, sessionId: {}", recording.texts().size(), sessionId);
+            // 与 AiServices 一致：开始时写入系统消息和用户消息，完整结束时写入 AI 消息
+            chatMemory.add(SystemMessage.from(systemPrompts.get(codeGenType)));
+            chatMemory.add(UserMessage.from(prompt));
+            return new ReplayTokenStream(recording, replaySpeed, replayScheduler,
+                    full -> chatMemory.add(AiMessage.from(full)));
+        }
+        missCounter.increment();
+        return new RecordingTokenStream(generation.get(), recorded -> store(key, recorded));
+    }
+
+    /**
+     * 缓存 key：系统提示词 + 提示词 + 对话记忆窗口 + 模型请求参数的摘要
+     */
+    private String key(CodeGenTypeEnum codeGenType, String prompt, List<ChatMessage> window) {
+        String material = systemPromptFingerprints.get(codeGenType)
+                + "\n" + reasoningStreamingChatModel.defaultRequestParameters()
+                + "\n" + ChatMessageSerializer.messagesToJson(window)
+                + "\n" + prompt;
+        return SecureUtil.sha256(material);
+    }
+
+    private Recording load(String key) {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            if (value == null) {
+                return null;
+            }
+            JSONObject json = JSONUtil.parseObj(PayloadCompressor.decode(value));
+            return new Recording(json.getJSONArray("o").toList(Long.class), json.getJSONArray("t").toList(String.class), null);
+        } catch (Exception e) {
+            log.warn("读取生成响应缓存失败, key: {}", key, e);
+            return null;
+        }
+    }
+
+    private void store(String key, Recording recording) {
+        ChatResponse response = recording.response();
+        FinishReason finishReason = response != null ? response.finishReason() : null;
+        // 被截断（长度上限、内容过滤）的回复不缓存
+        if (finishReason != null && finishReason != FinishReason.STOP) {
+            return;
+        }
+        int chars = recording.texts().stream().mapToInt(String::length).sum();
+        if (recording.texts().isEmpty() || chars > maxChars) {
+            return;
+        }
+        String json = JSONUtil.createObj()
+                .set("o", recording.offsets())
+                .set("t", recording.texts())
+                .toString();
+        postGenerationPipeline.run(PostGenerationPipeline.Stage.CACHE, () -> {
+            stringRedisTemplate.opsForValue().set(key, payloadCompressor.encode(json, "response_cache"),
+                    Duration.ofHours(ttlHours));
+            storeCounter.increment();
+        });
+    }
+
+    /**
+     * 录制的模型输出：每个增量相对开始的毫秒数和文本（回放时 response 为 null）
+     */
+    record Recording(List<Long> offsets, List<String> texts, ChatResponse response) {
+    }
+}
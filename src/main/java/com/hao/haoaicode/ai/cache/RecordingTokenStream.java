@@ -0,0 +1,124 @@
+package com.hao.haoaicode.ai.cache;
+
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialThinkingContext;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.tool.BeforeToolExecution;
+import dev.langchain4j.service.tool.ToolExecution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 录制模型输出的 TokenStream：原样转发所有回调，同时记下每个增量及其相对时间
+ * 正常结束（没有被取消）时把录制结果交给 onRecorded
+ */
+class RecordingTokenStream implements TokenStream {
+
+    private final TokenStream delegate;
+    private final Consumer<GenerationResponseCache.Recording> onRecorded;
+
+    private final List<Long> offsets = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+    private long startNanos;
+    private volatile StreamingHandle handle;
+
+    RecordingTokenStream(TokenStream delegate, Consumer<GenerationResponseCache.Recording> onRecorded) {
+        this.delegate = delegate;
+        this.onRecorded = onRecorded;
+    }
+
+    @Override
+    public TokenStream onPartialResponse(Consumer<String> consumer) {
+        return onPartialResponseWithContext((partial, context) -> consumer.accept(partial.text()));
+    }
+
+    @Override
+    public TokenStream onPartialResponseWithContext(BiConsumer<PartialResponse, PartialResponseContext> consumer) {
+        delegate.onPartialResponseWithContext((partial, context) -> {
+            // 模型回调是串行的，不需要同步
+            if (handle == null) {
+                handle = context.streamingHandle();
+            }
+            if (partial.text() != null && !partial.text().isEmpty()) {
+                offsets.add((System.nanoTime() - startNanos) / 1_000_000);
+                texts.add(partial.text());
+            }
+            consumer.accept(partial, context);
+        });
+        return this;
+    }
+
+    @Override
+    public TokenStream onPartialThinking(Consumer<PartialThinking> consumer) {
+        delegate.onPartialThinking(consumer);
+        return this;
+    }
+
+    @Override
+    public TokenStream onPartialThinkingWithContext(BiConsumer<PartialThinking, PartialThinkingContext> consumer) {
+        delegate.onPartialThinkingWithContext(consumer);
+        return this;
+    }
+
+    @Override
+    public TokenStream onRetrieved(Consumer<List<Content>> consumer) {
+        delegate.onRetrieved(consumer);
+        return this;
+    }
+
+    @Override
+    public TokenStream onIntermediateResponse(Consumer<ChatResponse> consumer) {
+        delegate.onIntermediateResponse(consumer);
+        return this;
+    }
+
+    @Override
+    public TokenStream beforeToolExecution(Consumer<BeforeToolExecution> consumer) {
+        delegate.beforeToolExecution(consumer);
+        return this;
+    }
+
+    @Override
+    public TokenStream onToolExecuted(Consumer<ToolExecution> consumer) {
+        delegate.onToolExecuted(consumer);
+        return this;
+    }
+
+    @Override
+    public TokenStream onCompleteResponse(Consumer<ChatResponse> consumer) {
+        delegate.onCompleteResponse(response -> {
+            StreamingHandle h = handle;
+            if (h == null || !h.isCancelled()) {
+                onRecorded.accept(new GenerationResponseCache.Recording(offsets, texts, response));
+            }
+            consumer.accept(response);
+        });
+        return this;
+    }
+
+    @Override
+    public TokenStream onError(Consumer<Throwable> consumer) {
+        delegate.onError(consumer);
+        return this;
+    }
+
+    @Override
+    public TokenStream ignoreErrors() {
+        delegate.ignoreErrors();
+        return this;
+    }
+
+    @Override
+    public void start() {
+        startNanos = System.nanoTime();
+        delegate.start();
+    }
+}
@@ -0,0 +1,145 @@
+package com.hao.haoaicode.ai.cache;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.tool.ToolExecution;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 按录制的节奏回放缓存的模型输出
+ * 对下游的流式处理器来说和真实的模型流没有区别：增量、StreamingHandle（取消即停止回放）、完成回调都照常触发
+ */
+@Slf4j
+class ReplayTokenStream implements TokenStream, StreamingHandle {
+
+    private final GenerationResponseCache.Recording recording;
+    private final double speed;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<String> onFinished;
+
+    private BiConsumer<PartialResponse, PartialResponseContext> partialHandler;
+    private Consumer<ChatResponse> completeHandler;
+    private Consumer<Throwable> errorHandler;
+    private final StringBuilder fullText = new StringBuilder();
+    private volatile boolean cancelled;
+
+    /**
+     * @param speed      回放倍速，小于等于 0 表示不等待、一次性回放
+     * @param onFinished 回放完整结束时收到完整回复（写对话记忆）
+     */
+    ReplayTokenStream(GenerationResponseCache.Recording recording, double speed,
+                      ScheduledExecutorService scheduler, Consumer<String> onFinished) {
+        this.recording = recording;
+        this.speed = speed;
+        this.scheduler = scheduler;
+        this.onFinished = onFinished;
+    }
+
+    @Override
+    public TokenStream onPartialResponse(Consumer<String> consumer) {
+        this.partialHandler = (partial, context) -> consumer.accept(partial.text());
+        return this;
+    }
+
+    @Override
+    public TokenStream onPartialResponseWithContext(BiConsumer<PartialResponse, PartialResponseContext> consumer) {
+        this.partialHandler = consumer;
+        return this;
+    }
+
+    @Override
+    public TokenStream onRetrieved(Consumer<List<Content>> consumer) {
+        return this;
+    }
+
+    @Override
+    public TokenStream onToolExecuted(Consumer<ToolExecution> consumer) {
+        return this;
+    }
+
+    @Override
+    public TokenStream onCompleteResponse(Consumer<ChatResponse> consumer) {
+        this.completeHandler = consumer;
+        return this;
+    }
+
+    @Override
+    public TokenStream onError(Consumer<Throwable> consumer) {
+        this.errorHandler = consumer;
+        return this;
+    }
+
+    @Override
+    public TokenStream ignoreErrors() {
+        this.errorHandler = null;
+        return this;
+    }
+
+    @Override
+    public void start() {
+        if (partialHandler == null || completeHandler == null) {
+            throw new IllegalStateException("onPartialResponse 和 onCompleteResponse 必须在 start 之前设置");
+        }
+        schedule(0);
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 逐个调度增量，每个增量发出后再调度下一个，保证回调串行，和模型流一致
+     */
+    private void schedule(int index) {
+        long delayMs = 0;
+        if (speed > 0 && index < recording.texts().size()) {
+            long previous = index == 0 ? 0 : recording.offsets().get(index - 1);
+            delayMs = (long) ((recording.offsets().get(index) - previous) / speed);
+        }
+        scheduler.schedule(() -> emit(index), Math.max(delayMs, 0), TimeUnit.MILLISECONDS);
+    }
+
+    private void emit(int index) {
+        if (cancelled) {
+            return;
+        }
+        try {
+            if (index < recording.texts().size()) {
+                String text = recording.texts().get(index);
+                fullText.append(text);
+                partialHandler.accept(new PartialResponse(text), new PartialResponseContext(this));
+                schedule(index + 1);
+                return;
+            }
+            String full = fullText.toString();
+            onFinished.accept(full);
+            completeHandler.accept(ChatResponse.builder()
+                    .aiMessage(AiMessage.from(full))
+                    .finishReason(FinishReason.STOP)
+                    .build());
+        } catch (Exception e) {
+            log.error("回放缓存的模型输出失败", e);
+            if (errorHandler != null) {
+                errorHandler.accept(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.hao.haoaicode.ai.memory;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话记忆滚动摘要
+ *
+ * TokenBudgetChatMemory 超出预算时淘汰的旧消息交给这里，在后台线程里与已有摘要合并成新的摘要：
+ * 1. 不占用对话的请求线程，同一个记忆的多次淘汰合并成一次模型调用；
+ * 2. 摘要存 Redis（chat_memory:summary:{memoryId}），本地缓存一分钟，每轮对话读取摘要不需要访问 Redis；
+ * 3. 摘要长度有上限，提示词大小不再随对话轮数增长；
+ * 4. 生成失败时保留原摘要，被淘汰的消息不再进入上下文。
+ */
+@Slf4j
+@Component
+public class ChatMemorySummarizer {
+
+    private static final String SUMMARY_KEY_PREFIX = "chat_memory:summary:";
+
+    private static final String SUMMARY_PROMPT = """
+            你负责压缩一段网站生成对话的历史。请把【已有摘要】和【新增对话】合并成一份新的摘要：
+            - 保留用户的需求、偏好和每次修改要求，保留已生成页面/文件的结构和关键实现决定；
+            - 不要复述代码，只描述做了什么；
+            - 使用简体中文，不超过 %d 字，直接输出摘要正文。""";
+
+    @Resource(name = "openAiChatModel")
+    private ChatModel chatModel;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 摘要最大字符数
+     */
+    @Value("${chat.memory.summary.max-chars:1500}")
+    private int maxChars;
+
+    /**
+     * 每条被淘汰的消息参与摘要的最大字符数（生成的代码很长，截断即可）
+     */
+    @Value("${chat.memory.summary.input-chars-per-message:2000}")
+    private int inputCharsPerMessage;
+
+    @Value("${chat.memory.summary.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-memory-summarizer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // memoryId -> 等待合并进摘要的消息
+    private final Map<String, Queue<ChatMessage>> pending = new ConcurrentHashMap<>();
+
+    // 已经提交了合并任务的 memoryId
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+
+    // memoryId -> 摘要（没有摘要时为空字符串）
+    private final Cache<String, String> summaries = Caffeine.newBuilder()
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .maximumSize(10_000)
+            .build();
+
+    /**
+     * 把被淘汰的消息合并进摘要（异步）
+     */
+    public void compactAsync(Object memoryId, List<ChatMessage> evicted) {
+        if (evicted == null || evicted.isEmpty()) {
+            return;
+        }
+        String id = memoryId.toString();
+        // 与 drain 里删除空队列的操作互斥，不会加到已经移除的队列上
+        pending.compute(id, (key, queue) -> {
+            Queue<ChatMessage> target = queue != null ? queue : new ConcurrentLinkedQueue<>();
+            target.addAll(evicted);
+            return target;
+        });
+        if (scheduled.add(id)) {
+            executor.execute(() -> drain(id));
+        }
+    }
+
+    /**
+     * 当前摘要，没有时返回空字符串
+     */
+    public String getSummary(Object memoryId) {
+        String id = memoryId.toString();
+        return summaries.get(id, key -> {
+            try {
+                return StrUtil.nullToEmpty(stringRedisTemplate.opsForValue().get(SUMMARY_KEY_PREFIX + key));
+            } catch (Exception e) {
+                log.warn("读取对话摘要失败, memoryId: {}, error: {}", key, e.getMessage());
+                return "";
+            }
+        });
+    }
+
+    /**
+     * 清除摘要（清空记忆时调用）
+     */
+    public void clear(Object memoryId) {
+        String id = memoryId.toString();
+        pending.remove(id);
+        summaries.invalidate(id);
+        try {
+            stringRedisTemplate.delete(SUMMARY_KEY_PREFIX + id);
+        } catch (Exception e) {
+            log.warn("删除对话摘要失败, memoryId: {}, error: {}", id, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void drain(String id) {
+        while (true) {
+            List<ChatMessage> batch = new ArrayList<>();
+            Queue<ChatMessage> queue = pending.get(id);
+            ChatMessage message;
+            while (queue != null && (message = queue.poll()) != null) {
+                batch.add(message);
+            }
+            if (batch.isEmpty()) {
+                scheduled.remove(id);
+                // 释放标记之后又有新消息进来，且没有其他任务接手时继续处理
+                Queue<ChatMessage> again = pending.get(id);
+                if (again != null && !again.isEmpty() && scheduled.add(id)) {
+                    continue;
+                }
+                pending.computeIfPresent(id, (key, q) -> q.isEmpty() ? null : q);
+                return;
+            }
+            summarize(id, batch);
+        }
+    }
+
+    private void summarize(String id, List<ChatMessage> evicted) {
+        long start = System.currentTimeMillis();
+        try {
+            String previous = getSummary(id);
+            StringBuilder input = new StringBuilder();
+            input.append("【已有摘要】\n").append(previous.isEmpty() ? "（无）" : previous).append("\n\n【新增对话】\n");
+            for (ChatMessage message : evicted) {
+                appendMessage(input, message);
+            }
+            String summary = chatModel.chat(
+                    SystemMessage.from(String.format(SUMMARY_PROMPT, maxChars)),
+                    UserMessage.from(input.toString())
+            ).aiMessage().text();
+            if (StrUtil.isBlank(summary)) {
+                return;
+            }
+            summary = StrUtil.maxLength(summary.trim(), maxChars);
+            stringRedisTemplate.opsForValue().set(SUMMARY_KEY_PREFIX + id, summary, Duration.ofSeconds(ttlSeconds));
+            summaries.put(id, summary);
+            log.info("对话摘要已更新, memoryId: {}, 合并消息 {} 条, 摘要 {} 字, 耗时 {} ms",
+                    id, evicted.size(), summary.length(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("生成对话摘要失败，保留原摘要, memoryId: {}, error: {}", id, e.getMessage());
+        }
+    }
+
+    private void appendMessage(StringBuilder input, ChatMessage message) {
+        String role;
+        String text;
+        if (message instanceof UserMessage userMessage) {
+            role = "用户";
+            text = userMessage.hasSingleText() ? userMessage.singleText() : userMessage.toString();
+        } else if (message instanceof AiMessage aiMessage) {
+            role = "AI";
+            text = aiMessage.text();
+            if (aiMessage.hasToolExecutionRequests()) {
+                List<String> tools = aiMessage.toolExecutionRequests().stream().map(ToolExecutionRequest::name).toList();
+                text = StrUtil.nullToEmpty(text) + "（调用工具: " + String.join(", ", tools) + "）";
+            }
+        } else if (message instanceof ToolExecutionResultMessage resultMessage) {
+            role = "工具结果(" + resultMessage.toolName() + ")";
+            text = resultMessage.text();
+        } else {
+            return;
+        }
+        input.append(role).append(": ").append(StrUtil.maxLength(StrUtil.nullToEmpty(text), inputCharsPerMessage)).append('\n');
+    }
+}
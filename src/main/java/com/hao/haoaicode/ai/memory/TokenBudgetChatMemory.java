@@ -0,0 +1,167 @@
+package com.hao.haoaicode.ai.memory;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 token 预算裁剪的对话记忆
+ *
+ * 替代按条数裁剪的 MessageWindowChatMemory（条数和 token 成本无关，一条 Vue 项目回复就可能上万 token）：
+ * 1. 用本地分词器估算每条消息的 token 数，系统消息以外的消息总数超过预算时从最早的开始淘汰，
+ *    淘汰带工具调用的 AI 消息时一并淘汰对应的工具结果；最新的一条消息始终保留；
+ * 2. 被淘汰的消息交给 ChatMemorySummarizer 在后台合并成滚动摘要，读取时拼在系统消息后面；
+ * 3. 消息仍然保存在 ChatMemoryStore 里，系统消息固定在第一条，与 MessageWindowChatMemory 的存储格式一致。
+ */
+@Slf4j
+public class TokenBudgetChatMemory implements ChatMemory {
+
+    private static final String SUMMARY_HEADER = "\n\n以下是更早对话的摘要，供理解上下文使用：\n";
+
+    // 单条消息的 token 数，按对象身份缓存（近端缓存每次返回同一批消息对象，不用重复分词）
+    private static final Cache<ChatMessage, Integer> TOKEN_COUNTS = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumSize(100_000)
+            .build();
+
+    private final Object id;
+    private final ChatMemoryStore store;
+    private final TokenCountEstimator tokenCountEstimator;
+    private final int maxTokens;
+    private final ChatMemorySummarizer summarizer;
+    private final DistributionSummary windowTokens;
+
+    public TokenBudgetChatMemory(Object id,
+                                 ChatMemoryStore store,
+                                 TokenCountEstimator tokenCountEstimator,
+                                 int maxTokens,
+                                 ChatMemorySummarizer summarizer,
+                                 DistributionSummary windowTokens) {
+        this.id = id;
+        this.store = store;
+        this.tokenCountEstimator = tokenCountEstimator;
+        this.maxTokens = maxTokens;
+        this.summarizer = summarizer;
+        this.windowTokens = windowTokens;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        List<ChatMessage> messages = new ArrayList<>(store.getMessages(id));
+        if (message instanceof SystemMessage) {
+            int existing = indexOfSystemMessage(messages);
+            if (existing >= 0) {
+                if (messages.get(existing).equals(message)) {
+                    return;
+                }
+                messages.remove(existing);
+            }
+            messages.add(0, message);
+        } else {
+            messages.add(message);
+        }
+        List<ChatMessage> evicted = evict(messages);
+        store.updateMessages(id, messages);
+        if (!evicted.isEmpty()) {
+            log.debug("对话记忆超出 token 预算, memoryId: {}, 淘汰 {} 条", id, evicted.size());
+            summarizer.compactAsync(id, evicted);
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        List<ChatMessage> messages = new ArrayList<>(store.getMessages(id));
+        String summary = summarizer.getSummary(id);
+        if (StrUtil.isBlank(summary)) {
+            return messages;
+        }
+        int systemIndex = indexOfSystemMessage(messages);
+        if (systemIndex >= 0) {
+            SystemMessage system = (SystemMessage) messages.get(systemIndex);
+            messages.set(systemIndex, SystemMessage.from(system.text() + SUMMARY_HEADER + summary));
+        } else {
+            messages.add(0, SystemMessage.from(SUMMARY_HEADER.trim() + summary));
+        }
+        return messages;
+    }
+
+    @Override
+    public void clear() {
+        store.deleteMessages(id);
+        summarizer.clear(id);
+    }
+
+    /**
+     * 从最早的非系统消息开始淘汰，直到总 token 数不超过预算
+     *
+     * @return 被淘汰的消息（按原顺序）
+     */
+    private List<ChatMessage> evict(List<ChatMessage> messages) {
+        int total = 0;
+        for (ChatMessage message : messages) {
+            if (!(message instanceof SystemMessage)) {
+                total += countTokens(message);
+            }
+        }
+        List<ChatMessage> evicted = new ArrayList<>();
+        while (total > maxTokens) {
+            int index = firstNonSystemIndex(messages);
+            // 最新的一条（本轮的用户消息或 AI 回复）不能淘汰
+            if (index < 0 || index >= messages.size() - 1) {
+                break;
+            }
+            ChatMessage removed = messages.remove(index);
+            total -= countTokens(removed);
+            evicted.add(removed);
+            if (removed instanceof AiMessage aiMessage && aiMessage.hasToolExecutionRequests()) {
+                // 工具结果离开对应的调用没有意义，一起淘汰
+                while (index < messages.size() - 1 && messages.get(index) instanceof ToolExecutionResultMessage) {
+                    ChatMessage result = messages.remove(index);
+                    total -= countTokens(result);
+                    evicted.add(result);
+                }
+            }
+        }
+        windowTokens.record(total);
+        return evicted;
+    }
+
+    private int countTokens(ChatMessage message) {
+        return TOKEN_COUNTS.get(message, tokenCountEstimator::estimateTokenCountInMessage);
+    }
+
+    private static int indexOfSystemMessage(List<ChatMessage> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i) instanceof SystemMessage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int firstNonSystemIndex(List<ChatMessage> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (!(messages.get(i) instanceof SystemMessage)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,273 @@
+package com.hao.haoaicode.buffer;
+
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.codec.PayloadCompressor;
+import com.hao.haoaicode.model.entity.ChatHistory;
+import com.hao.haoaicode.monitor.AppMetricsCollector;
+import com.mybatisflex.core.keygen.IKeyGenerator;
+import com.mybatisflex.core.keygen.KeyGeneratorFactory;
+import com.mybatisflex.core.keygen.KeyGenerators;
+import jakarta.annotation.Resource;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 聊天历史批量写入器
+ *
+ * 替代 MyBatis-Flex 的 insertBatch（吞吐取决于驱动参数，且一行出错整批失败）：
+ * 1. 直接拼多行 INSERT ... VALUES (...),(...)，按字节数和行数切块，一条语句一次往返；
+ * 2. 某块写入失败且是数据类错误（超长、非法字符、约束冲突等）时对半拆分重试，定位到单行后写入死信表，其余行正常入库；
+ * 3. 主键在入队时生成，重复投递导致的主键冲突按已写入处理；
+ * 4. 连接、超时等非数据类错误直接抛出，整批交给缓冲队列重新投递；
+ * 5. 通过 AppMetricsCollector 记录行数、字节数和耗时（换算成每秒行数/字节数）；
+ * 6. message 超过阈值时压缩后写入，与实体上的 CompressedStringTypeHandler 读写格式一致。
+ */
+@Slf4j
+@Component
+public class ChatHistoryBulkWriter {
+
+    private static final String INSERT_PREFIX = "INSERT INTO chat_history " +
+            "(id, message, messageType, appId, userId, createTime, updateTime, isDelete, storageType, contentRef) VALUES ";
+    private static final String ROW_PLACEHOLDER = "(?,?,?,?,?,?,?,?,?,?)";
+
+    // MySQL 主键冲突错误码
+    private static final int ER_DUP_ENTRY = 1062;
+
+    // 每行除 message 以外的固定开销估算（字节）
+    private static final int ROW_OVERHEAD_BYTES = 128;
+
+    private static final String DEAD_LETTER_SQL = "INSERT INTO chat_history_dead_letter " +
+            "(appId, userId, messageType, payload, errorCode, errorMessage, createTime) VALUES (?,?,?,?,?,?,?)";
+
+    @Resource
+    private DataSource dataSource;
+
+    @Resource
+    private AppMetricsCollector appMetricsCollector;
+
+    @Resource
+    private PayloadCompressor payloadCompressor;
+
+    /**
+     * 单条语句的最大字节数，需要小于 MySQL 的 max_allowed_packet
+     */
+    @Value("${chat.history.writer.max-statement-bytes:1048576}")
+    private int maxStatementBytes;
+
+    /**
+     * 单条语句的最大行数
+     */
+    @Value("${chat.history.writer.max-rows-per-statement:500}")
+    private int maxRowsPerStatement;
+
+    // 行数 -> 多行 INSERT 语句
+    private final Map<Integer, String> sqlCache = new ConcurrentHashMap<>();
+
+    // 与实体 @Id 注解使用同一个雪花 ID 生成器，保证同一进程内不重复
+    private final IKeyGenerator idGenerator = KeyGeneratorFactory.getKeyGenerator(KeyGenerators.snowFlakeId);
+
+    /**
+     * 写入结果
+     */
+    @Getter
+    public static class WriteResult {
+        private int written;
+        private int deadLettered;
+        private int duplicates;
+        private long bytes;
+    }
+
+    /**
+     * 批量写入
+     *
+     * @param rows 待写入的聊天记录（id 为空时自动生成）
+     * @return 写入结果
+     * @throws SQLException 非数据类错误（连接、超时等），整批需要重试
+     */
+    public WriteResult write(List<ChatHistory> rows) throws SQLException {
+        WriteResult result = new WriteResult();
+        if (rows == null || rows.isEmpty()) {
+            return result;
+        }
+        long startNs = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            List<ChatHistory> chunk = new ArrayList<>();
+            long chunkBytes = 0;
+            for (ChatHistory row : rows) {
+                if (row.getId() == null) {
+                    row.setId((Long) idGenerator.generate(row, "id"));
+                }
+                long rowBytes = estimateBytes(row);
+                if (!chunk.isEmpty()
+                        && (chunk.size() >= maxRowsPerStatement || chunkBytes + rowBytes > maxStatementBytes)) {
+                    insertOrBisect(connection, chunk, result);
+                    chunk = new ArrayList<>();
+                    chunkBytes = 0;
+                }
+                chunk.add(row);
+                chunkBytes += rowBytes;
+            }
+            insertOrBisect(connection, chunk, result);
+        }
+        long durationMs = (System.nanoTime() - startNs) / 1_000_000;
+        appMetricsCollector.recordHistoricalBatch("success", result.written, result.bytes, durationMs);
+        if (result.deadLettered > 0) {
+            appMetricsCollector.recordHistoricalBatch("dead_letter", result.deadLettered);
+        }
+        return result;
+    }
+
+    /**
+     * 写入一块；数据类错误时对半拆分，单行仍失败则写入死信表
+     */
+    private void insertOrBisect(Connection connection, List<ChatHistory> chunk, WriteResult result) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            insertRows(connection, chunk);
+            result.written += chunk.size();
+            for (ChatHistory row : chunk) {
+                result.bytes += estimateBytes(row);
+            }
+        } catch (SQLException e) {
+            if (!isDataError(e)) {
+                throw e;
+            }
+            if (chunk.size() == 1) {
+                if (e.getErrorCode() == ER_DUP_ENTRY) {
+                    // 主键在入队时生成，重复投递的行已经写入过，直接跳过
+                    log.debug("聊天记录已存在，跳过 id: {}", chunk.get(0).getId());
+                    result.duplicates++;
+                    return;
+                }
+                deadLetter(connection, chunk.get(0), e);
+                result.deadLettered++;
+                return;
+            }
+            int mid = chunk.size() / 2;
+            insertOrBisect(connection, chunk.subList(0, mid), result);
+            insertOrBisect(connection, chunk.subList(mid, chunk.size()), result);
+        }
+    }
+
+    private void insertRows(Connection connection, List<ChatHistory> rows) throws SQLException {
+        String sql = sqlCache.computeIfAbsent(rows.size(), ChatHistoryBulkWriter::buildInsertSql);
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (ChatHistory row : rows) {
+                statement.setLong(index++, row.getId());
+                // 与实体上的 CompressedStringTypeHandler 保持一致
+                statement.setString(index++, payloadCompressor.encode(row.getMessage(), "mysql"));
+                statement.setString(index++, row.getMessageType());
+                setLong(statement, index++, row.getAppId());
+                setLong(statement, index++, row.getUserId());
+                setTimestamp(statement, index++, row.getCreateTime());
+                setTimestamp(statement, index++, row.getUpdateTime());
+                statement.setInt(index++, row.getIsDelete() != null ? row.getIsDelete() : 0);
+                statement.setString(index++, row.getStorageType());
+                statement.setString(index++, row.getContentRef());
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private void deadLetter(Connection connection, ChatHistory row, SQLException cause) throws SQLException {
+        log.error("聊天记录写入失败，转入死信表 appId: {}, errorCode: {}, error: {}",
+                row.getAppId(), cause.getErrorCode(), cause.getMessage());
+        try (PreparedStatement statement = connection.prepareStatement(DEAD_LETTER_SQL)) {
+            setLong(statement, 1, row.getAppId());
+            setLong(statement, 2, row.getUserId());
+            statement.setString(3, row.getMessageType());
+            statement.setString(4, JSONUtil.toJsonStr(row));
+            statement.setInt(5, cause.getErrorCode());
+            String message = cause.getMessage();
+            statement.setString(6, message != null && message.length() > 1000 ? message.substring(0, 1000) : message);
+            setTimestamp(statement, 7, LocalDateTime.now());
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * 是否是由数据本身引起的错误（重试也不会成功，需要隔离）
+     */
+    private static boolean isDataError(SQLException e) {
+        String state = e.getSQLState();
+        if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+            // 22: 数据异常（超长、格式错误），23: 约束冲突
+            return true;
+        }
+        return switch (e.getErrorCode()) {
+            // 1366: 非法字符（例如 utf8 列写入 emoji），1292: 非法日期时间，1048: 非空列为空
+            case 1366, 1292, 1048 -> true;
+            default -> false;
+        };
+    }
+
+    private static String buildInsertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * (ROW_PLACEHOLDER.length() + 1));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(ROW_PLACEHOLDER);
+        }
+        return sql.toString();
+    }
+
+    private static long estimateBytes(ChatHistory row) {
+        return ROW_OVERHEAD_BYTES + utf8Length(row.getMessage()) + utf8Length(row.getContentRef());
+    }
+
+    /**
+     * UTF-8 编码后的字节数，不创建字节数组
+     */
+    static long utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void setLong(PreparedStatement statement, int index, Long value) throws SQLException {
+        if (value != null) {
+            statement.setLong(index, value);
+        } else {
+            statement.setNull(index, Types.BIGINT);
+        }
+    }
+
+    private static void setTimestamp(PreparedStatement statement, int index, LocalDateTime value) throws SQLException {
+        statement.setTimestamp(index, Timestamp.valueOf(value != null ? value : LocalDateTime.now()));
+    }
+}
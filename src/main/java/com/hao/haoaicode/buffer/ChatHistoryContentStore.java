@@ -0,0 +1,216 @@
+package com.hao.haoaicode.buffer;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hao.haoaicode.manager.AsyncObjectStore;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import com.hao.haoaicode.model.entity.ChatHistory;
+import com.hao.haoaicode.model.enums.StorageTypeEnum;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 对话消息分层存储
+ *
+ * 完整的多文件 Vue 回复动辄几十 KB，直接存会撑大 chat_history 行、Redis 缓冲队列、热尾和 InnoDB 缓冲池：
+ * 1. 入队前按 UTF-8 字节数分层，超过阈值的正文上传到 COS，行里只保留前若干字符的预览，storageType=COS，contentRef 指向对象键；
+ * 2. 上传失败时退回直接存储，不影响对话；
+ * 3. 分页查询、热尾只返回预览，需要完整内容时（恢复对话记忆、前端展开消息）再按 contentRef 懒加载；
+ * 4. 懒加载结果按对象键做一层本地缓存，同一条大消息被多次恢复时不重复下载；
+ * 5. 恢复整段对话时并发下载（并发数由 AsyncObjectStore 统一限制），整体有截止时间，超时的消息退回预览。
+ */
+@Slf4j
+@Component
+public class ChatHistoryContentStore {
+
+    private static final String PREVIEW_SUFFIX = "…";
+
+    @Resource
+    private AsyncObjectStore objectStore;
+
+    /**
+     * 超过该字节数（UTF-8）的正文存到 COS，0 表示关闭分层
+     */
+    @Value("${chat.history.tiering.threshold-bytes:8192}")
+    private int thresholdBytes;
+
+    /**
+     * 行内保留的预览字符数
+     */
+    @Value("${chat.history.tiering.preview-chars:500}")
+    private int previewChars;
+
+    @Value("${chat.history.tiering.cos-prefix:/chat-history}")
+    private String cosPrefix;
+
+    /**
+     * 批量加载的整体截止时间（毫秒）
+     */
+    @Value("${chat.history.tiering.hydrate-timeout-ms:3000}")
+    private long hydrateTimeoutMs;
+
+    // 对象键 -> 完整正文（对象按消息 ID 命名且不会被覆盖，不需要失效）
+    private final Cache<String, String> contentCache = Caffeine.newBuilder()
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .maximumWeight(64L * 1024 * 1024)
+            .weigher((String key, String value) -> value.length() * 2)
+            .build();
+
+    /**
+     * 按大小决定存储方式，填充 message / storageType / contentRef
+     *
+     * @param dto     已分配 ID 的消息
+     * @param message 完整正文
+     */
+    public void tier(ChatHistoryDTO dto, String message) {
+        long size = ChatHistoryBulkWriter.utf8Length(message);
+        if (thresholdBytes <= 0 || size <= thresholdBytes) {
+            dto.setMessage(message);
+            dto.setStorageType(StorageTypeEnum.DIRECT.getValue());
+            dto.setContentRef(null);
+            log.debug("消息直接存储到 MySQL, size: {} bytes", size);
+            return;
+        }
+        String key = AsyncObjectStore.objectKey(buildKey(dto.getAppId(), dto.getId()));
+        if (!objectStore.putText(key, message, "application/json; charset=utf-8").join()) {
+            log.warn("大消息上传 COS 失败，改为直接存储, appId: {}, size: {} bytes", dto.getAppId(), size);
+            dto.setMessage(message);
+            dto.setStorageType(StorageTypeEnum.DIRECT.getValue());
+            dto.setContentRef(null);
+            return;
+        }
+        contentCache.put(key, message);
+        dto.setMessage(preview(message, previewChars));
+        dto.setStorageType(StorageTypeEnum.COS.getValue());
+        dto.setContentRef(key);
+        log.debug("大消息存储到 COS, key: {}, size: {} bytes", key, size);
+    }
+
+    /**
+     * 读取完整正文：直接存储的返回 message，COS 存储的懒加载，加载失败时退回预览
+     */
+    public String loadFullMessage(ChatHistory history) {
+        if (history == null) {
+            return null;
+        }
+        if (!StorageTypeEnum.COS.getValue().equals(history.getStorageType()) || history.getContentRef() == null) {
+            return history.getMessage();
+        }
+        String key = history.getContentRef();
+        String content = contentCache.getIfPresent(key);
+        if (content == null) {
+            content = objectStore.getText(key).join();
+            if (content == null) {
+                log.warn("COS 消息正文加载失败，使用预览, id: {}, key: {}", history.getId(), key);
+                return history.getMessage();
+            }
+            contentCache.put(key, content);
+        }
+        return content;
+    }
+
+    /**
+     * 批量读取完整正文（恢复对话记忆时使用）
+     * 本地缓存未命中的 COS 正文并发下载，超过截止时间仍未完成的使用预览
+     *
+     * @return 与 histories 一一对应的完整正文
+     */
+    public List<String> loadFullMessages(List<ChatHistory> histories) {
+        List<String> contents = new ArrayList<>(histories.size());
+        // 需要下载的：对象键 -> 在结果中的下标（同一个对象只下载一次）
+        Map<String, List<Integer>> toFetch = new LinkedHashMap<>();
+        for (int i = 0; i < histories.size(); i++) {
+            ChatHistory history = histories.get(i);
+            String content = history != null ? history.getMessage() : null;
+            if (history != null && StorageTypeEnum.COS.getValue().equals(history.getStorageType())
+                    && history.getContentRef() != null) {
+                String cached = contentCache.getIfPresent(history.getContentRef());
+                if (cached != null) {
+                    content = cached;
+                } else {
+                    toFetch.computeIfAbsent(history.getContentRef(), key -> new ArrayList<>()).add(i);
+                }
+            }
+            contents.add(content);
+        }
+        if (toFetch.isEmpty()) {
+            return contents;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        for (String key : toFetch.keySet()) {
+            futures.put(key, download(key));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hydrateTimeoutMs);
+        int timedOut = 0;
+        for (Map.Entry<String, CompletableFuture<String>> entry : futures.entrySet()) {
+            String content = null;
+            try {
+                content = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // 不取消下载，晚到的结果仍然写入缓存，下次恢复直接命中
+                timedOut++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.warn("COS 消息正文加载失败, key: {}, error: {}", entry.getKey(), e.getMessage());
+            }
+            if (content != null) {
+                for (int index : toFetch.get(entry.getKey())) {
+                    contents.set(index, content);
+                }
+            }
+        }
+        if (timedOut > 0) {
+            log.warn("COS 消息正文加载超时，{} 条使用预览", timedOut);
+        }
+        log.debug("并发加载 COS 消息正文 {} 条, 耗时 {} ms", toFetch.size(), System.currentTimeMillis() - start);
+        return contents;
+    }
+
+    /**
+     * 异步下载，下载成功的写入本地缓存
+     */
+    private CompletableFuture<String> download(String key) {
+        return objectStore.getText(key).thenApply(content -> {
+            if (content != null) {
+                contentCache.put(key, content);
+            }
+            return content;
+        });
+    }
+
+    /**
+     * 截取预览，不拆开代理对
+     */
+    static String preview(String message, int chars) {
+        if (message.length() <= chars) {
+            return message;
+        }
+        int end = chars;
+        if (end > 0 && Character.isHighSurrogate(message.charAt(end - 1))) {
+            end--;
+        }
+        return message.substring(0, end) + PREVIEW_SUFFIX;
+    }
+
+    private String buildKey(Long appId, Long id) {
+        String prefix = cosPrefix == null || cosPrefix.isBlank() ? "/chat-history" : cosPrefix.trim();
+        while (prefix.endsWith("/")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        return String.format("%s/%d/%d.txt", prefix, appId, id);
+    }
+}
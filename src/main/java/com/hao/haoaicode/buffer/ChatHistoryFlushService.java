@@ -1,67 +1,294 @@
 package com.hao.haoaicode.buffer;
 
-import com.hao.haoaicode.mapper.ChatHistoryMapper;
 import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
 import com.hao.haoaicode.model.entity.ChatHistory;
 import com.hao.haoaicode.monitor.AppMetricsCollector;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * 聊天历史批量刷盘服务
  *
- * 定时从缓冲队列取出消息，批量写入 MySQL
- * 将高频单条写入转换为低频批量写入，降低数据库压力
+ * 从缓冲队列取出消息，批量写入 MySQL
+ * 将高频单条写入转换为低频批量写入（多行 INSERT，见 ChatHistoryBulkWriter），降低数据库压力
+ * 写库成功后才确认批次，失败的批次在可见性超时后重新投递，不会丢消息
+ *
+ * 自适应刷盘（原先固定每 5 秒最多 100 条，持续写入时积压会无限增长）：
+ * 1. 积压量或最早消息等待时间超过水位线时立即刷盘，本节点入队数达到水位线也会提前触发；
+ * 2. 一次刷盘循环取批，直到积压量回落到阈值以下；
+ * 3. 批大小按实测写库耗时调整：耗时低于目标且批次取满时扩大，超过目标时按比例缩小；
+ * 4. 空闲时只做一次轻量的积压查询，并且退化为 max-interval 一次。
  */
 @Slf4j
 @Component
 public class ChatHistoryFlushService {
 
-    /**
-     * 每次批量处理的最大数量
-     */
-    private static final int BATCH_SIZE = 100;
-
     @Resource
     private MessageBufferService messageBufferService;
     @Resource
-    private ChatHistoryMapper chatHistoryMapper;
+    private ChatHistoryBulkWriter chatHistoryBulkWriter;
     @Resource
     private AppMetricsCollector appMetricsCollector;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 积压量水位线，达到即立即刷盘
+     */
+    @Value("${chat.history.flush.size-watermark:200}")
+    private long sizeWatermark;
+
+    /**
+     * 最早消息等待时间水位线（毫秒），达到即立即刷盘
+     */
+    @Value("${chat.history.flush.age-watermark-ms:2000}")
+    private long ageWatermarkMs;
+
+    /**
+     * 刷盘循环持续的条件：积压量高于该阈值
+     */
+    @Value("${chat.history.flush.drain-threshold:50}")
+    private long drainThreshold;
+
+    /**
+     * 两次刷盘的最长间隔（毫秒），有积压就一定会在这个时间内刷一次；空闲时也按这个间隔检查
+     */
+    @Value("${chat.history.flush.max-interval-ms:5000}")
+    private long maxIntervalMs;
+
+    @Value("${chat.history.flush.min-batch-size:20}")
+    private int minBatchSize;
+
+    @Value("${chat.history.flush.max-batch-size:1000}")
+    private int maxBatchSize;
+
     /**
-     * 定时批量刷盘
-     * 每 5 秒执行一次
+     * 单次批量写入的目标耗时（毫秒）
      */
-    @Scheduled(fixedRate = 5000)
-    public void flush() {
-        List<ChatHistoryDTO> batch = messageBufferService.pop(BATCH_SIZE);
+    @Value("${chat.history.flush.target-latency-ms:200}")
+    private long targetLatencyMs;
+
+    /**
+     * 当前批大小，按写库耗时调整
+     */
+    private final AtomicInteger batchSize = new AtomicInteger(100);
+
+    /**
+     * 最近一次观测到的积压量 / 最早消息等待时间（供监控读取，避免每次抓取都查 Redis）
+     */
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong oldestAgeMs = new AtomicLong();
+
+    /**
+     * 本节点上次刷盘以来的入队数
+     */
+    private final AtomicLong pushedSinceFlush = new AtomicLong();
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private volatile long lastFlushMs = System.currentTimeMillis();
+
+    private volatile long lastRedeliverMs = 0;
+
+    // 刷盘在独立线程上执行，不占用公共的定时任务线程
+    private final ExecutorService drainExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-history-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        batchSize.set(Math.max(minBatchSize, Math.min(batchSize.get(), maxBatchSize)));
+        Gauge.builder("app.chat_history.buffer.backlog", backlog, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("app.chat_history.buffer.oldest_age_seconds", oldestAgeMs, v -> v.get() / 1000.0)
+                .register(meterRegistry);
+        Gauge.builder("app.chat_history.flush.batch_size", batchSize, AtomicInteger::get)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 本节点有消息入队，达到水位线时提前触发刷盘
+     */
+    public void onPushed() {
+        if (pushedSinceFlush.incrementAndGet() >= sizeWatermark) {
+            triggerDrain();
+        }
+    }
 
-        if (batch.isEmpty()) {
+    /**
+     * 定时检查水位线
+     */
+    @Scheduled(fixedDelayString = "${chat.history.flush.tick-ms:500}")
+    public void tick() {
+        long now = System.currentTimeMillis();
+        boolean overdue = now - lastFlushMs >= maxIntervalMs;
+        // 空闲（本节点没有新消息，上次观测也没有积压）时只按 max-interval 检查一次
+        if (pushedSinceFlush.get() == 0 && backlog.get() == 0 && !overdue) {
+            return;
+        }
+        long size = refreshBacklog();
+        if (size == 0 && !overdue) {
             return;
         }
+        if (size >= sizeWatermark || oldestAgeMs.get() >= ageWatermarkMs || overdue) {
+            triggerDrain();
+        }
+    }
+
+    /**
+     * 提交一次刷盘循环，已经在刷盘时忽略
+     */
+    private void triggerDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                drainExecutor.execute(() -> {
+                    try {
+                        drain();
+                    } finally {
+                        draining.set(false);
+                    }
+                });
+            } catch (Exception e) {
+                draining.set(false);
+                log.warn("提交刷盘任务失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 刷盘循环：取批写库，直到积压量回落到阈值以下
+     */
+    void drain() {
+        long now = System.currentTimeMillis();
+        lastFlushMs = now;
+        pushedSinceFlush.set(0);
+        // 超时未确认的批次（上次写库失败或进程崩溃）放回队列，按 max-interval 节流
+        if (now - lastRedeliverMs >= maxIntervalMs) {
+            lastRedeliverMs = now;
+            messageBufferService.redeliverUnacked();
+        }
+
+        while (true) {
+            int size = batchSize.get();
+            MessageBatch batch = messageBufferService.pop(size);
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (!flushBatch(batch)) {
+                // 写库失败，等下一次触发，避免对故障中的数据库连续重试
+                break;
+            }
+            // 没取满说明队列已经取空（有逐条标识的实现按标识数算，包含无法解析的消息）
+            int fetched = batch.getEntryIds().isEmpty() ? batch.size() : batch.getEntryIds().size();
+            if (fetched < size) {
+                break;
+            }
+            if (refreshBacklog() <= drainThreshold) {
+                break;
+            }
+        }
+        refreshBacklog();
+    }
+
+    /**
+     * 写入一批消息并确认
+     *
+     * @return 是否写库成功
+     */
+    private boolean flushBatch(MessageBatch batch) {
+        if (batch.getMessages().isEmpty()) {
+            // 整批都是无法解析的消息，直接确认
+            messageBufferService.ack(batch);
+            return true;
+        }
 
         try {
             // DTO 转换为实体
-            List<ChatHistory> entities = batch.stream()
+            List<ChatHistory> entities = batch.getMessages().stream()
                     .map(this::toEntity)
                     .collect(Collectors.toList());
 
-            // 批量插入
-            chatHistoryMapper.insertBatch(entities);
-            log.info("批量刷盘成功，写入 {} 条聊天记录", entities.size());
-            // 进行指标监控
-            appMetricsCollector.recordHistoricalBatch("success", entities.size());
+            // 多行 INSERT 批量写入，坏行隔离到死信表
+            long startNs = System.nanoTime();
+            ChatHistoryBulkWriter.WriteResult result = chatHistoryBulkWriter.write(entities);
+            long latencyMs = (System.nanoTime() - startNs) / 1_000_000;
+            // 写库成功后确认批次
+            messageBufferService.ack(batch);
+            log.info("批量刷盘成功，写入 {} 条聊天记录, 死信 {} 条, 耗时 {} ms",
+                    result.getWritten(), result.getDeadLettered(), latencyMs);
+            adjustBatchSize(entities.size(), latencyMs);
+            return true;
 
         } catch (Exception e) {
-            log.error("批量刷盘失败，{} 条消息丢失: {}", batch.size(), e.getMessage(), e);
-            // TODO: 生产环境可考虑重新入队或写入死信队列
+            log.error("批量刷盘失败，{} 条消息将在超时后重新投递: {}", batch.size(), e.getMessage(), e);
+            appMetricsCollector.recordHistoricalBatch("failed", batch.size());
+            // 失败可能是批次过大导致的超时，先缩小
+            batchSize.updateAndGet(v -> Math.max(minBatchSize, v / 2));
+            return false;
+        }
+    }
+
+    /**
+     * 按实测写库耗时调整批大小
+     */
+    private void adjustBatchSize(int written, long latencyMs) {
+        int current = batchSize.get();
+        int next = current;
+        if (latencyMs > targetLatencyMs) {
+            // 超过目标耗时，按比例缩小
+            next = (int) (current * targetLatencyMs / Math.max(latencyMs, 1));
+        } else if (written >= current && latencyMs < targetLatencyMs / 2) {
+            // 取满了且耗时宽裕，扩大一半
+            next = current + current / 2;
+        }
+        batchSize.set(Math.max(minBatchSize, Math.min(next, maxBatchSize)));
+    }
+
+    /**
+     * 查询并缓存积压量和最早消息等待时间
+     */
+    private long refreshBacklog() {
+        try {
+            long size = messageBufferService.size();
+            backlog.set(size);
+            oldestAgeMs.set(size > 0 ? messageBufferService.oldestMessageAgeMs() : 0);
+            return size;
+        } catch (Exception e) {
+            log.warn("查询缓冲积压量失败: {}", e.getMessage());
+            return backlog.get();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainExecutor.shutdown();
+        try {
+            if (!drainExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                drainExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drainExecutor.shutdownNow();
         }
     }
 
@@ -70,6 +297,7 @@ public class ChatHistoryFlushService {
      */
     private ChatHistory toEntity(ChatHistoryDTO dto) {
         ChatHistory entity = new ChatHistory();
+        entity.setId(dto.getId());
         entity.setAppId(dto.getAppId());
         entity.setUserId(dto.getUserId());
         entity.setMessage(dto.getMessage());
@@ -0,0 +1,157 @@
+package com.hao.haoaicode.buffer;
+
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import com.hao.haoaicode.model.entity.ChatHistory;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 对话历史热尾缓存
+ *
+ * 每个应用在 Redis List 里保留最近 N 条消息（由 ChatMessageRouter 入队时同步写入）：
+ * 1. 打开应用时的首页以及落在热尾范围内的游标查询直接从这里返回，不查 MySQL；
+ * 2. 还在缓冲队列里、尚未刷盘的消息也能立即查到；
+ * 3. 热尾写入失败时删除整个 key，保证“热尾中没有的消息一定比热尾中最旧的消息更早”，查询可以放心合并 MySQL 的结果。
+ *
+ * 游标为 (createTime, id) 键集，与 MySQL 查询的排序一致。
+ */
+@Slf4j
+@Component
+public class ChatHistoryHotTail {
+
+    private static final String TAIL_KEY_PREFIX = "chat:history:tail:";
+
+    // Lua脚本：写入最新消息，裁剪到 N 条并续期（一次往返）
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('lpush', KEYS[1], ARGV[1]) " +
+            "redis.call('ltrim', KEYS[1], 0, tonumber(ARGV[2]) - 1) " +
+            "redis.call('expire', KEYS[1], ARGV[3]) " +
+            "return 1", Long.class);
+
+    /**
+     * 按 (createTime, id) 倒序
+     */
+    public static final Comparator<ChatHistory> NEWEST_FIRST = Comparator
+            .comparing(ChatHistory::getCreateTime, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ChatHistory::getId, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .reversed();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 每个应用保留的消息条数
+     */
+    @Value("${chat.history.tail.size:50}")
+    private int tailSize;
+
+    @Value("${chat.history.tail.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    /**
+     * 写入一条最新消息（失败时删除热尾，不影响主流程）
+     */
+    public void append(ChatHistoryDTO message) {
+        String key = tailKey(message.getAppId());
+        try {
+            stringRedisTemplate.execute(APPEND_SCRIPT, List.of(key),
+                    JSONUtil.toJsonStr(message), String.valueOf(tailSize), String.valueOf(ttlSeconds));
+        } catch (Exception e) {
+            log.warn("写入对话历史热尾失败, appId: {}, error: {}", message.getAppId(), e.getMessage());
+            evict(message.getAppId());
+        }
+    }
+
+    /**
+     * 从热尾读取早于游标的消息，按 (createTime, id) 倒序
+     *
+     * @param lastCreateTime 游标时间，为空表示从最新开始
+     * @param lastId         游标ID，为空时只按时间比较
+     * @return 热尾中满足条件的消息（可能少于需要的条数，读取失败时返回空列表）
+     */
+    public List<ChatHistory> listBefore(Long appId, LocalDateTime lastCreateTime, Long lastId) {
+        List<String> items;
+        try {
+            items = stringRedisTemplate.opsForList().range(tailKey(appId), 0, -1);
+        } catch (Exception e) {
+            log.warn("读取对话历史热尾失败, appId: {}, error: {}", appId, e.getMessage());
+            return new ArrayList<>();
+        }
+        if (items == null || items.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<ChatHistory> result = new ArrayList<>(items.size());
+        for (String json : items) {
+            try {
+                ChatHistory history = toEntity(JSONUtil.toBean(json, ChatHistoryDTO.class));
+                if (isBefore(history, lastCreateTime, lastId)) {
+                    result.add(history);
+                }
+            } catch (Exception e) {
+                log.warn("对话历史热尾数据解析失败，已跳过: {}", e.getMessage());
+            }
+        }
+        result.sort(NEWEST_FIRST);
+        return result;
+    }
+
+    /**
+     * 删除应用的热尾（删除、修改历史后调用）
+     */
+    public void evict(Long appId) {
+        if (appId == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.delete(tailKey(appId));
+        } catch (Exception e) {
+            log.warn("删除对话历史热尾失败, appId: {}, error: {}", appId, e.getMessage());
+        }
+    }
+
+    /**
+     * (createTime, id) 是否严格早于游标
+     */
+    static boolean isBefore(ChatHistory history, LocalDateTime lastCreateTime, Long lastId) {
+        if (lastCreateTime == null) {
+            return true;
+        }
+        if (history.getCreateTime() == null) {
+            return false;
+        }
+        int cmp = history.getCreateTime().compareTo(lastCreateTime);
+        if (cmp != 0 || lastId == null) {
+            return cmp < 0;
+        }
+        return history.getId() != null && history.getId() < lastId;
+    }
+
+    private static ChatHistory toEntity(ChatHistoryDTO dto) {
+        return ChatHistory.builder()
+                .id(dto.getId())
+                .appId(dto.getAppId())
+                .userId(dto.getUserId())
+                .message(dto.getMessage())
+                .messageType(dto.getMessageType())
+                .storageType(dto.getStorageType())
+                .contentRef(dto.getContentRef())
+                .createTime(dto.getCreateTime())
+                .updateTime(dto.getCreateTime())
+                .isDelete(0)
+                .build();
+    }
+
+    private static String tailKey(Long appId) {
+        return TAIL_KEY_PREFIX + appId;
+    }
+}
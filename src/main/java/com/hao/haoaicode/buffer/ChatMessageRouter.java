@@ -1,20 +1,23 @@
 package com.hao.haoaicode.buffer;
 
 import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
-import com.hao.haoaicode.model.enums.StorageTypeEnum;
+import com.mybatisflex.core.keygen.IKeyGenerator;
+import com.mybatisflex.core.keygen.KeyGeneratorFactory;
+import com.mybatisflex.core.keygen.KeyGenerators;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 
 /**
  * 聊天消息路由器
  * 
  * 职责：
- * 1. 推送消息到缓冲队列
- * 2. 由批量刷盘服务写入 MySQL
+ * 1. 按大小分层存储，大消息正文上传 COS
+ * 2. 推送消息到缓冲队列
+ * 3. 由批量刷盘服务写入 MySQL
+ * 4. 写入对话历史热尾（最近 N 条），供分页查询直接读取
  */
 @Slf4j
 @Component
@@ -23,6 +26,18 @@ public class ChatMessageRouter {
     @Resource
     private MessageBufferService messageBufferService;
 
+    @Resource
+    private ChatHistoryFlushService chatHistoryFlushService;
+
+    @Resource
+    private ChatHistoryHotTail chatHistoryHotTail;
+
+    @Resource
+    private ChatHistoryContentStore chatHistoryContentStore;
+
+    // 与实体 @Id 注解使用同一个雪花 ID 生成器
+    private final IKeyGenerator idGenerator = KeyGeneratorFactory.getKeyGenerator(KeyGenerators.snowFlakeId);
+
     /**
      * 路由消息到缓冲队列
      *
@@ -32,21 +47,24 @@ public class ChatMessageRouter {
      * @param userId      用户ID
      */
     public void route(Long appId, String message, String messageType, Long userId) {
+        // 入队时就确定主键和创建时间（截断到秒，与 MySQL datetime 一致），热尾和数据库中的游标才能对齐
         ChatHistoryDTO dto = ChatHistoryDTO.builder()
                 .appId(appId)
                 .userId(userId)
                 .messageType(messageType)
-                .createTime(LocalDateTime.now())
+                .createTime(LocalDateTime.now().withNano(0))
                 .build();
+        dto.setId((Long) idGenerator.generate(dto, "id"));
 
-        int size = message.getBytes(StandardCharsets.UTF_8).length;
-
-        dto.setMessage(message);
-        dto.setStorageType(StorageTypeEnum.DIRECT.getValue());
-        log.debug("消息直接存储到 MySQL, size: {} bytes", size);
+        // 按大小分层：大消息正文放 COS，缓冲队列、热尾和 MySQL 里只有预览
+        chatHistoryContentStore.tier(dto, message);
 
         // 推送到缓冲队列
         messageBufferService.push(dto);
+        // 写入热尾，刷盘之前也能查到最新消息
+        chatHistoryHotTail.append(dto);
+        // 入队数达到水位线时提前触发刷盘
+        chatHistoryFlushService.onPushed();
     }
 
 }
@@ -0,0 +1,52 @@
+package com.hao.haoaicode.buffer;
+
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一批从缓冲队列取出、等待确认的消息
+ *
+ * 取出后消息处于“处理中”，写入 MySQL 成功后调用 {@link MessageBufferService#ack(MessageBatch)} 确认；
+ * 未确认的批次在超时后由 {@link MessageBufferService#redeliverUnacked()} 重新投递，保证不丢消息。
+ */
+@Getter
+public class MessageBatch {
+
+    private static final MessageBatch EMPTY = new MessageBatch(null, Collections.emptyList(), Collections.emptyList());
+
+    /**
+     * 批次ID（由具体实现生成，确认时使用）
+     */
+    private final String batchId;
+
+    /**
+     * 消息列表
+     */
+    private final List<ChatHistoryDTO> messages;
+
+    /**
+     * 每条消息在缓冲中的标识（例如 Stream 消息ID），不需要逐条确认的实现可以为空
+     */
+    private final List<String> entryIds;
+
+    public MessageBatch(String batchId, List<ChatHistoryDTO> messages, List<String> entryIds) {
+        this.batchId = batchId;
+        this.messages = messages != null ? messages : Collections.emptyList();
+        this.entryIds = entryIds != null ? entryIds : Collections.emptyList();
+    }
+
+    public static MessageBatch empty() {
+        return EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty() && entryIds.isEmpty();
+    }
+
+    public int size() {
+        return messages.size();
+    }
+}
@@ -2,15 +2,15 @@ package com.hao.haoaicode.buffer;
 
 import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
 
-import java.util.List;
-
 /**
  * 消息缓冲服务接口
  * 
  * 业务层依赖此接口，不依赖具体实现（Redis/MQ）
  * 体现依赖倒置原则 (DIP)
  * 
- * 当前实现：RedisMessageBuffer
+ * 当前实现：RedisMessageBuffer（Redis List，默认）、RedisStreamMessageBuffer（Redis Stream 消费者组，多节点刷盘）、
+ * LocalWalMessageBuffer（进程内环形队列 + 预写日志，单节点/粘性部署）
+ * 通过 chat.history.buffer.type=list/stream/local 选择
  * 未来扩展：可实现 RabbitMqMessageBuffer / KafkaMessageBuffer
  */
 public interface MessageBufferService {
@@ -23,12 +23,26 @@ public interface MessageBufferService {
     void push(ChatHistoryDTO message);
 
     /**
-     * 批量取出消息
+     * 批量取出消息，取出的消息进入“处理中”，确认之前不会丢失
      *
      * @param batchSize 批量大小
-     * @return 消息列表（可能为空，不会返回 null）
+     * @return 消息批次（可能为空，不会返回 null）
      */
-    List<ChatHistoryDTO> pop(int batchSize);
+    MessageBatch pop(int batchSize);
+
+    /**
+     * 确认一批消息已经持久化，从“处理中”移除
+     *
+     * @param batch pop 返回的批次
+     */
+    void ack(MessageBatch batch);
+
+    /**
+     * 把超时仍未确认的批次（例如写库失败、进程崩溃）重新放回队列
+     *
+     * @return 重新投递的消息数量
+     */
+    int redeliverUnacked();
 
     /**
      * 获取队列当前大小
@@ -36,4 +50,11 @@ public interface MessageBufferService {
      * @return 队列中的消息数量
      */
     long size();
+
+    /**
+     * 队列中最早一条待处理消息已等待的时间
+     *
+     * @return 毫秒，队列为空时返回 0
+     */
+    long oldestMessageAgeMs();
 }
@@ -0,0 +1,334 @@
+package com.hao.haoaicode.buffer.impl;
+
+import cn.hutool.core.util.IdUtil;
+import com.hao.haoaicode.buffer.MessageBatch;
+import com.hao.haoaicode.buffer.MessageBufferService;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内消息缓冲服务（无锁环形队列 + 内存映射预写日志）
+ *
+ * 单节点或按应用粘性路由的部署里，消息由本 JVM 入队、也由本 JVM 的刷盘服务取出，
+ * 经 Redis 绕一圈（网络往返 + JSON 编解码）纯属开销。这里：
+ * 1. 入队先以紧凑的二进制格式追加到预写日志（内存映射，无系统调用），再放入多生产者无锁环形队列；
+ * 2. 出队直接拿到 DTO 对象，不需要反序列化；
+ * 3. 写库成功确认后在日志里标记为已确认，整段确认完即删除；
+ * 4. 启动时重放日志中未确认的记录，进程重启不丢消息。
+ *
+ * 出队只允许刷盘服务的单个线程调用。通过 chat.history.buffer.type=local 启用。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.history.buffer.type", havingValue = "local")
+public class LocalWalMessageBuffer implements MessageBufferService {
+
+    /**
+     * 预写日志目录
+     */
+    @Value("${chat.history.buffer.local.wal-dir:data/chat-history-wal}")
+    private String walDir;
+
+    /**
+     * 预写日志段大小（字节）
+     */
+    @Value("${chat.history.buffer.local.segment-size:67108864}")
+    private int segmentSize;
+
+    /**
+     * 环形队列容量
+     */
+    @Value("${chat.history.buffer.local.ring-capacity:65536}")
+    private int ringCapacity;
+
+    /**
+     * 队列满时入队最多等待的时间（毫秒）
+     */
+    @Value("${chat.history.buffer.local.offer-timeout-ms:1000}")
+    private long offerTimeoutMs;
+
+    /**
+     * 预写日志刷盘间隔（毫秒），0 表示只依赖操作系统回写
+     */
+    @Value("${chat.history.buffer.local.fsync-interval-ms:1000}")
+    private long fsyncIntervalMs;
+
+    @Value("${chat.history.buffer.visibility-timeout-seconds:60}")
+    private long visibilityTimeoutSeconds;
+
+    private WriteAheadLog wal;
+
+    private MpscRingBuffer<Entry> ring;
+
+    // 重放和重投的消息，不受环形队列容量限制，出队时优先取
+    private final Queue<Entry> retryQueue = new ConcurrentLinkedQueue<>();
+
+    // 处理中的批次
+    private final Map<String, InflightBatch> inflight = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService fsyncExecutor;
+
+    @PostConstruct
+    public void init() throws Exception {
+        ring = new MpscRingBuffer<>(ringCapacity);
+        wal = new WriteAheadLog(Paths.get(walDir), segmentSize);
+        wal.open((position, payload) -> {
+            try {
+                ChatHistoryDTO message = decode(payload);
+                long enqueueMs = message.getCreateTime() != null
+                        ? message.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                        : System.currentTimeMillis();
+                retryQueue.add(new Entry(message, position, enqueueMs));
+            } catch (Exception e) {
+                log.error("预写日志记录解码失败，已丢弃", e);
+                wal.markAcked(position);
+            }
+        });
+        if (fsyncIntervalMs > 0) {
+            fsyncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-history-wal-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            fsyncExecutor.scheduleWithFixedDelay(wal::force, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        log.info("进程内消息缓冲已启用, walDir: {}, 重放未确认消息 {} 条", walDir, retryQueue.size());
+    }
+
+    @Override
+    public void push(ChatHistoryDTO message) {
+        WriteAheadLog.Position position;
+        try {
+            position = wal.append(encode(message));
+        } catch (Exception e) {
+            log.error("消息写入预写日志失败: {}", e.getMessage(), e);
+            throw new RuntimeException("消息入队失败", e);
+        }
+        Entry entry = new Entry(message, position, System.currentTimeMillis());
+        if (ring.offer(entry)) {
+            return;
+        }
+        // 队列已满，短暂等待刷盘线程腾出空间
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMs);
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000);
+            if (ring.offer(entry)) {
+                return;
+            }
+        }
+        wal.markAcked(position);
+        log.error("消息缓冲已满，入队失败, appId: {}", message.getAppId());
+        throw new RuntimeException("消息入队失败：缓冲已满");
+    }
+
+    @Override
+    public MessageBatch pop(int batchSize) {
+        if (batchSize <= 0) {
+            return MessageBatch.empty();
+        }
+        List<Entry> entries = new ArrayList<>(Math.min(batchSize, 1024));
+        Entry entry;
+        while (entries.size() < batchSize && (entry = retryQueue.poll()) != null) {
+            entries.add(entry);
+        }
+        while (entries.size() < batchSize && (entry = ring.poll()) != null) {
+            entries.add(entry);
+        }
+        if (entries.isEmpty()) {
+            return MessageBatch.empty();
+        }
+        String batchId = IdUtil.fastSimpleUUID();
+        inflight.put(batchId, new InflightBatch(entries, System.currentTimeMillis()));
+        List<ChatHistoryDTO> messages = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            messages.add(e.message);
+        }
+        return new MessageBatch(batchId, messages, null);
+    }
+
+    @Override
+    public void ack(MessageBatch batch) {
+        if (batch == null || batch.getBatchId() == null) {
+            return;
+        }
+        InflightBatch inflightBatch = inflight.remove(batch.getBatchId());
+        if (inflightBatch == null) {
+            return;
+        }
+        for (Entry entry : inflightBatch.entries) {
+            wal.markAcked(entry.position);
+        }
+    }
+
+    @Override
+    public int redeliverUnacked() {
+        long deadline = System.currentTimeMillis() - visibilityTimeoutSeconds * 1000L;
+        int redelivered = 0;
+        Iterator<Map.Entry<String, InflightBatch>> iterator = inflight.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, InflightBatch> next = iterator.next();
+            if (next.getValue().popMs <= deadline) {
+                iterator.remove();
+                retryQueue.addAll(next.getValue().entries);
+                redelivered += next.getValue().entries.size();
+                log.warn("未确认批次已重新投递, batchId: {}, 消息数: {}", next.getKey(), next.getValue().entries.size());
+            }
+        }
+        return redelivered;
+    }
+
+    @Override
+    public long size() {
+        return (long) ring.size() + retryQueue.size();
+    }
+
+    @Override
+    public long oldestMessageAgeMs() {
+        long oldest = Long.MAX_VALUE;
+        Entry retry = retryQueue.peek();
+        if (retry != null) {
+            oldest = retry.enqueueMs;
+        }
+        Entry head = ring.peek();
+        if (head != null) {
+            oldest = Math.min(oldest, head.enqueueMs);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (fsyncExecutor != null) {
+            fsyncExecutor.shutdownNow();
+        }
+        // 未刷盘的消息留在日志里，下次启动重放
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    /**
+     * 编码：[存在位图][appId][userId][createTime 秒][createTime 纳秒][messageType][message][storageType][contentRef][id]
+     * 字符串为 [int 长度][UTF-8]，不存在的字段不写
+     */
+    static byte[] encode(ChatHistoryDTO dto) {
+        byte[][] strings = {
+                utf8(dto.getMessageType()), utf8(dto.getMessage()), utf8(dto.getStorageType()), utf8(dto.getContentRef())
+        };
+        int flags = 0;
+        int size = 1;
+        if (dto.getAppId() != null) {
+            flags |= 1;
+            size += 8;
+        }
+        if (dto.getUserId() != null) {
+            flags |= 1 << 1;
+            size += 8;
+        }
+        if (dto.getCreateTime() != null) {
+            flags |= 1 << 2;
+            size += 12;
+        }
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i] != null) {
+                flags |= 1 << (3 + i);
+                size += 4 + strings[i].length;
+            }
+        }
+        if (dto.getId() != null) {
+            flags |= 1 << 7;
+            size += 8;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte) flags);
+        if (dto.getAppId() != null) {
+            buffer.putLong(dto.getAppId());
+        }
+        if (dto.getUserId() != null) {
+            buffer.putLong(dto.getUserId());
+        }
+        if (dto.getCreateTime() != null) {
+            buffer.putLong(dto.getCreateTime().toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(dto.getCreateTime().getNano());
+        }
+        for (byte[] s : strings) {
+            if (s != null) {
+                buffer.putInt(s.length);
+                buffer.put(s);
+            }
+        }
+        if (dto.getId() != null) {
+            buffer.putLong(dto.getId());
+        }
+        return buffer.array();
+    }
+
+    static ChatHistoryDTO decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int flags = buffer.get() & 0xFF;
+        ChatHistoryDTO dto = new ChatHistoryDTO();
+        if ((flags & 1) != 0) {
+            dto.setAppId(buffer.getLong());
+        }
+        if ((flags & (1 << 1)) != 0) {
+            dto.setUserId(buffer.getLong());
+        }
+        if ((flags & (1 << 2)) != 0) {
+            long seconds = buffer.getLong();
+            int nanos = buffer.getInt();
+            dto.setCreateTime(LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC));
+        }
+        String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            if ((flags & (1 << (3 + i))) != 0) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        dto.setMessageType(strings[0]);
+        dto.setMessage(strings[1]);
+        dto.setStorageType(strings[2]);
+        dto.setContentRef(strings[3]);
+        if ((flags & (1 << 7)) != 0) {
+            dto.setId(buffer.getLong());
+        }
+        return dto;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * 队列中的一条消息及其在日志中的位置
+     */
+    private record Entry(ChatHistoryDTO message, WriteAheadLog.Position position, long enqueueMs) {
+    }
+
+    private record InflightBatch(List<Entry> entries, long popMs) {
+    }
+}
@@ -0,0 +1,112 @@
+package com.hao.haoaicode.buffer.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形队列（多生产者、单消费者）
+ *
+ * 每个槽位带一个序号：
+ * - 序号 == 生产者拿到的下标，表示槽位空闲，生产者 CAS 推进 tail 后写入元素，再把序号置为下标 + 1 发布；
+ * - 序号 == 消费者的下标 + 1，表示元素已发布，消费者取走后把序号置为下标 + 容量，留给下一轮生产者。
+ * 生产者之间只竞争 tail 的 CAS，不加锁；poll 只允许一个线程调用。
+ */
+public final class MpscRingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+
+    // 生产者共享的写入下标
+    private final AtomicLong tail = new AtomicLong();
+    // 消费者的读取下标（只有消费者写，其他线程读取 size 时需要可见）
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整到 2 的幂
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 入队，队列已满时返回 false（可多线程调用）
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        while (true) {
+            long t = tail.get();
+            int index = (int) (t & mask);
+            long diff = sequences.get(index) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    elements.lazySet(index, element);
+                    // 发布：消费者看到序号后一定能看到元素
+                    sequences.lazySet(index, t + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // 槽位还没被消费者释放，队列已满
+                return false;
+            }
+            // diff > 0：被其他生产者抢先，重试
+        }
+    }
+
+    /**
+     * 出队，队列为空（或者最前面的元素还没发布完成）时返回 null（只允许单线程调用）
+     */
+    public E poll() {
+        long h = head.get();
+        int index = (int) (h & mask);
+        if (sequences.get(index) != h + 1) {
+            return null;
+        }
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.lazySet(index, h + capacity);
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    /**
+     * 查看队首元素但不取出，可以在消费者以外的线程调用（结果只是近似值）
+     */
+    public E peek() {
+        long h = head.get();
+        int index = (int) (h & mask);
+        if (sequences.get(index) != h + 1) {
+            return null;
+        }
+        return elements.get(index);
+    }
+
+    /**
+     * 当前元素数量（近似值）
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
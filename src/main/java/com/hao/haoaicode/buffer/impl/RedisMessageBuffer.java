@@ -1,28 +1,50 @@
 package com.hao.haoaicode.buffer.impl;
 
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.IdUtil;
+import com.hao.haoaicode.buffer.MessageBatch;
 import com.hao.haoaicode.buffer.MessageBufferService;
+import com.hao.haoaicode.codec.ChatBinaryCodec;
+import com.hao.haoaicode.codec.PayloadCompressor;
 import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Redis 实现的消息缓冲服务
- * 
+ *
  * 使用 Redis List 作为缓冲队列
  * LPUSH 入队，RPOP 出队（FIFO）
- * 
- * @Primary 
+ *
+ * 可靠出队：
+ * 1. pop 用一个 Lua 脚本完成 RPOP count + 写入该批次的处理中列表 + 登记到处理中索引（ZSET，分值为出队时间），一次往返；
+ * 2. 写库成功后 ack 删除处理中列表和索引；
+ * 3. 超过可见性超时仍未确认的批次（写库失败、进程崩溃）由 redeliverUnacked 原子地放回队列尾部优先重新消费。
+ * 语义为至少一次：写库成功但确认失败时会重复投递。
+ *
+ * 队列元素用 ChatBinaryCodec 编码，升级前入队的 JSON 字符串仍能解码。
+ *
+ * 默认实现（chat.history.buffer.type=list），多节点刷盘可切换为 {@link RedisStreamMessageBuffer}
  */
 @Slf4j
 @Component
 @Primary
+@ConditionalOnProperty(name = "chat.history.buffer.type", havingValue = "list", matchIfMissing = true)
 public class RedisMessageBuffer implements MessageBufferService {
 
     /**
@@ -30,14 +52,68 @@ public class RedisMessageBuffer implements MessageBufferService {
      */
     private static final String BUFFER_KEY = "chat:history:buffer";
 
+    /**
+     * 处理中批次索引（batchId -> 出队时间戳）
+     */
+    private static final String PROCESSING_INDEX_KEY = "chat:history:processing";
+
+    /**
+     * 处理中批次内容的 key 前缀
+     */
+    private static final String PROCESSING_BATCH_PREFIX = "chat:history:processing:";
+
+    private static final byte[] BUFFER_KEY_BYTES = BUFFER_KEY.getBytes(StandardCharsets.UTF_8);
+
+    // Lua脚本：原子性批量出队并登记为处理中
+    private static final DefaultRedisScript<List> POP_SCRIPT = new DefaultRedisScript<>(
+            // Redis 6.2+ 支持 RPOP count，一次取出一批
+            "local items = redis.call('rpop', KEYS[1], ARGV[1]) " +
+            // 队列为空
+            "if not items then " +
+            "    return {} " +
+            "end " +
+            // 保存到该批次的处理中列表，确认前不会丢
+            "redis.call('rpush', KEYS[2], unpack(items)) " +
+            "redis.call('zadd', KEYS[3], ARGV[2], ARGV[3]) " +
+            "return items", List.class);
+
+    // Lua脚本：确认批次
+    private static final DefaultRedisScript<Long> ACK_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('del', KEYS[1]) " +
+            "return redis.call('zrem', KEYS[2], ARGV[1])", Long.class);
+
+    // Lua脚本：把未确认的批次放回队列
+    private static final DefaultRedisScript<Long> REDELIVER_SCRIPT = new DefaultRedisScript<>(
+            // 先从索引摘掉，保证多个节点同时重投时只有一个会成功
+            "if redis.call('zrem', KEYS[2], ARGV[1]) == 0 then " +
+            "    return 0 " +
+            "end " +
+            "local items = redis.call('lrange', KEYS[1], 0, -1) " +
+            "if #items > 0 then " +
+            // 放回队列的出队端，下次 pop 最先取到
+            "    redis.call('rpush', KEYS[3], unpack(items)) " +
+            "end " +
+            "redis.call('del', KEYS[1]) " +
+            "return #items", Long.class);
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private PayloadCompressor payloadCompressor;
+
+    /**
+     * 处理中批次的可见性超时（秒），超时未确认即重新投递
+     */
+    @Value("${chat.history.buffer.visibility-timeout-seconds:60}")
+    private long visibilityTimeoutSeconds;
+
     @Override
     public void push(ChatHistoryDTO message) {
         try {
-            String json = JSONUtil.toJsonStr(message);
-            stringRedisTemplate.opsForList().leftPush(BUFFER_KEY, json);
+            byte[] payload = payloadCompressor.encodeBinary(ChatBinaryCodec.encodeDto(message), "redis_buffer");
+            stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.listCommands().lPush(BUFFER_KEY_BYTES, payload));
             log.debug("消息入队成功, appId: {}", message.getAppId());
         } catch (Exception e) {
             log.error("消息入队失败: {}", e.getMessage(), e);
@@ -46,25 +122,91 @@ public class RedisMessageBuffer implements MessageBufferService {
     }
 
     @Override
-    public List<ChatHistoryDTO> pop(int batchSize) {
-        List<ChatHistoryDTO> result = new ArrayList<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MessageBatch pop(int batchSize) {
+        if (batchSize <= 0) {
+            return MessageBatch.empty();
+        }
+        String batchId = IdUtil.fastSimpleUUID();
+        List<byte[]> items;
         try {
-            for (int i = 0; i < batchSize; i++) {
-                String json = stringRedisTemplate.opsForList().rightPop(BUFFER_KEY);
-                if (json == null) {
-                    // 队列已空
-                    break;
-                }
-                ChatHistoryDTO dto = JSONUtil.toBean(json, ChatHistoryDTO.class);
-                result.add(dto);
-            }
-            if (!result.isEmpty()) {
-                log.debug("批量出队 {} 条消息", result.size());
-            }
+            // 参数按字符串序列化，返回的消息保持原始字节
+            items = (List<byte[]>) stringRedisTemplate.execute(
+                    POP_SCRIPT,
+                    RedisSerializer.string(),
+                    (RedisSerializer) RedisSerializer.byteArray(),
+                    List.of(BUFFER_KEY, PROCESSING_BATCH_PREFIX + batchId, PROCESSING_INDEX_KEY),
+                    String.valueOf(batchSize),
+                    String.valueOf(System.currentTimeMillis()),
+                    batchId
+            );
         } catch (Exception e) {
             log.error("批量出队失败: {}", e.getMessage(), e);
+            return MessageBatch.empty();
+        }
+        if (items == null || items.isEmpty()) {
+            return MessageBatch.empty();
+        }
+        List<ChatHistoryDTO> result = new ArrayList<>(items.size());
+        for (byte[] item : items) {
+            try {
+                result.add(ChatBinaryCodec.decodeDto(item));
+            } catch (Exception e) {
+                // 无法解析的消息只能丢弃，随批次一起确认，避免反复重投
+                log.error("消息反序列化失败，已丢弃, 长度: {}", item.length, e);
+            }
         }
-        return result;
+        log.debug("批量出队 {} 条消息, batchId: {}", result.size(), batchId);
+        return new MessageBatch(batchId, result, Collections.emptyList());
+    }
+
+    @Override
+    public void ack(MessageBatch batch) {
+        if (batch == null || batch.getBatchId() == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(
+                    ACK_SCRIPT,
+                    List.of(PROCESSING_BATCH_PREFIX + batch.getBatchId(), PROCESSING_INDEX_KEY),
+                    batch.getBatchId()
+            );
+        } catch (Exception e) {
+            // 确认失败时批次会在超时后重投，可能产生重复写入
+            log.error("批次确认失败, batchId: {}, error: {}", batch.getBatchId(), e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int redeliverUnacked() {
+        long deadline = System.currentTimeMillis() - visibilityTimeoutSeconds * 1000L;
+        Set<String> expired;
+        try {
+            expired = stringRedisTemplate.opsForZSet().rangeByScore(PROCESSING_INDEX_KEY, 0, deadline);
+        } catch (Exception e) {
+            log.error("查询未确认批次失败: {}", e.getMessage(), e);
+            return 0;
+        }
+        if (expired == null || expired.isEmpty()) {
+            return 0;
+        }
+        int redelivered = 0;
+        for (String batchId : expired) {
+            try {
+                Long count = stringRedisTemplate.execute(
+                        REDELIVER_SCRIPT,
+                        List.of(PROCESSING_BATCH_PREFIX + batchId, PROCESSING_INDEX_KEY, BUFFER_KEY),
+                        batchId
+                );
+                if (count != null && count > 0) {
+                    redelivered += count.intValue();
+                    log.warn("未确认批次已重新投递, batchId: {}, 消息数: {}", batchId, count);
+                }
+            } catch (Exception e) {
+                log.error("重新投递批次失败, batchId: {}, error: {}", batchId, e.getMessage(), e);
+            }
+        }
+        return redelivered;
     }
 
     @Override
@@ -72,4 +214,23 @@ public class RedisMessageBuffer implements MessageBufferService {
         Long size = stringRedisTemplate.opsForList().size(BUFFER_KEY);
         return size != null ? size : 0;
     }
+
+    @Override
+    public long oldestMessageAgeMs() {
+        // RPOP 端（队尾）就是最早入队的消息
+        byte[] item = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.listCommands().lIndex(BUFFER_KEY_BYTES, -1));
+        if (item == null) {
+            return 0;
+        }
+        try {
+            LocalDateTime createTime = ChatBinaryCodec.decodeDto(item).getCreateTime();
+            if (createTime == null) {
+                return 0;
+            }
+            return Math.max(0, Duration.between(createTime, LocalDateTime.now()).toMillis());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
 }
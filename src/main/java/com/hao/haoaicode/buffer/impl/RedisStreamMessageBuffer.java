@@ -0,0 +1,285 @@
+package com.hao.haoaicode.buffer.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.hao.haoaicode.buffer.MessageBatch;
+import com.hao.haoaicode.buffer.MessageBufferService;
+import com.hao.haoaicode.codec.ChatBinaryCodec;
+import com.hao.haoaicode.codec.PayloadCompressor;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Redis Stream 实现的消息缓冲服务
+ *
+ * 多节点同时刷盘时，List 实现里各节点争抢同一个 key；这里改用消费者组：
+ * 1. XADD 入队，MAXLEN ~ 近似裁剪，已确认的旧消息由裁剪回收；
+ * 2. 每个节点是组内的一个消费者，XREADGROUP 只拿到分给自己的消息，节点之间不重复消费；
+ * 3. 写库成功后 XACK；失败的消息留在本消费者的待确认列表（PEL），下次 pop 优先重试；
+ * 4. 其他节点（例如已宕机）超过可见性超时未确认的消息，由 redeliverUnacked 通过 XAUTOCLAIM 认领到本节点。
+ *
+ * 消息体用 ChatBinaryCodec 编码，升级前入队的 JSON 字符串仍能解码。
+ *
+ * 注意：裁剪不区分是否已确认，maxlen 需要明显大于正常积压量。
+ * 需要 Redis 6.2+（XAUTOCLAIM）。
+ *
+ * 通过 chat.history.buffer.type=stream 启用
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.history.buffer.type", havingValue = "stream")
+public class RedisStreamMessageBuffer implements MessageBufferService {
+
+    /**
+     * Stream 的 key
+     */
+    private static final String STREAM_KEY = "chat:history:stream";
+
+    /**
+     * 消息体字段名
+     */
+    private static final String PAYLOAD_FIELD = "payload";
+
+    // Lua脚本：入队并近似裁剪
+    private static final DefaultRedisScript<String> PUSH_SCRIPT = new DefaultRedisScript<>(
+            "return redis.call('xadd', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', ARGV[2], ARGV[3])", String.class);
+
+    // Lua脚本：批量读取，先读本消费者未确认的消息（上次失败或刚认领的），没有再读新消息
+    // 返回扁平列表 [id1, payload1, id2, payload2, ...]，已被裁剪掉的消息 payload 为空串
+    private static final DefaultRedisScript<List> POP_SCRIPT = new DefaultRedisScript<>(
+            "local res = redis.call('xreadgroup', 'GROUP', ARGV[1], ARGV[2], 'COUNT', ARGV[3], 'STREAMS', KEYS[1], '0') " +
+            "local entries = res and res[1] and res[1][2] or {} " +
+            "if #entries == 0 then " +
+            "    res = redis.call('xreadgroup', 'GROUP', ARGV[1], ARGV[2], 'COUNT', ARGV[3], 'STREAMS', KEYS[1], '>') " +
+            "    entries = res and res[1] and res[1][2] or {} " +
+            "end " +
+            "local out = {} " +
+            "for _, e in ipairs(entries) do " +
+            "    out[#out + 1] = e[1] " +
+            "    local payload = '' " +
+            "    if e[2] then " +
+            "        for i = 1, #e[2], 2 do " +
+            "            if e[2][i] == ARGV[4] then payload = e[2][i + 1] end " +
+            "        end " +
+            "    end " +
+            "    out[#out + 1] = payload " +
+            "end " +
+            "return out", List.class);
+
+    // Lua脚本：认领其他消费者超时未确认的消息
+    private static final DefaultRedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local res = redis.call('xautoclaim', KEYS[1], ARGV[1], ARGV[2], ARGV[3], '0-0', 'COUNT', ARGV[4], 'JUSTID') " +
+            "return #res[2]", Long.class);
+
+    // Lua脚本：组内积压量 = 未投递（lag）+ 已投递未确认（pending），低版本没有 lag 时退化为 XLEN
+    private static final DefaultRedisScript<Long> SIZE_SCRIPT = new DefaultRedisScript<>(
+            "for _, g in ipairs(redis.call('xinfo', 'groups', KEYS[1])) do " +
+            "    local name, pending, lag " +
+            "    for i = 1, #g, 2 do " +
+            "        if g[i] == 'name' then name = g[i + 1] " +
+            "        elseif g[i] == 'pending' then pending = g[i + 1] " +
+            "        elseif g[i] == 'lag' then lag = g[i + 1] end " +
+            "    end " +
+            "    if name == ARGV[1] then " +
+            "        if type(lag) ~= 'number' then return redis.call('xlen', KEYS[1]) end " +
+            "        return lag + pending " +
+            "    end " +
+            "end " +
+            "return redis.call('xlen', KEYS[1])", Long.class);
+
+    // Lua脚本：组内最早一条待处理消息的ID，优先取已投递未确认的，其次取第一条未投递的
+    private static final DefaultRedisScript<String> OLDEST_SCRIPT = new DefaultRedisScript<>(
+            "local p = redis.call('xpending', KEYS[1], ARGV[1]) " +
+            "if p[1] > 0 then return p[2] end " +
+            "for _, g in ipairs(redis.call('xinfo', 'groups', KEYS[1])) do " +
+            "    local name, last " +
+            "    for i = 1, #g, 2 do " +
+            "        if g[i] == 'name' then name = g[i + 1] " +
+            "        elseif g[i] == 'last-delivered-id' then last = g[i + 1] end " +
+            "    end " +
+            "    if name == ARGV[1] and last then " +
+            "        local e = redis.call('xrange', KEYS[1], '(' .. last, '+', 'COUNT', 1) " +
+            "        if #e > 0 then return e[1][1] end " +
+            "    end " +
+            "end " +
+            "return false", String.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private PayloadCompressor payloadCompressor;
+
+    /**
+     * 消费者组名，所有节点相同
+     */
+    @Value("${chat.history.buffer.stream.group:chat-history-flush}")
+    private String group;
+
+    /**
+     * 本节点的消费者名，为空时使用 pid@hostname
+     */
+    @Value("${chat.history.buffer.stream.consumer:}")
+    private String consumer;
+
+    /**
+     * Stream 近似最大长度
+     */
+    @Value("${chat.history.buffer.stream.max-len:100000}")
+    private long maxLen;
+
+    /**
+     * 已投递但超过该时间（秒）未确认的消息会被其他节点认领
+     */
+    @Value("${chat.history.buffer.visibility-timeout-seconds:60}")
+    private long visibilityTimeoutSeconds;
+
+    /**
+     * 单次认领的最大消息数
+     */
+    @Value("${chat.history.buffer.stream.claim-count:100}")
+    private int claimCount;
+
+    @PostConstruct
+    public void init() {
+        if (StrUtil.isBlank(consumer)) {
+            consumer = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        try {
+            // 从头开始消费，Stream 不存在时一并创建（MKSTREAM）
+            stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0-0"), group);
+            log.info("创建消息缓冲消费者组: {}", group);
+        } catch (Exception e) {
+            // 其他节点已经创建过（BUSYGROUP）
+            log.debug("消费者组已存在: {}, {}", group, e.getMessage());
+        }
+        log.info("Redis Stream 消息缓冲已启用, group: {}, consumer: {}", group, consumer);
+    }
+
+    @Override
+    public void push(ChatHistoryDTO message) {
+        try {
+            byte[] payload = payloadCompressor.encodeBinary(ChatBinaryCodec.encodeDto(message), "redis_buffer");
+            // 消息体是二进制，参数统一按字节传
+            stringRedisTemplate.execute(PUSH_SCRIPT, RedisSerializer.byteArray(), RedisSerializer.string(),
+                    List.of(STREAM_KEY), utf8(String.valueOf(maxLen)), utf8(PAYLOAD_FIELD), payload);
+            log.debug("消息入队成功, appId: {}", message.getAppId());
+        } catch (Exception e) {
+            log.error("消息入队失败: {}", e.getMessage(), e);
+            throw new RuntimeException("消息入队失败", e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MessageBatch pop(int batchSize) {
+        if (batchSize <= 0) {
+            return MessageBatch.empty();
+        }
+        List<byte[]> items;
+        try {
+            // 返回的消息ID和消息体都保持原始字节
+            items = (List<byte[]>) stringRedisTemplate.execute(POP_SCRIPT, RedisSerializer.string(),
+                    (RedisSerializer) RedisSerializer.byteArray(), List.of(STREAM_KEY),
+                    group, consumer, String.valueOf(batchSize), PAYLOAD_FIELD);
+        } catch (Exception e) {
+            log.error("批量出队失败: {}", e.getMessage(), e);
+            return MessageBatch.empty();
+        }
+        if (items == null || items.isEmpty()) {
+            return MessageBatch.empty();
+        }
+        List<String> entryIds = new ArrayList<>(items.size() / 2);
+        List<ChatHistoryDTO> messages = new ArrayList<>(items.size() / 2);
+        for (int i = 0; i + 1 < items.size(); i += 2) {
+            String entryId = new String(items.get(i), StandardCharsets.UTF_8);
+            byte[] payload = items.get(i + 1);
+            // 无论能否解析都随批次确认，避免坏消息一直留在待确认列表里
+            entryIds.add(entryId);
+            if (payload == null || payload.length == 0) {
+                log.warn("消息已被裁剪，跳过: {}", entryId);
+                continue;
+            }
+            try {
+                messages.add(ChatBinaryCodec.decodeDto(payload));
+            } catch (Exception e) {
+                log.error("消息反序列化失败，已丢弃: {}, 长度: {}", entryId, payload.length, e);
+            }
+        }
+        log.debug("批量出队 {} 条消息, consumer: {}", messages.size(), consumer);
+        return new MessageBatch(consumer, messages, entryIds);
+    }
+
+    @Override
+    public void ack(MessageBatch batch) {
+        if (batch == null || batch.getEntryIds().isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, group,
+                    batch.getEntryIds().toArray(new String[0]));
+        } catch (Exception e) {
+            // 未确认的消息下次 pop 会重试，可能产生重复写入
+            log.error("批次确认失败, 消息数: {}, error: {}", batch.getEntryIds().size(), e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int redeliverUnacked() {
+        try {
+            Long claimed = stringRedisTemplate.execute(CLAIM_SCRIPT, List.of(STREAM_KEY),
+                    group, consumer, String.valueOf(visibilityTimeoutSeconds * 1000L), String.valueOf(claimCount));
+            if (claimed != null && claimed > 0) {
+                log.warn("认领超时未确认的消息 {} 条, consumer: {}", claimed, consumer);
+                return claimed.intValue();
+            }
+        } catch (Exception e) {
+            log.error("认领未确认消息失败: {}", e.getMessage(), e);
+        }
+        return 0;
+    }
+
+    @Override
+    public long size() {
+        try {
+            Long size = stringRedisTemplate.execute(SIZE_SCRIPT, List.of(STREAM_KEY), group);
+            return size != null ? size : 0;
+        } catch (Exception e) {
+            log.warn("查询缓冲积压量失败: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    @Override
+    public long oldestMessageAgeMs() {
+        try {
+            String entryId = stringRedisTemplate.execute(OLDEST_SCRIPT, List.of(STREAM_KEY), group);
+            if (StrUtil.isEmpty(entryId)) {
+                return 0;
+            }
+            // 消息ID的前半部分就是入队时间戳（毫秒）
+            long enqueueMs = Long.parseLong(StrUtil.subBefore(entryId, "-", false));
+            return Math.max(0, System.currentTimeMillis() - enqueueMs);
+        } catch (Exception e) {
+            log.warn("查询最早消息等待时间失败: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
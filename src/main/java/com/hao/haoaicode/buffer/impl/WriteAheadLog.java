@@ -0,0 +1,291 @@
+package com.hao.haoaicode.buffer.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 内存映射、分段滚动的预写日志
+ *
+ * 记录格式：[int 长度][byte 状态][int CRC32][内容]
+ * 1. 预留位置和写入长度在段锁内一起完成（临界区只有两次写），之后各线程不加锁地写各自的区间，
+ *    状态字节最后写入，作为记录完成的标志。这样段内的长度链总是连续的：后面的记录可见时，前面所有记录的区间都已经确定；
+ * 2. 当前段写满时加锁滚动到新段，超长记录单独占一个足够大的段；
+ * 3. 消息持久化后把状态字节改为已确认，段内记录全部确认且不再写入时删除该段；
+ * 4. 启动时按段顺序扫描，重放所有未确认的记录；长度为 0 是段尾，状态为 0（崩溃时还没写完）或 CRC 不匹配的记录按长度跳过，
+ *    不影响其后已经写完的记录。
+ *
+ * 写入只进入页缓存，进程崩溃不会丢；机器掉电时最多丢失最近一次 force 之后的数据。
+ */
+@Slf4j
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int HEADER_SIZE = 9;
+    private static final byte STATE_LIVE = 1;
+    private static final byte STATE_ACKED = 2;
+
+    private final Path dir;
+    private final int segmentSize;
+
+    // 段ID -> 段，按ID有序
+    private final Map<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private volatile Segment current;
+
+    public WriteAheadLog(Path dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * 打开已有的段并重放未确认的记录，然后创建新的写入段
+     *
+     * @param consumer (记录位置, 内容)
+     */
+    public void open(BiConsumer<Position, byte[]> consumer) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+        long nextId = 0;
+        for (Path file : files) {
+            long id = parseSegmentId(file);
+            nextId = Math.max(nextId, id + 1);
+            Segment segment = Segment.map(id, file, (int) Files.size(file));
+            segment.sealed = true;
+            segments.put(id, segment);
+            int replayed = replay(segment, consumer);
+            if (replayed > 0) {
+                log.info("重放预写日志段 {}，未确认记录 {} 条", file.getFileName(), replayed);
+            }
+            deleteIfDone(segment);
+        }
+        current = createSegment(nextId, segmentSize);
+    }
+
+    /**
+     * 追加一条记录（可多线程调用）
+     */
+    public Position append(byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        while (true) {
+            Segment segment = current;
+            // 先占住计数，避免滚动线程在记录写完之前就认为该段可以删除
+            segment.live.incrementAndGet();
+            int offset;
+            boolean fits;
+            synchronized (segment) {
+                offset = segment.writePos.getAndAdd(size);
+                fits = offset >= 0 && offset + size <= segment.capacity;
+                if (fits) {
+                    // 预留的区间立刻写下长度，崩溃后重放能跨过还没写完的记录，继续读后面的
+                    segment.buffer.putInt(offset, payload.length);
+                }
+            }
+            if (fits) {
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                MappedByteBuffer buffer = segment.buffer;
+                buffer.put(offset + HEADER_SIZE, payload);
+                buffer.putInt(offset + 5, (int) crc.getValue());
+                // 状态最后写，重放时以非 0 状态判断记录已完整写入
+                VarHandle.releaseFence();
+                buffer.put(offset + 4, STATE_LIVE);
+                return new Position(segment, offset);
+            }
+            segment.live.decrementAndGet();
+            rotate(segment, size);
+            deleteIfDone(segment);
+        }
+    }
+
+    /**
+     * 标记记录已确认，所在段全部确认后删除
+     */
+    public void markAcked(Position position) {
+        Segment segment = position.segment;
+        // 重复确认（例如超时重投后又确认了原批次）直接忽略
+        if (segment.deleted || segment.buffer.get(position.offset + 4) != STATE_LIVE) {
+            return;
+        }
+        segment.buffer.put(position.offset + 4, STATE_ACKED);
+        segment.live.decrementAndGet();
+        deleteIfDone(segment);
+    }
+
+    /**
+     * 把当前段刷到磁盘
+     */
+    public void force() {
+        Segment segment = current;
+        if (segment != null && !segment.deleted) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * 段数量（含当前写入段）
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() {
+        force();
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            segment.close();
+        }
+    }
+
+    private synchronized void rotate(Segment full, int needed) throws IOException {
+        if (current != full) {
+            // 其他线程已经滚动过
+            return;
+        }
+        full.sealed = true;
+        full.buffer.force();
+        current = createSegment(full.id + 1, Math.max(segmentSize, needed));
+        deleteIfDone(full);
+    }
+
+    private Segment createSegment(long id, int capacity) throws IOException {
+        Path file = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = Segment.map(id, file, capacity);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private int replay(Segment segment, BiConsumer<Position, byte[]> consumer) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        int replayed = 0;
+        while (offset + HEADER_SIZE <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_SIZE + length > segment.capacity) {
+                // 段尾（长度在预留时按顺序写入，长度为 0 之后不会再有记录）
+                break;
+            }
+            byte state = buffer.get(offset + 4);
+            if (state == 0) {
+                // 崩溃时还没写完的记录，按长度跳过
+                log.warn("预写日志记录未写完，跳过: {}@{}", segment.file.getFileName(), offset);
+            } else if (state == STATE_LIVE) {
+                byte[] payload = new byte[length];
+                buffer.get(offset + HEADER_SIZE, payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() == buffer.getInt(offset + 5)) {
+                    segment.live.incrementAndGet();
+                    consumer.accept(new Position(segment, offset), payload);
+                    replayed++;
+                } else {
+                    log.warn("预写日志记录校验失败，跳过: {}@{}", segment.file.getFileName(), offset);
+                }
+            }
+            offset += HEADER_SIZE + length;
+        }
+        return replayed;
+    }
+
+    private void deleteIfDone(Segment segment) {
+        if (!segment.sealed || segment.live.get() > 0) {
+            return;
+        }
+        synchronized (segment) {
+            if (segment.deleted) {
+                return;
+            }
+            segment.deleted = true;
+        }
+        segments.remove(segment.id);
+        segment.close();
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            log.warn("删除预写日志段失败: {}", segment.file, e);
+        }
+    }
+
+    private static long parseSegmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * 记录在日志中的位置
+     */
+    public static final class Position {
+        private final Segment segment;
+        private final int offset;
+
+        private Position(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * 日志段
+     */
+    static final class Segment {
+        private final long id;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        // 下一个可预留的位置
+        private final AtomicInteger writePos = new AtomicInteger();
+        // 未确认的记录数
+        private final AtomicInteger live = new AtomicInteger();
+        // 不再写入
+        private volatile boolean sealed;
+        private volatile boolean deleted;
+
+        private Segment(long id, Path file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        static Segment map(long id, Path file, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(id, file, channel, buffer, capacity);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("关闭预写日志段失败: {}", file, e);
+            }
+        }
+    }
+}
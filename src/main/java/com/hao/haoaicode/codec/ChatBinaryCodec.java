@@ -0,0 +1,316 @@
+package com.hao.haoaicode.codec;
+
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对话消息的紧凑二进制编码
+ *
+ * 替代热路径上的文本 JSON（ChatMessageSerializer 和 Hutool 反射序列化）：
+ * 1. 第一个字节是格式版本：0x02 为 v1 明文，0x03 为 v1 压缩（由 PayloadCompressor 处理）；
+ *    JSON 以 '{' 开头，压缩后的字符串以 0x01 开头，都不会与版本字节冲突，解码时据此兼容旧数据；
+ * 2. 整数用 varint（有符号的先 zigzag），字符串为 varint(UTF-8 长度 + 1) + 内容，长度 0 表示 null；
+ * 3. ChatMessage 只编码纯文本的系统/用户消息、AI 消息（含思考内容和工具调用）和工具结果，
+ *    其他情况（图片等多模态内容、带附加属性）整条退回 JSON，嵌在二进制里。
+ *
+ * 格式一旦写入存储就不能修改，需要变化时使用新的版本字节。
+ */
+public final class ChatBinaryCodec {
+
+    public static final byte FORMAT_V1 = 0x02;
+    public static final byte FORMAT_V1_DEFLATE = 0x03;
+
+    private static final int TYPE_JSON = 0;
+    private static final int TYPE_SYSTEM = 1;
+    private static final int TYPE_USER = 2;
+    private static final int TYPE_AI = 3;
+    private static final int TYPE_TOOL_RESULT = 4;
+
+    private ChatBinaryCodec() {
+    }
+
+    /**
+     * 是否是二进制格式（否则是旧的文本格式）
+     */
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length > 0 && (data[0] == FORMAT_V1 || data[0] == FORMAT_V1_DEFLATE);
+    }
+
+    // ---------------- ChatHistoryDTO ----------------
+
+    /**
+     * 编码：[版本][存在位图][id][appId][userId][createTime 秒][纳秒][messageType][message][storageType][contentRef]
+     */
+    public static byte[] encodeDto(ChatHistoryDTO dto) {
+        Writer writer = new Writer(64 + (dto.getMessage() != null ? dto.getMessage().length() * 3 : 0));
+        writer.raw(FORMAT_V1);
+        int flags = (dto.getId() != null ? 1 : 0)
+                | (dto.getAppId() != null ? 1 << 1 : 0)
+                | (dto.getUserId() != null ? 1 << 2 : 0)
+                | (dto.getCreateTime() != null ? 1 << 3 : 0);
+        writer.raw((byte) flags);
+        if (dto.getId() != null) {
+            writer.varLong(dto.getId());
+        }
+        if (dto.getAppId() != null) {
+            writer.varLong(dto.getAppId());
+        }
+        if (dto.getUserId() != null) {
+            writer.varLong(dto.getUserId());
+        }
+        if (dto.getCreateTime() != null) {
+            writer.varLong(dto.getCreateTime().toEpochSecond(ZoneOffset.UTC));
+            writer.varInt(dto.getCreateTime().getNano());
+        }
+        writer.string(dto.getMessageType());
+        writer.string(dto.getMessage());
+        writer.string(dto.getStorageType());
+        writer.string(dto.getContentRef());
+        return writer.toByteArray();
+    }
+
+    /**
+     * 解码，兼容旧的 JSON / 压缩 JSON 字符串
+     */
+    public static ChatHistoryDTO decodeDto(byte[] data) {
+        if (!isBinary(data)) {
+            return JSONUtil.toBean(PayloadCompressor.decode(new String(data, StandardCharsets.UTF_8)), ChatHistoryDTO.class);
+        }
+        Reader reader = new Reader(PayloadCompressor.decodeBinary(data));
+        int flags = reader.raw() & 0xFF;
+        ChatHistoryDTO dto = new ChatHistoryDTO();
+        if ((flags & 1) != 0) {
+            dto.setId(reader.varLong());
+        }
+        if ((flags & (1 << 1)) != 0) {
+            dto.setAppId(reader.varLong());
+        }
+        if ((flags & (1 << 2)) != 0) {
+            dto.setUserId(reader.varLong());
+        }
+        if ((flags & (1 << 3)) != 0) {
+            long seconds = reader.varLong();
+            dto.setCreateTime(LocalDateTime.ofEpochSecond(seconds, reader.varInt(), ZoneOffset.UTC));
+        }
+        dto.setMessageType(reader.string());
+        dto.setMessage(reader.string());
+        dto.setStorageType(reader.string());
+        dto.setContentRef(reader.string());
+        return dto;
+    }
+
+    // ---------------- ChatMessage ----------------
+
+    public static byte[] encodeMessage(ChatMessage message) {
+        Writer writer = new Writer(256);
+        writer.raw(FORMAT_V1);
+        writeMessage(writer, message);
+        return writer.toByteArray();
+    }
+
+    /**
+     * 解码，兼容 ChatMessageSerializer 的 JSON / 压缩 JSON 字符串
+     */
+    public static ChatMessage decodeMessage(byte[] data) {
+        if (!isBinary(data)) {
+            return ChatMessageDeserializer.messageFromJson(PayloadCompressor.decode(new String(data, StandardCharsets.UTF_8)));
+        }
+        return readMessage(new Reader(PayloadCompressor.decodeBinary(data)));
+    }
+
+    /**
+     * 编码消息列表：[版本][条数][消息...]
+     */
+    public static byte[] encodeMessages(List<ChatMessage> messages) {
+        Writer writer = new Writer(256 * Math.max(1, messages.size()));
+        writer.raw(FORMAT_V1);
+        writer.varInt(messages.size());
+        for (ChatMessage message : messages) {
+            writeMessage(writer, message);
+        }
+        return writer.toByteArray();
+    }
+
+    public static List<ChatMessage> decodeMessages(byte[] data) {
+        if (!isBinary(data)) {
+            return ChatMessageDeserializer.messagesFromJson(PayloadCompressor.decode(new String(data, StandardCharsets.UTF_8)));
+        }
+        Reader reader = new Reader(PayloadCompressor.decodeBinary(data));
+        int count = reader.varInt();
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(readMessage(reader));
+        }
+        return messages;
+    }
+
+    private static void writeMessage(Writer writer, ChatMessage message) {
+        if (message instanceof SystemMessage system) {
+            writer.varInt(TYPE_SYSTEM);
+            writer.string(system.text());
+        } else if (message instanceof UserMessage user && user.hasSingleText() && user.attributes().isEmpty()) {
+            writer.varInt(TYPE_USER);
+            writer.string(user.name());
+            writer.string(user.singleText());
+        } else if (message instanceof AiMessage ai && ai.attributes().isEmpty()) {
+            writer.varInt(TYPE_AI);
+            writer.string(ai.text());
+            writer.string(ai.thinking());
+            List<ToolExecutionRequest> requests = ai.hasToolExecutionRequests() ? ai.toolExecutionRequests() : List.of();
+            writer.varInt(requests.size());
+            for (ToolExecutionRequest request : requests) {
+                writer.string(request.id());
+                writer.string(request.name());
+                writer.string(request.arguments());
+            }
+        } else if (message instanceof ToolExecutionResultMessage result) {
+            writer.varInt(TYPE_TOOL_RESULT);
+            writer.string(result.id());
+            writer.string(result.toolName());
+            writer.string(result.text());
+        } else {
+            writer.varInt(TYPE_JSON);
+            writer.string(ChatMessageSerializer.messageToJson(message));
+        }
+    }
+
+    private static ChatMessage readMessage(Reader reader) {
+        int type = reader.varInt();
+        switch (type) {
+            case TYPE_SYSTEM:
+                return SystemMessage.from(reader.string());
+            case TYPE_USER: {
+                String name = reader.string();
+                String text = reader.string();
+                return name != null ? UserMessage.from(name, text) : UserMessage.from(text);
+            }
+            case TYPE_AI: {
+                String text = reader.string();
+                String thinking = reader.string();
+                int count = reader.varInt();
+                List<ToolExecutionRequest> requests = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    requests.add(ToolExecutionRequest.builder()
+                            .id(reader.string())
+                            .name(reader.string())
+                            .arguments(reader.string())
+                            .build());
+                }
+                return AiMessage.builder().text(text).thinking(thinking).toolExecutionRequests(requests).build();
+            }
+            case TYPE_TOOL_RESULT:
+                return ToolExecutionResultMessage.from(reader.string(), reader.string(), reader.string());
+            case TYPE_JSON:
+                return ChatMessageDeserializer.messageFromJson(reader.string());
+            default:
+                throw new IllegalArgumentException("未知的消息类型: " + type);
+        }
+    }
+
+    /**
+     * 写入缓冲（单线程使用）
+     */
+    private static final class Writer extends ByteArrayOutputStream {
+
+        Writer(int size) {
+            super(size);
+        }
+
+        void raw(byte value) {
+            write(value);
+        }
+
+        void varInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void varLong(long value) {
+            // zigzag，负数也只占少量字节
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void string(String value) {
+            if (value == null) {
+                varInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varInt(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * 读取游标，跳过版本字节
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private int pos = 1;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        byte raw() {
+            return data[pos++];
+        }
+
+        int varInt() {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = data[pos++];
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("varint 格式错误");
+        }
+
+        long varLong() {
+            long v = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = data[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (v >>> 1) ^ -(v & 1);
+                }
+            }
+            throw new IllegalArgumentException("varint 格式错误");
+        }
+
+        String string() {
+            int length = varInt();
+            if (length == 0) {
+                return null;
+            }
+            String value = new String(data, pos, length - 1, StandardCharsets.UTF_8);
+            pos += length - 1;
+            return value;
+        }
+    }
+}
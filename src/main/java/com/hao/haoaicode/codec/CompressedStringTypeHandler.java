@@ -0,0 +1,40 @@
+package com.hao.haoaicode.codec;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 字符串列的透明压缩（chat_history.message）
+ *
+ * 写入时压缩，读取时按头部解压；压缩前写入的数据原样读出。
+ */
+public class CompressedStringTypeHandler extends BaseTypeHandler<String> {
+
+    private static final String PATH = "mysql";
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType) throws SQLException {
+        PayloadCompressor compressor = PayloadCompressor.current();
+        ps.setString(i, compressor != null ? compressor.encode(parameter, PATH) : parameter);
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return PayloadCompressor.decode(rs.getString(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return PayloadCompressor.decode(rs.getString(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return PayloadCompressor.decode(cs.getString(columnIndex));
+    }
+}
@@ -0,0 +1,24 @@
+package com.hao.haoaicode.codec;
+
+/**
+ * 压缩算法
+ *
+ * 每种算法有一个固定的单字符标识，写在压缩结果的头部，解码时据此选择算法；
+ * 标识一旦写入存储就不能再改，新增算法只能使用新的标识。
+ */
+public interface PayloadCodec {
+
+    /**
+     * 算法标识（写入头部）
+     */
+    char id();
+
+    /**
+     * 算法名称（用于配置和指标）
+     */
+    String name();
+
+    byte[] compress(byte[] input);
+
+    byte[] decompress(byte[] input);
+}
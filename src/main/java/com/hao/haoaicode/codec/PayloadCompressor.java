@@ -0,0 +1,205 @@
+package com.hao.haoaicode.codec;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * 对话内容透明压缩
+ *
+ * AI 回复大多是源代码，压缩率很高。Redis 缓冲队列、chat_memory:* 以及 chat_history.message 三条存储路径
+ * 写入前调用 encode，读取后调用 decode：
+ * 1. UTF-8 字节数达到阈值才压缩，压缩后没有变小则保留原文；
+ * 2. 压缩结果为 [\u0001][算法标识][Base64]，这三条路径都是字符串存储，Base64 多出的三分之一相比几倍的压缩率可以接受；
+ * 3. 解码按头部选择算法，没有头部的按原文返回，已有的未压缩数据不需要迁移；
+ * 4. 按存储路径记录压缩前后字节数和压缩率；
+ * 5. ChatBinaryCodec 编码的二进制数据通过 encodeBinary / decodeBinary 压缩，用版本字节区分，不需要 Base64。
+ *
+ * MyBatis 的 TypeHandler 不由 Spring 创建，通过 {@link #current()} 取得实例。
+ */
+@Slf4j
+@Component
+public class PayloadCompressor {
+
+    private static final char MAGIC = '\u0001';
+    private static final int HEADER_LENGTH = 2;
+
+    // 算法标识 -> 算法（解码用，不受当前配置影响）
+    private static final Map<Character, PayloadCodec> CODECS = Map.of(
+            'D', new DeflatePayloadCodec(6)
+    );
+
+    private static volatile PayloadCompressor current;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 是否压缩（关闭后仍能解码已压缩的数据）
+     */
+    @Value("${chat.codec.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 达到该字节数（UTF-8）才压缩
+     */
+    @Value("${chat.codec.threshold-bytes:512}")
+    private int thresholdBytes;
+
+    /**
+     * 压缩算法，目前支持 deflate
+     */
+    @Value("${chat.codec.algorithm:deflate}")
+    private String algorithm;
+
+    /**
+     * 压缩级别（1-9）
+     */
+    @Value("${chat.codec.level:6}")
+    private int level;
+
+    private PayloadCodec codec;
+
+    @PostConstruct
+    public void init() {
+        if (!"deflate".equalsIgnoreCase(algorithm)) {
+            log.warn("不支持的压缩算法: {}，改用 deflate", algorithm);
+        }
+        codec = new DeflatePayloadCodec(level);
+        current = this;
+    }
+
+    /**
+     * Spring 容器外（TypeHandler）使用的实例，容器未启动时为 null
+     */
+    public static PayloadCompressor current() {
+        return current;
+    }
+
+    /**
+     * 压缩并记录指标
+     *
+     * @param value 原文
+     * @param path  存储路径（指标标签），例如 redis_buffer、chat_memory、mysql
+     */
+    public String encode(String value, String path) {
+        if (!enabled || value == null) {
+            return value;
+        }
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        String encoded = encode(raw, codec, thresholdBytes);
+        if (encoded == null) {
+            return value;
+        }
+        record(path, raw.length, encoded.length());
+        return encoded;
+    }
+
+    /**
+     * 压缩；未达到阈值或压缩后没有变小时返回原文
+     */
+    public static String encode(String value, PayloadCodec codec, int thresholdBytes) {
+        if (value == null) {
+            return null;
+        }
+        String encoded = encode(value.getBytes(StandardCharsets.UTF_8), codec, thresholdBytes);
+        return encoded != null ? encoded : value;
+    }
+
+    /**
+     * 解码；没有压缩头的按原文返回
+     */
+    public static String decode(String value) {
+        if (!isEncoded(value)) {
+            return value;
+        }
+        PayloadCodec codec = CODECS.get(value.charAt(1));
+        if (codec == null) {
+            throw new IllegalArgumentException("未知的压缩算法: " + value.charAt(1));
+        }
+        byte[] compressed = Base64.getDecoder().decode(value.substring(HEADER_LENGTH));
+        return new String(codec.decompress(compressed), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 压缩 ChatBinaryCodec 编码的数据：版本字节改为压缩版本，其余部分压缩
+     * 未达到阈值或压缩后没有变小时原样返回
+     *
+     * @param binary 以 FORMAT_V1 开头的二进制数据
+     * @param path   存储路径（指标标签）
+     */
+    public byte[] encodeBinary(byte[] binary, String path) {
+        if (!enabled || binary.length < thresholdBytes || binary[0] != ChatBinaryCodec.FORMAT_V1) {
+            return binary;
+        }
+        byte[] compressed = codec.compress(Arrays.copyOfRange(binary, 1, binary.length));
+        if (compressed.length + 1 >= binary.length) {
+            return binary;
+        }
+        byte[] result = new byte[compressed.length + 1];
+        result[0] = ChatBinaryCodec.FORMAT_V1_DEFLATE;
+        System.arraycopy(compressed, 0, result, 1, compressed.length);
+        record(path, binary.length, result.length);
+        return result;
+    }
+
+    /**
+     * 解压 ChatBinaryCodec 的压缩版本，返回以 FORMAT_V1 开头的数据；未压缩的原样返回
+     */
+    public static byte[] decodeBinary(byte[] data) {
+        if (data.length == 0 || data[0] != ChatBinaryCodec.FORMAT_V1_DEFLATE) {
+            return data;
+        }
+        byte[] raw = CODECS.get('D').decompress(Arrays.copyOfRange(data, 1, data.length));
+        byte[] result = new byte[raw.length + 1];
+        result[0] = ChatBinaryCodec.FORMAT_V1;
+        System.arraycopy(raw, 0, result, 1, raw.length);
+        return result;
+    }
+
+    public static boolean isEncoded(String value) {
+        return value != null && value.length() >= HEADER_LENGTH && value.charAt(0) == MAGIC;
+    }
+
+    private static String encode(byte[] raw, PayloadCodec codec, int thresholdBytes) {
+        if (raw.length < thresholdBytes) {
+            return null;
+        }
+        byte[] compressed = codec.compress(raw);
+        // Base64 之后的长度
+        int encodedLength = HEADER_LENGTH + (compressed.length + 2) / 3 * 4;
+        if (encodedLength >= raw.length) {
+            return null;
+        }
+        return MAGIC + String.valueOf(codec.id()) + Base64.getEncoder().encodeToString(compressed);
+    }
+
+    private void record(String path, int rawBytes, int encodedBytes) {
+        Counter.builder("app.codec.bytes")
+                .tag("path", path)
+                .tag("stage", "raw")
+                .register(meterRegistry)
+                .increment(rawBytes);
+        Counter.builder("app.codec.bytes")
+                .tag("path", path)
+                .tag("stage", "encoded")
+                .register(meterRegistry)
+                .increment(encodedBytes);
+        DistributionSummary.builder("app.codec.compression_ratio")
+                .description("压缩前字节数 / 压缩后字节数")
+                .tag("path", path)
+                .tag("codec", codec.name())
+                .register(meterRegistry)
+                .record((double) rawBytes / encodedBytes);
+    }
+}
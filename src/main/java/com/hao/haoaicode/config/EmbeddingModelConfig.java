@@ -0,0 +1,22 @@
+package com.hao.haoaicode.config;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.bgesmallzhv15q.BgeSmallZhV15QuantizedEmbeddingModel;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 进程内向量模型配置
+ */
+@Configuration
+public class EmbeddingModelConfig {
+
+    /**
+     * 提示词向量模型：bge-small-zh-v1.5 量化版（512 维，ONNX 在 CPU 上推理，单条短文本毫秒级），
+     * 模型文件打包在依赖里，不需要调用外部服务
+     */
+    @Bean("promptEmbeddingModel")
+    public EmbeddingModel promptEmbeddingModel() {
+        return new BgeSmallZhV15QuantizedEmbeddingModel();
+    }
+}
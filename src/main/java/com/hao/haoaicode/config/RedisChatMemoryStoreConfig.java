@@ -1,10 +1,13 @@
 package com.hao.haoaicode.config;
 
-import com.hao.haoaicode.manager.CosManager;
+import com.hao.haoaicode.buffer.ChatHistoryContentStore;
+import com.hao.haoaicode.codec.PayloadCompressor;
 import com.hao.haoaicode.mapper.ChatHistoryMapper;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Resource;
 import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -18,6 +21,7 @@ import java.time.Duration;
  * 1. Redis 作为热数据缓存（TTL 1天）
  * 2. MySQL 作为持久化存储，Redis 未命中时自动恢复
  * 3. 支持 COS 大消息的透明加载
+ * 4. 本地近端缓存（Caffeine），多节点之间通过 Redisson 频道失效
  */
 @Configuration
 public class RedisChatMemoryStoreConfig {
@@ -29,7 +33,19 @@ public class RedisChatMemoryStoreConfig {
     private ChatHistoryMapper chatHistoryMapper;
     
     @Resource
-    private CosManager cosManager;
+    private ChatHistoryContentStore chatHistoryContentStore;
+
+    @Resource
+    private PayloadCompressor payloadCompressor;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 近端缓存容量（按消息字符数计）
+     */
+    @Value("${chat.memory.near-cache.max-weight-chars:50000000}")
+    private long nearCacheMaxWeight;
 
     /**
      * 创建基于 Redisson 的 ChatMemoryStore
@@ -41,7 +57,10 @@ public class RedisChatMemoryStoreConfig {
             redissonClient, 
             Duration.ofDays(1),
             chatHistoryMapper,
-            cosManager
+            chatHistoryContentStore,
+            payloadCompressor,
+            meterRegistry,
+            nearCacheMaxWeight
         );
     }
 }
@@ -1,24 +1,36 @@
 package com.hao.haoaicode.config;
 
-import com.hao.haoaicode.manager.CosManager;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hao.haoaicode.buffer.ChatHistoryContentStore;
+import com.hao.haoaicode.codec.ChatBinaryCodec;
+import com.hao.haoaicode.codec.PayloadCompressor;
 import com.hao.haoaicode.mapper.ChatHistoryMapper;
 import com.hao.haoaicode.model.entity.ChatHistory;
-import com.hao.haoaicode.model.enums.StorageTypeEnum;
 import com.mybatisflex.core.query.QueryWrapper;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.ChatMessageDeserializer;
-import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RBucket;
+import org.redisson.api.RScript;
+import org.redisson.api.RTopic;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 基于 Redisson 的 ChatMemoryStore 实现
@@ -26,51 +38,127 @@ import java.util.stream.Collectors;
  * 特性：
  * 1. Redis 作为热数据缓存，快速读取
  * 2. MySQL 作为持久化存储，Redis 未命中时自动恢复
+ * 3. 消息用 ChatBinaryCodec 编码为二进制，超过阈值时压缩，读取时兼容旧的 JSON / 压缩 JSON
+ * 4. 每条消息单独序列化存为 Redis List 的一个元素，读取用 LRANGE；
+ *    每轮对话窗口通常只在尾部追加、头部淘汰，按本节点的快照比对后只做 LTRIM + RPUSH，
+ *    窗口发生其他变化（替换系统消息等）或快照过期时才整体重写
+ * 5. 快照同时作为近端缓存，命中时不访问 Redis、不反序列化；任一节点写入后通过 Redisson 频道让其他节点失效
  */
 @Slf4j
 public class RedissonChatMemoryStore implements ChatMemoryStore {
 
-    private static final String KEY_PREFIX = "chat_memory:";
+    private static final String KEY_PREFIX = "chat_memory:list:";
+    // 旧版整串存储的 key，读取时迁移
+    private static final String LEGACY_KEY_PREFIX = "chat_memory:";
     private static final int MAX_MESSAGES = 20;
+    // 压缩指标的存储路径标签
+    private static final String MEMORY_PATH = "chat_memory";
     private final RedissonClient redissonClient;
     private final Duration ttl;
     private final ChatHistoryMapper chatHistoryMapper;
-    private final CosManager cosManager;
+    private final ChatHistoryContentStore chatHistoryContentStore;
+    private final PayloadCompressor payloadCompressor;
+
+    // Lua脚本：增量更新窗口
+    // ARGV: 期望长度, 期望的最后一个元素 SHA1, 是否保留第一个元素, 淘汰条数, TTL, 追加的元素...
+    // 长度或最后一个元素不符（其他节点改过）时返回 -1，由调用方整体重写
+    private static final String APPEND_SCRIPT =
+            "local len = redis.call('llen', KEYS[1]) " +
+            "if len ~= tonumber(ARGV[1]) or len == 0 then return -1 end " +
+            "if redis.sha1hex(redis.call('lindex', KEYS[1], -1)) ~= ARGV[2] then return -1 end " +
+            "local drop = tonumber(ARGV[4]) " +
+            "if drop > 0 then " +
+            "  if ARGV[3] == '1' then " +
+            "    local head = redis.call('lindex', KEYS[1], 0) " +
+            "    redis.call('ltrim', KEYS[1], drop + 1, -1) " +
+            "    redis.call('lpush', KEYS[1], head) " +
+            "  else " +
+            "    redis.call('ltrim', KEYS[1], drop, -1) " +
+            "  end " +
+            "end " +
+            "if #ARGV > 5 then redis.call('rpush', KEYS[1], unpack(ARGV, 6)) end " +
+            "redis.call('expire', KEYS[1], ARGV[5]) " +
+            "return redis.call('llen', KEYS[1])";
+
+    // Lua脚本：整体重写窗口。ARGV: TTL, 元素...
+    private static final String REWRITE_SCRIPT =
+            "redis.call('del', KEYS[1]) " +
+            "redis.call('rpush', KEYS[1], unpack(ARGV, 2)) " +
+            "redis.call('expire', KEYS[1], ARGV[1]) " +
+            "return redis.call('llen', KEYS[1])";
+
+    // 近端缓存失效通知的频道，消息为 "节点ID|key"
+    private static final String INVALIDATION_TOPIC = "chat_memory:invalidate";
+
+    // 本节点ID，收到自己发出的失效通知时忽略
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    private final RTopic invalidationTopic;
+
+    // 近端缓存（本节点最近一次写入或读取的窗口）：key -> 快照
+    // 读取直接返回反序列化好的消息，写入时用来判断新窗口是否只在尾部变化；其他节点更新同一窗口时通过频道失效
+    private final Cache<String, Snapshot> snapshots;
 
     public RedissonChatMemoryStore(RedissonClient redissonClient, 
                                     Duration ttl,
                                     ChatHistoryMapper chatHistoryMapper,
-                                    CosManager cosManager) {
+                                    ChatHistoryContentStore chatHistoryContentStore,
+                                    PayloadCompressor payloadCompressor,
+                                    MeterRegistry meterRegistry,
+                                    long nearCacheMaxWeight) {
         this.redissonClient = redissonClient;
         this.ttl = ttl;
         this.chatHistoryMapper = chatHistoryMapper;
-        this.cosManager = cosManager;
+        this.chatHistoryContentStore = chatHistoryContentStore;
+        this.payloadCompressor = payloadCompressor;
+        // 按消息字符数加权；写入后超过 Redis TTL 也要过期，避免 Redis 里已经没有的窗口还在本地被读到
+        this.snapshots = Caffeine.newBuilder()
+                .maximumWeight(nearCacheMaxWeight)
+                .weigher((String key, Snapshot snapshot) -> snapshot.weight())
+                .expireAfterAccess(30, TimeUnit.MINUTES)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, snapshots, "app.chat_memory.near_cache");
+        this.invalidationTopic = redissonClient.getTopic(INVALIDATION_TOPIC, StringCodec.INSTANCE);
+        this.invalidationTopic.addListener(String.class, (channel, message) -> onInvalidation(message));
     }
 
     /**
-     * 从缓存读取记忆消息
+     * 从缓存读取记忆消息（LRANGE 整个窗口）
      */
     @Override
     public List<ChatMessage> getMessages(Object memoryId) {
-        String key = buildKey(memoryId); // chat_memory:memoryId
+        String key = buildKey(memoryId); // chat_memory:list:memoryId
         try {
-            // 1. 先查 Redis
-            RBucket<String> bucket = redissonClient.getBucket(key);
-            String json = bucket.get();
-            if (json != null && !json.isEmpty()) {
-                List<ChatMessage> messages = ChatMessageDeserializer.messagesFromJson(json);
-                if (messages != null && !messages.isEmpty()) {
-                    return messages;
+            // 0. 近端缓存
+            Snapshot cached = snapshots.getIfPresent(key);
+            if (cached != null) {
+                return new ArrayList<>(cached.messages());
+            }
+
+            // 1. 再查 Redis
+            List<byte[]> items = redissonClient.<byte[]>getList(key, ByteArrayCodec.INSTANCE).range(0, -1);
+            if (items != null && !items.isEmpty()) {
+                List<ChatMessage> messages = new ArrayList<>(items.size());
+                for (byte[] item : items) {
+                    messages.add(ChatBinaryCodec.decodeMessage(item));
                 }
+                snapshots.put(key, Snapshot.of(messages, sha1(items.get(items.size() - 1))));
+                return messages;
             }
 
-            // 2. Redis 未命中，从 MySQL 恢复
-            List<ChatMessage> messages = loadFromMySQL(memoryId);
+            // 2. 旧版整串存储的记忆，迁移到 List
+            List<ChatMessage> messages = loadLegacyBucket(memoryId);
+
+            // 3. Redis 未命中，从 MySQL 恢复
+            if (messages.isEmpty()) {
+                messages = loadFromMySQL(memoryId);
+            }
 
-            // 3. 回填 Redis
+            // 4. 回填 Redis
             if (!messages.isEmpty()) {
-                String recoveredJson = ChatMessageSerializer.messagesToJson(messages);
-                bucket.set(recoveredJson, ttl);
+                rewrite(key, messages);
                 log.info("从 MySQL 恢复记忆到 Redis, memoryId: {}, count: {}", memoryId, messages.size());
             }
 
@@ -84,22 +172,30 @@ public class RedissonChatMemoryStore implements ChatMemoryStore {
 
     /**
      * 更新记忆，把信息存储到Redis中做会话窗口
+     * 只在尾部追加、头部淘汰时增量更新（LTRIM + RPUSH），其余情况整体重写
      */
     @Override
     public void updateMessages(Object memoryId, List<ChatMessage> messages) {
         String key = buildKey(memoryId);
 
         try {
-            RBucket<String> bucket = redissonClient.getBucket(key);
             if (messages == null || messages.isEmpty()) {
-                bucket.delete();
+                redissonClient.getList(key, ByteArrayCodec.INSTANCE).delete();
+                snapshots.invalidate(key);
+                publishInvalidation(key);
+                return;
+            }
+            Snapshot snapshot = snapshots.getIfPresent(key);
+            if (snapshot != null && tryAppend(key, snapshot, messages)) {
+                publishInvalidation(key);
                 return;
             }
-            String json = ChatMessageSerializer.messagesToJson(messages);
-            bucket.set(json, ttl);
+            rewrite(key, messages);
+            publishInvalidation(key);
 
-            log.debug("Updated messages in Redis, memoryId: {}, count: {}", memoryId, messages.size());
+            log.debug("Rewrote messages in Redis, memoryId: {}, count: {}", memoryId, messages.size());
         } catch (Exception e) {
+            snapshots.invalidate(key);
             log.error("Failed to update messages in Redis, memoryId: {}", memoryId, e);
         }
     }
@@ -111,14 +207,163 @@ public class RedissonChatMemoryStore implements ChatMemoryStore {
     public void deleteMessages(Object memoryId) {
         String key = buildKey(memoryId);
         try {
-            RBucket<String> bucket = redissonClient.getBucket(key);
-            bucket.delete();
+            redissonClient.getKeys().delete(key, LEGACY_KEY_PREFIX + memoryId);
+            snapshots.invalidate(key);
+            publishInvalidation(key);
             log.debug("Deleted messages from Redis, memoryId: {}", memoryId);
         } catch (Exception e) {
             log.error("Failed to delete messages from Redis, memoryId: {}", memoryId, e);
         }
     }
 
+    /**
+     * 增量更新：新窗口 = 旧窗口去掉头部 drop 条（保留开头的系统消息）+ 尾部新增的消息
+     *
+     * @return 是否已更新；false 表示窗口发生了其他变化或 Redis 中的数据已被其他节点修改，需要整体重写
+     */
+    private boolean tryAppend(String key, Snapshot snapshot, List<ChatMessage> messages) {
+        List<ChatMessage> old = snapshot.messages();
+        // 对话记忆淘汰时保留开头的系统消息
+        int fixed = !old.isEmpty() && old.get(0) instanceof SystemMessage && sameMessage(old.get(0), messages.get(0)) ? 1 : 0;
+        int drop = -1;
+        for (int d = 0; d <= old.size() - fixed; d++) {
+            if (isShiftedPrefix(old, messages, fixed, d)) {
+                drop = d;
+                break;
+            }
+        }
+        if (drop < 0) {
+            return false;
+        }
+        int kept = old.size() - drop;
+        if (drop == 0 && kept == messages.size()) {
+            // 窗口没有变化
+            return true;
+        }
+        List<byte[]> appended = new ArrayList<>(messages.size() - kept);
+        for (ChatMessage message : messages.subList(kept, messages.size())) {
+            appended.add(encode(message));
+        }
+        List<Object> args = new ArrayList<>(appended.size() + 5);
+        args.add(utf8(String.valueOf(old.size())));
+        args.add(utf8(snapshot.lastSha1()));
+        args.add(utf8(String.valueOf(fixed)));
+        args.add(utf8(String.valueOf(drop)));
+        args.add(utf8(String.valueOf(ttl.toSeconds())));
+        args.addAll(appended);
+        Long length = redissonClient.getScript(ByteArrayCodec.INSTANCE).eval(key, RScript.Mode.READ_WRITE,
+                APPEND_SCRIPT, RScript.ReturnType.INTEGER, List.of(key), args.toArray());
+        if (length == null || length < 0) {
+            // 其他节点改过这个窗口
+            return false;
+        }
+        // 没有追加时最后一条不变，除非淘汰到只剩保留的系统消息
+        String lastSha1 = !appended.isEmpty() ? sha1(appended.get(appended.size() - 1))
+                : kept > fixed ? snapshot.lastSha1() : null;
+        if (lastSha1 == null) {
+            snapshots.invalidate(key);
+        } else {
+            snapshots.put(key, Snapshot.of(messages, lastSha1));
+        }
+        log.debug("Appended messages in Redis, key: {}, dropped: {}, appended: {}", key, drop, appended.size());
+        return true;
+    }
+
+    /**
+     * old[fixed + drop ..] 是否等于 messages[fixed ..] 的前缀
+     */
+    private static boolean isShiftedPrefix(List<ChatMessage> old, List<ChatMessage> messages, int fixed, int drop) {
+        int kept = old.size() - fixed - drop;
+        if (fixed + kept > messages.size()) {
+            return false;
+        }
+        for (int i = 0; i < kept; i++) {
+            if (!sameMessage(old.get(fixed + drop + i), messages.get(fixed + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameMessage(ChatMessage a, ChatMessage b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * 整体重写窗口（删除、逐条写入、续期在一个脚本里完成）
+     */
+    private void rewrite(String key, List<ChatMessage> messages) {
+        List<Object> args = new ArrayList<>(messages.size() + 1);
+        args.add(utf8(String.valueOf(ttl.toSeconds())));
+        byte[] last = null;
+        for (ChatMessage message : messages) {
+            last = encode(message);
+            args.add(last);
+        }
+        redissonClient.getScript(ByteArrayCodec.INSTANCE).eval(key, RScript.Mode.READ_WRITE,
+                REWRITE_SCRIPT, RScript.ReturnType.INTEGER, List.of(key), args.toArray());
+        snapshots.put(key, Snapshot.of(messages, sha1(last)));
+    }
+
+    /**
+     * 通知其他节点丢弃该窗口的近端缓存（失败只影响其他节点的缓存时效，不影响本次写入）
+     */
+    private void publishInvalidation(String key) {
+        try {
+            invalidationTopic.publish(nodeId + "|" + key);
+        } catch (Exception e) {
+            log.warn("Failed to publish chat memory invalidation, key: {}, error: {}", key, e.getMessage());
+        }
+    }
+
+    private void onInvalidation(String message) {
+        int separator = message.indexOf('|');
+        if (separator <= 0 || nodeId.equals(message.substring(0, separator))) {
+            return;
+        }
+        snapshots.invalidate(message.substring(separator + 1));
+    }
+
+    private List<ChatMessage> loadLegacyBucket(Object memoryId) {
+        RBucket<String> bucket = redissonClient.getBucket(LEGACY_KEY_PREFIX + memoryId);
+        String json = PayloadCompressor.decode(bucket.getAndDelete());
+        if (json == null || json.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<ChatMessage> messages = ChatMessageDeserializer.messagesFromJson(json);
+        return messages != null ? new ArrayList<>(messages) : new ArrayList<>();
+    }
+
+    private byte[] encode(ChatMessage message) {
+        return payloadCompressor.encodeBinary(ChatBinaryCodec.encodeMessage(message), MEMORY_PATH);
+    }
+
+    private static String sha1(byte[] value) {
+        return SecureUtil.sha1().digestHex(value);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 本节点最近一次写入或读取的窗口，用于判断新窗口是否只在尾部变化
+     *
+     * @param messages 窗口中的消息
+     * @param lastSha1 Redis 中最后一个元素的 SHA1，写入前校验，防止基于过期的快照增量更新
+     * @param weight   近端缓存权重（消息字符数估算）
+     */
+    private record Snapshot(List<ChatMessage> messages, String lastSha1, int weight) {
+
+        static Snapshot of(List<ChatMessage> messages, String lastSha1) {
+            long chars = 0;
+            for (ChatMessage message : messages) {
+                chars += message.toString().length();
+            }
+            return new Snapshot(List.copyOf(messages), lastSha1, (int) Math.min(Integer.MAX_VALUE, chars));
+        }
+    }
+
     private String buildKey(Object memoryId) {
         return KEY_PREFIX + memoryId.toString();
     }
@@ -131,24 +376,31 @@ public class RedissonChatMemoryStore implements ChatMemoryStore {
                 return new ArrayList<>();
             }
 
-            // 查询 MySQL
+            // 查询 MySQL：取最新的 N 条，再反转成时间正序
             List<ChatHistory> histories = chatHistoryMapper.selectListByQuery(
                 QueryWrapper.create()
                     .eq("appId", appId)
                     .eq("isDelete", 0)
-                    .orderBy("createTime", true)
+                    .orderBy("createTime", false)
+                    .orderBy("id", false)
                     .limit(MAX_MESSAGES)
             );
 
             if (histories == null || histories.isEmpty()) {
                 return new ArrayList<>();
             }
+            histories = histories.reversed();
 
-            // 转换为 LangChain4j ChatMessage
-            return histories.stream()
-                .map(this::toChatMessage)
-                .filter(msg -> msg != null)
-                .collect(Collectors.toList());
+            // 转换为 LangChain4j ChatMessage（COS 存储的正文并发下载）
+            List<String> contents = chatHistoryContentStore.loadFullMessages(histories);
+            List<ChatMessage> messages = new ArrayList<>(histories.size());
+            for (int i = 0; i < histories.size(); i++) {
+                ChatMessage message = toChatMessage(histories.get(i), contents.get(i));
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            return messages;
         } catch (Exception e) {
             log.error("Failed to load from MySQL, memoryId: {}", memoryId, e);
             return new ArrayList<>();
@@ -157,20 +409,11 @@ public class RedissonChatMemoryStore implements ChatMemoryStore {
     /**
      * 从 ChatHistory 转换为 ChatMessage格式，适配 LangChain4j
      * @param history
+     * @param content 完整正文（COS 存储的已经加载好）
      * @return
      */
-    private ChatMessage toChatMessage(ChatHistory history) {
+    private ChatMessage toChatMessage(ChatHistory history, String content) {
         try {
-            String content = history.getMessage();
-
-            // 如果是 COS 存储，需要从 COS 加载完整内容
-            if (StorageTypeEnum.COS.getValue().equals(history.getStorageType())) {
-                String cosContent = cosManager.downloadContent(history.getContentRef());
-                if (cosContent != null) {
-                    content = cosContent;
-                }
-            }
-
             if ("user".equals(history.getMessageType())) {
                 return UserMessage.from(content);
             } else if ("ai".equals(history.getMessageType())) {
@@ -9,6 +9,7 @@ import com.hao.haoaicode.common.DeleteRequest;
 import com.hao.haoaicode.common.ResultUtils;
 import com.hao.haoaicode.constant.AppConstant;
 import com.hao.haoaicode.constant.UserConstant;
+import com.hao.haoaicode.core.handler.StreamFrameEncoder;
 import com.hao.haoaicode.exception.BusinessException;
 import com.hao.haoaicode.exception.ErrorCode;
 import com.hao.haoaicode.exception.ThrowUtils;
@@ -326,11 +327,9 @@ public class AppController {
         // 转换为 ServerSentEvent 格式
         return contentFlux
                 .map(chunk -> {
-                    // 将内容包装成JSON对象
-                    Map<String, String> wrapper = Map.of("d", chunk);
-                    String jsonData = JSONUtil.toJsonStr(wrapper);
+                    // 将内容包装成JSON对象 {"d": chunk}，按固定模板直接编码
                     return ServerSentEvent.<String>builder()
-                            .data(jsonData)
+                            .data(StreamFrameEncoder.sseData(chunk))
                             .build();
                 })
                 .concatWith(Mono.just(
@@ -2,6 +2,7 @@ package com.hao.haoaicode.controller;
 
 
 import com.hao.haoaicode.annotation.AuthCheck;
+import com.hao.haoaicode.buffer.ChatHistoryHotTail;
 import com.hao.haoaicode.common.BaseResponse;
 import com.hao.haoaicode.common.ResultUtils;
 import com.hao.haoaicode.constant.UserConstant;
@@ -34,25 +35,45 @@ public class ChatHistoryController {
     private ChatHistoryService chatHistoryService;
     @Autowired
     private UserService userService;
+    @Autowired
+    private ChatHistoryHotTail chatHistoryHotTail;
     /**
      * 分页查询某个应用的对话历史（游标查询）
+     * 游标分页不统计总数，返回的 totalRow、totalPage 为 -1；本页条数小于 pageSize 表示没有更早的记录，
+     * 下一页以本页最后一条的 createTime 和 id 作为游标
      *
      * @param appId          应用ID
      * @param pageSize       页面大小
      * @param lastCreateTime 最后一条记录的创建时间
+     * @param lastId         最后一条记录的ID（与 lastCreateTime 组成键集游标，可选）
      * @param request        请求
-     * @return 对话历史分页
+     * @return 对话历史分页（totalRow 为 -1）
      */
     @GetMapping("/app/{appId}")
     public BaseResponse<Page<ChatHistory>> listAppChatHistory(@PathVariable Long appId,
                                                               @RequestParam(defaultValue = "10") int pageSize,
                                                               @RequestParam(required = false) LocalDateTime lastCreateTime,
+                                                              @RequestParam(required = false) Long lastId,
                                                               HttpServletRequest request) {
         User loginUser = userService.getLoginUser(request);
-        Page<ChatHistory> result = chatHistoryService.listAppChatHistoryByPage(appId, pageSize, lastCreateTime, loginUser);
+        Page<ChatHistory> result = chatHistoryService.listAppChatHistoryByPage(appId, pageSize, lastCreateTime, lastId, loginUser);
         return ResultUtils.success(result);
     }
 
+    /**
+     * 获取单条消息的完整内容
+     * 分页结果中的大消息只有预览（storageType=cos），展开时通过该接口加载正文
+     *
+     * @param id      消息ID
+     * @param request 请求
+     * @return 完整消息内容
+     */
+    @GetMapping("/content/{id}")
+    public BaseResponse<String> getChatMessageContent(@PathVariable Long id, HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        return ResultUtils.success(chatHistoryService.getChatMessageContent(id, loginUser));
+    }
+
     /**
      * 管理员分页查询所有对话历史
      *
@@ -79,7 +100,10 @@ public class ChatHistoryController {
      */
     @PostMapping("save")
     public boolean save(@RequestBody ChatHistory chatHistory) {
-        return chatHistoryService.save(chatHistory);
+        boolean saved = chatHistoryService.save(chatHistory);
+        // 直接写库的记录不经过热尾，删除热尾让分页回源
+        chatHistoryHotTail.evict(chatHistory.getAppId());
+        return saved;
     }
 
     /**
@@ -90,7 +114,12 @@ public class ChatHistoryController {
      */
     @DeleteMapping("remove/{id}")
     public boolean remove(@PathVariable Long id) {
-        return chatHistoryService.removeById(id);
+        ChatHistory chatHistory = chatHistoryService.getById(id);
+        boolean removed = chatHistoryService.removeById(id);
+        if (chatHistory != null) {
+            chatHistoryHotTail.evict(chatHistory.getAppId());
+        }
+        return removed;
     }
 
     /**
@@ -101,7 +130,14 @@ public class ChatHistoryController {
      */
     @PutMapping("update")
     public boolean update(@RequestBody ChatHistory chatHistory) {
-        return chatHistoryService.updateById(chatHistory);
+        Long appId = chatHistory.getAppId();
+        if (appId == null && chatHistory.getId() != null) {
+            ChatHistory old = chatHistoryService.getById(chatHistory.getId());
+            appId = old != null ? old.getAppId() : null;
+        }
+        boolean updated = chatHistoryService.updateById(chatHistory);
+        chatHistoryHotTail.evict(appId);
+        return updated;
     }
 
     /**
@@ -7,6 +7,7 @@ import com.hao.haoaicode.ai.model.MultiFileCodeResult;
 import com.hao.haoaicode.ai.AiCodeGeneratorServiceFactory;
 import com.hao.haoaicode.ai.agent.VuePlanContext;
 import com.hao.haoaicode.ai.agent.VuePlanningService;
+import com.hao.haoaicode.ai.cache.GenerationResponseCache;
 import com.hao.haoaicode.core.handler.StreamHandlerExecutor;
 import com.hao.haoaicode.exception.BusinessException;
 import com.hao.haoaicode.exception.ErrorCode;
@@ -53,6 +54,8 @@ public class AiCodeGeneratorFacade {
     private TaskSummaryService taskSummaryService;
     @Resource
     private ProjectSpecService projectSpecService;
+    @Resource
+    private GenerationResponseCache generationResponseCache;
 
     /**
      * 构建会话 ID
@@ -176,21 +179,25 @@ public class AiCodeGeneratorFacade {
         AiCodeGeneratorService service = aiCodeGeneratorServiceFactory.getService(codeGenTypeEnum);
         Flux<String> actualStream = switch (codeGenTypeEnum) {
             case HTML -> {
-                Flux<String> codeStream = service.generateHtmlCodeStream(sessionId, userMessage);
+                TokenStream codeStream = generationResponseCache.wrap(CodeGenTypeEnum.HTML, sessionId, userMessage,
+                        () -> service.generateHtmlCodeStream(sessionId, userMessage));
                 yield streamHandlerExecutor.executeTextStream(codeStream, appId, loginUser, CodeGenTypeEnum.HTML);
             }
             case MULTI_FILE -> {
-                Flux<String> codeStream = service.generateMultiFileCodeStream(sessionId, userMessage);
+                TokenStream codeStream = generationResponseCache.wrap(CodeGenTypeEnum.MULTI_FILE, sessionId, userMessage,
+                        () -> service.generateMultiFileCodeStream(sessionId, userMessage));
                 yield streamHandlerExecutor.executeTextStream(codeStream, appId, loginUser, CodeGenTypeEnum.MULTI_FILE);
             }
             case VUE_PROJECT -> {
                 String finalPrompt = buildVueProjectPrompt(userMessage, appId);
-                TokenStream projectStream = service.generateVueProjectCodeStream(sessionId, finalPrompt);
+                TokenStream projectStream = generationResponseCache.wrap(CodeGenTypeEnum.VUE_PROJECT, sessionId, finalPrompt,
+                        () -> service.generateVueProjectCodeStream(sessionId, finalPrompt));
                 yield streamHandlerExecutor.executeTokenStream(
                         projectStream,
                         appId,
                         loginUser,
-                        finalPrompt,
+                        // 语义缓存按用户原始提示词建索引，拼接的项目规格和任务历史不参与匹配
+                        userMessage,
                         CodeGenTypeEnum.VUE_PROJECT
                 );
             }
@@ -2,27 +2,34 @@ package com.hao.haoaicode.core.handler;
 
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 
 import com.hao.haoaicode.ai.model.message.ToolExecutedMessage;
 import com.hao.haoaicode.buffer.ChatMessageRouter;
 import com.hao.haoaicode.constant.AppConstant;
+import com.hao.haoaicode.core.pipeline.PostGenerationPipeline;
 import com.hao.haoaicode.model.entity.User;
 import com.hao.haoaicode.model.enums.ChatHistoryMessageTypeEnum;
 import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
+import com.hao.haoaicode.parser.MultiFileStreamParser;
 import com.hao.haoaicode.service.ConversationHistoryRecorder;
 import com.hao.haoaicode.service.ProjectGenerationPostProcessor;
 import com.hao.haoaicode.service.SemanticCacheService;
 import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
 import dev.langchain4j.service.TokenStream;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * JSON 消息流处理器
@@ -35,6 +42,23 @@ import java.util.Map;
 @Component
 public class JsonMessageStreamHandler {
 
+    /**
+     * 原始响应缓冲的初始容量，Vue 项目一次生成通常在几十 KB，避免频繁扩容
+     */
+    private static final int INITIAL_BUFFER_CAPACITY = 32 * 1024;
+
+    /**
+     * 增量合并的时间窗口（毫秒），0 表示不合并、每个 token 单独成帧
+     */
+    @Value("${code.stream.coalesce-window-ms:40}")
+    private long coalesceWindowMs;
+
+    /**
+     * 单帧最大字节数，攒够立即发出
+     */
+    @Value("${code.stream.coalesce-max-bytes:4096}")
+    private int coalesceMaxBytes;
+
     @Resource
     private ChatMessageRouter chatMessageRouter;
 
@@ -47,6 +71,12 @@ public class JsonMessageStreamHandler {
     @Resource
     private SemanticCacheService semanticCacheService;
 
+    @Resource
+    private StreamLifecycleManager streamLifecycleManager;
+
+    @Resource
+    private PostGenerationPipeline postGenerationPipeline;
+
     /**
      * 处理 TokenStream（VUE_PROJECT）
      * 直接消费 TokenStream，避免了反复序列化/反序列化 JSON 的开销
@@ -63,126 +93,139 @@ public class JsonMessageStreamHandler {
                                User loginUser,
                                String userMessage,
                                CodeGenTypeEnum codeGenType) {
-        // 收集数据
-        StringBuilder chatHistoryStringBuilder = new StringBuilder();
-        StringBuilder displayBuffer = new StringBuilder();
-        // 用来记住“已经发给前端的干净内容长度”，
-        // 因为现在我们对 累积缓冲 做清洗，每次清洗都会得到一份“完整的干净文本”。如果不做截断，前端会收到 重复内容 。
-        // 所以 lastSentLen 的作用是：
-        //- 记录上一次已经发送到前端的字符数
-        //- 本次只把新增的那一段发出去（ displayResponse.substring(lastSentLen) ）
-        int[] lastSentLen = new int[]{0};
         // 用于跟踪已经见过的工具ID，判断是否是第一次调用
         // Set<String> seenToolIds = new HashSet<>();
         // 记录开始的时间，用来统计耗时，nanoTime返回的是纳秒
         long generationStartNs = System.nanoTime();
 
         return Flux.create(sink -> {
+            // 增量解析多文件协议：单遍扫描、只保留一份原始响应缓冲，
+            // 每个 token 只处理新增字符，立即得到去掉协议标记后的展示增量
+            MultiFileStreamParser streamParser = new MultiFileStreamParser(INITIAL_BUFFER_CAPACITY);
+            // 每个文件块完成就提交上传，上传与模型后续输出并行，生成结束时只剩收尾工作
+            ProjectGenerationPostProcessor.SourceUploadSession uploadSession =
+                    projectGenerationPostProcessor.openUploadSession(appId);
+            streamParser.setFileListener(uploadSession::submit);
+            // 展示增量按时间窗口和字节数合并后再编码成帧，减少帧数、编码次数和写出次数
+            StreamDeltaCoalescer coalescer = new StreamDeltaCoalescer(coalesceWindowMs, coalesceMaxBytes,
+                    delta -> sink.next(StreamFrameEncoder.aiResponse(delta)));
+
+            // 纳入生命周期管理：客户端断开或模型空闲超时时关闭上游模型连接，并释放缓冲、放弃源码上传
+            StreamLifecycleManager.Generation generation =
+                    streamLifecycleManager.register(appId, loginUser.getId(), codeGenType);
+            generation.onRelease(coalescer::close);
+            generation.onRelease(uploadSession::abort);
+
+            // 生成失败的统一处理：发送错误信号并记录错误历史
+            Consumer<Throwable> failureHandler = error -> {
+                sink.error(error);
+
+                long totalDurationMs = (System.nanoTime() - generationStartNs) / 1_000_000;
+                log.error("项目生成失败 appId: {}, durationMs: {}", appId, totalDurationMs, error);
+
+                // 记录错误历史
+                String errorMessage = "AI回复失败: " + error.getMessage();
+                chatMessageRouter.route(appId, errorMessage, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId());
+            };
+            generation.onIdleTimeout(() -> failureHandler.accept(new TimeoutException("模型输出空闲超时")));
+
             // 注册取消回调
             sink.onCancel(() -> {
                 log.info("客户端取消订阅，appId: {}", appId);
+                streamLifecycleManager.cancel(generation, StreamLifecycleManager.REASON_CLIENT_CANCEL);
             });
 
-            tokenStream.onPartialResponse((String partialResponse) -> {
-                        if (sink.isCancelled()) return;
-
-                        displayBuffer.append(partialResponse);
-                        String displayResponse = displayBuffer.toString()
-                                .replaceAll("(?s)<<<FILE:.*?>>>", "")
-                                .replaceAll("<<<END_FILE>>>", "")
-                                .replaceAll("<<<DONE>>>", "");
-                        if (displayResponse.length() > lastSentLen[0]) {
-                            String delta = displayResponse.substring(lastSentLen[0]);
-                            lastSentLen[0] = displayResponse.length();
-                            String jsonResponse = JSONUtil.toJsonStr(
-                                Map.of("type", "ai_response", "data", delta)
-                            );
-                            sink.next(jsonResponse);
-                        }
-                        chatHistoryStringBuilder.append(partialResponse);
+            tokenStream.onPartialResponseWithContext((PartialResponse partialResponse, PartialResponseContext context) -> {
+                        // 已取消时这里会顺带关闭上游，丢弃该 token
+                        if (!generation.onToken(context.streamingHandle())) return;
+
+                        coalescer.append(streamParser.feed(partialResponse.text()));
                     })
                     // 大模型流式输出结束后的收尾逻辑（只会调用一次）
                     .onCompleteResponse((ChatResponse response) -> {
                         // 如果前端已经取消订阅（例如用户中途终止），则不再进行后续构建/上传等操作
-                        if (sink.isCancelled()) {
+                        if (sink.isCancelled() || generation.isCancelled()) {
                             log.info("已取消，跳过 Vue 项目构建");
                             return;
                         }
+                        // 模型输出已结束，之后的后处理不再受取消影响
+                        streamLifecycleManager.complete(generation, response);
                         
+                        // 把暂存的、最终没有构成协议标记的尾部文本补发给前端
+                        coalescer.append(streamParser.finish());
+                        // 状态消息之前先把攒着的增量发完，保证顺序
+                        coalescer.flush();
                         // 完整的 AI 回复，转换成字符串
-                        String aiResponse = chatHistoryStringBuilder.toString();
-                        // - 解析多文件协议 → 得到 (path → content)
-                        // - 合并进 Caffeine 缓存（用于预览）
-                        // - 上传源码文件到 COS，更新 Redis 里的“最新源码路径”，并记录指标。
-                        ProjectGenerationPostProcessor.ProjectGenerationResult result =
-                                projectGenerationPostProcessor.processGeneration(appId, aiResponse);
-
-                        if (!result.hasFiles()) {
-                            sink.next(JSONUtil.toJsonStr(Map.of(
-                                    "type", "ai_response",
-                                    "data", "\n\n【解析】未识别到任何文件块输出，请检查模型输出格式（<<<FILE:...>>> / <<<END_FILE>>> / <<<DONE>>>）。\n"
-                            )));
-                        } else {
-                            sink.next(JSONUtil.toJsonStr(Map.of(
-                                    "type", "ai_response",
-                                    "data", "\n\n【预览】已将生成的 Vue 项目写入内存缓存。可立即预览（30分钟有效）\n"
-                            )));
-                            if (result.isUploadSuccess()) {
-                                sink.next(JSONUtil.toJsonStr(Map.of(
-                                        "type", "ai_response",
-                                        "data", "\n\n【源码上传】已上传到云端源码目录。\n"
-                                )));
-                            } else {
-                                sink.next(JSONUtil.toJsonStr(Map.of(
-                                        "type", "ai_response",
-                                        "data", "\n\n【源码上传】上传失败，请稍后重试。\n"
-                                )));
-                            }
-                        }
+                        String aiResponse = streamParser.getRawText();
+                        Map<String, String> files = streamParser.getFiles();
 
-                        // 将完整的 AI 回复存入后端对话历史，用于后续查看和上下文追溯
-                        conversationHistoryRecorder.recordAiMessage(appId, aiResponse, loginUser.getId());
-
-                        // 在代码生成完成后，将本次生成记录写入语义缓存、版本记录
-                        try {
-                            if (result.isUploadSuccess()
-                                    && result.getSourceBaseKey() != null
-                                    && codeGenType == CodeGenTypeEnum.VUE_PROJECT) {
-                                semanticCacheService.savaCache(
-                                        userMessage,
-                                        appId,
-                                        loginUser.getId(),
-                                        codeGenType,
-                                        result.getSourceBaseKey(),
-                                        0.0d
-                                );
-                            }
-                        } catch (Exception e) {
-                            log.warn("保存语义缓存记录失败 appId: {}, error: {}", appId, e.getMessage());
-                        }
-
-                        // 记录本次项目生成的总耗时（从开始到全部完成）
-                        long totalDurationMs = (System.nanoTime() - generationStartNs) / 1_000_000;
-                        log.info("项目生成总耗时 appId: {}, durationMs: {}", appId, totalDurationMs);
+                        // 以下收尾工作全部交给生成后处理流水线，模型回调线程到此返回
+                        // 将完整的 AI 回复存入后端对话历史，用于后续查看和上下文追溯（与源码收尾互不依赖）
+                        postGenerationPipeline.run(PostGenerationPipeline.Stage.HISTORY,
+                                () -> conversationHistoryRecorder.recordAiMessage(appId, aiResponse, loginUser.getId()));
 
-                        // 通知前端：流式推送已经完全结束
-                        sink.complete();
+                        // - 多文件协议已在流式过程中解析完成 → (path → content)
+                        // - 合并进 Caffeine 缓存（用于预览）
+                        // - 源码文件已在生成过程中逐个上传，这里补齐后写入版本清单，更新 Redis 里的“最新源码路径”，并记录指标。
+                        postGenerationPipeline.supply(PostGenerationPipeline.Stage.PROJECT,
+                                        () -> projectGenerationPostProcessor.processGeneration(appId, files, uploadSession))
+                                .whenComplete((result, error) -> {
+                                    if (error != null) {
+                                        // 执行失败或者流水线已满，按上传失败处理，不更新最新版本指针
+                                        uploadSession.abort();
+                                        result = new ProjectGenerationPostProcessor.ProjectGenerationResult(!files.isEmpty(), false, null);
+                                    }
+                                    sendResultMessages(sink, result);
+
+                                    // 在代码生成完成后，将本次生成记录写入语义缓存、版本记录
+                                    if (result.isUploadSuccess()
+                                            && result.getSourceBaseKey() != null
+                                            && codeGenType == CodeGenTypeEnum.VUE_PROJECT) {
+                                        String sourceBaseKey = result.getSourceBaseKey();
+                                        postGenerationPipeline.run(PostGenerationPipeline.Stage.VERSION,
+                                                () -> semanticCacheService.savaCache(
+                                                        userMessage,
+                                                        appId,
+                                                        loginUser.getId(),
+                                                        codeGenType,
+                                                        sourceBaseKey
+                                                ));
+                                    }
+
+                                    // 记录本次项目生成的总耗时（从开始到全部完成）
+                                    long totalDurationMs = (System.nanoTime() - generationStartNs) / 1_000_000;
+                                    log.info("项目生成总耗时 appId: {}, durationMs: {}, 增量数: {}, 推送帧数: {}",
+                                            appId, totalDurationMs, coalescer.getInputCount(), coalescer.getOutputCount());
+                                    coalescer.close();
+
+                                    // 通知前端：流式推送已经完全结束
+                                    sink.complete();
+                                });
                     })
                     .onError((Throwable error) -> {
-                        error.printStackTrace();
-                        sink.error(error);
-
-                        long totalDurationMs = (System.nanoTime() - generationStartNs) / 1_000_000;
-                        log.error("项目生成失败 appId: {}, durationMs: {}", appId, totalDurationMs, error);
-                        
-                        // 记录错误历史
-                        String errorMessage = "AI回复失败: " + error.getMessage();
-                        chatMessageRouter.route(appId, errorMessage, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId());
+                        // 已经输出的内容先发完，再释放资源
+                        coalescer.flush();
+                        streamLifecycleManager.fail(generation);
+                        failureHandler.accept(error);
                     })
                     .start();
              
         });
     }
 
-
+    /**
+     * 推送源码解析/上传结果的状态消息
+     */
+    private void sendResultMessages(FluxSink<String> sink, ProjectGenerationPostProcessor.ProjectGenerationResult result) {
+        if (!result.hasFiles()) {
+            sink.next(StreamFrameEncoder.aiResponse("\n\n【解析】未识别到任何文件块输出，请检查模型输出格式（<<<FILE:...>>> / <<<END_FILE>>> / <<<DONE>>>）。\n"));
+            return;
+        }
+        sink.next(StreamFrameEncoder.aiResponse("\n\n【预览】已将生成的 Vue 项目写入内存缓存。可立即预览（30分钟有效）\n"));
+        if (result.isUploadSuccess()) {
+            sink.next(StreamFrameEncoder.aiResponse("\n\n【源码上传】已上传到云端源码目录。\n"));
+        } else {
+            sink.next(StreamFrameEncoder.aiResponse("\n\n【源码上传】上传失败，请稍后重试。\n"));
+        }
+    }
 }
@@ -1,19 +1,20 @@
 package com.hao.haoaicode.core.handler;
 
 import com.hao.haoaicode.buffer.ChatMessageRouter;
-import com.hao.haoaicode.core.CodeParser;
+import com.hao.haoaicode.core.pipeline.PostGenerationPipeline;
 import com.hao.haoaicode.model.entity.User;
 import com.hao.haoaicode.model.enums.ChatHistoryMessageTypeEnum;
 import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
+import com.hao.haoaicode.parser.CodeFenceStreamParser;
 import com.hao.haoaicode.parser.CodeParserExecutor;
 import com.hao.haoaicode.saver.CodeFileSaverExecutor;
 import com.hao.haoaicode.service.ChatHistoryService;
+import dev.langchain4j.service.TokenStream;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 /**
  * 简单文本流处理器
@@ -21,17 +22,49 @@ import reactor.core.scheduler.Schedulers;
  * 职责：
  * 1. 收集流式响应
  * 2. 保存对话历史
- * 3. 解析并保存代码文件
+ * 3. 增量解析代码块，流正常结束后一次性保存代码文件
  */
 @Component
 @Slf4j
 public class SimpleTextStreamHandler {
+
+    /**
+     * 原始响应缓冲的初始容量，单页/三文件网页通常在十几 KB
+     */
+    private static final int INITIAL_BUFFER_CAPACITY = 16 * 1024;
+
     @Resource
     ChatMessageRouter chatMessageRouter;
 
+    @Resource
+    private StreamLifecycleManager streamLifecycleManager;
+
+    @Resource
+    private PostGenerationPipeline postGenerationPipeline;
+
+    /**
+     * 增量合并的时间窗口（毫秒），0 表示不合并
+     */
+    @Value("${code.stream.coalesce-window-ms:40}")
+    private long coalesceWindowMs;
+
+    @Value("${code.stream.coalesce-max-bytes:4096}")
+    private int coalesceMaxBytes;
+
+    /**
+     * 处理模型 TokenStream（HTML, MULTI_FILE）
+     * 纳入生命周期管理，客户端断开或模型空闲超时时会关闭到模型的上游连接
+     */
+    public Flux<String> handle(TokenStream tokenStream,
+                               long appId, User loginUser, CodeGenTypeEnum codeGenType) {
+        Flux<String> originFlux = streamLifecycleManager.track(tokenStream, appId, loginUser.getId(), codeGenType);
+        return handle(originFlux, appId, loginUser, codeGenType);
+    }
+
     /**
      * 处理传统流（HTML, MULTI_FILE）
-     * 直接收集完整的文本响应，并执行保存逻辑
+     * 增量解析代码块，代码块在内存中缓冲，流正常结束后才一次性写入站点目录；
+     * 取消、失败或被截断的生成不会覆盖已有站点的任何文件
      *
      * @param originFlux         原始流
      * @param appId              应用ID
@@ -41,34 +74,43 @@ public class SimpleTextStreamHandler {
      */
     public Flux<String> handle(Flux<String> originFlux,
                                long appId, User loginUser, CodeGenTypeEnum codeGenType) {
-        StringBuilder aiResponseBuilder = new StringBuilder();
-        return originFlux
+        // 同时作为完整响应的缓冲（写入对话历史）
+        CodeFenceStreamParser fenceParser = new CodeFenceStreamParser(INITIAL_BUFFER_CAPACITY);
+        // 代码块闭合时只记录进度，不写文件
+        fenceParser.setBlockListener((language, content) ->
+                log.debug("代码块已生成 appId: {}, language: {}, size: {}", appId, language, content.length()));
+        Flux<String> handled = originFlux
                 .map(chunk -> {
-                    // 收集AI响应内容
-                    aiResponseBuilder.append(chunk);
+                    // 增量解析代码块，原样转发给前端
+                    fenceParser.feed(chunk);
                     return chunk;
                 })
                 .doOnComplete(() -> {
-                    // 1. 流式响应完成后，添加AI消息到对话历史
-                    String aiResponse = aiResponseBuilder.toString();
-                    chatMessageRouter.route(appId, aiResponse, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId());
+                    fenceParser.finish();
+                    String aiResponse = fenceParser.getRawText();
+                    // 1. 流式响应完成后，添加AI消息到对话历史（交给生成后处理流水线，不占用模型回调线程）
+                    postGenerationPipeline.run(PostGenerationPipeline.Stage.HISTORY,
+                            () -> chatMessageRouter.route(appId, aiResponse, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId()));
 
-                    // 2. 异步执行代码解析与保存（原 Facade 中的逻辑）
-                    Mono.fromCallable(() -> {
-                                // 代码解析
-                                Object parsedResult = CodeParserExecutor.executeParser(aiResponse, codeGenType);
-                                // 代码保存
+                    // 2. 用已经解析好的代码块组装结果，一次性写入站点目录
+                    postGenerationPipeline.supply(PostGenerationPipeline.Stage.PROJECT, () -> {
+                                Object parsedResult = CodeParserExecutor.executeParser(fenceParser, codeGenType);
                                 return CodeFileSaverExecutor.executeSaver(parsedResult, codeGenType, appId);
                             })
-                            .subscribeOn(Schedulers.boundedElastic())
-                            .doOnSuccess(savedDir -> log.info("代码保存成功: {}", savedDir.getAbsolutePath()))
-                            .doOnError(e -> log.error("代码保存失败", e))
-                            .subscribe();
+                            .whenComplete((savedDir, e) -> {
+                                if (e != null) {
+                                    log.error("代码保存失败", e);
+                                } else {
+                                    log.info("代码保存成功: {}", savedDir.getAbsolutePath());
+                                }
+                            });
                 })
                 .doOnError(error -> {
                     // 如果AI回复失败，也要记录错误消息
                     String errorMessage = "AI回复失败: " + error.getMessage();
                     chatMessageRouter.route(appId, errorMessage, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId());
                 });
+        // 按时间窗口和字节数合并 token，减少推送帧数
+        return StreamDeltaCoalescer.coalesce(handled, coalesceWindowMs, coalesceMaxBytes);
     }
 }
@@ -0,0 +1,84 @@
+package com.hao.haoaicode.core.handler;
+
+/**
+ * 流式推送帧编码器
+ * 帧结构固定（{"type":"ai_response","data":"..."}、{"d":"..."}），直接按模板拼接并转义，
+ * 不再为每个 token 构造 Map 再走一遍通用 JSON 序列化；StringBuilder 按内容长度预分配，只拷贝一次。
+ */
+public final class StreamFrameEncoder {
+
+    private static final String AI_RESPONSE_PREFIX = "{\"type\":\"ai_response\",\"data\":\"";
+    private static final String SSE_DATA_PREFIX = "{\"d\":\"";
+    private static final String SUFFIX = "\"}";
+    private static final char LINE_SEPARATOR = (char) 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private StreamFrameEncoder() {
+    }
+
+    /**
+     * 编码一条 AI 响应增量消息：{"type":"ai_response","data":delta}
+     */
+    public static String aiResponse(String delta) {
+        return encode(AI_RESPONSE_PREFIX, delta);
+    }
+
+    /**
+     * 编码 SSE 事件的 data 部分：{"d":chunk}
+     */
+    public static String sseData(String chunk) {
+        return encode(SSE_DATA_PREFIX, chunk);
+    }
+
+    private static String encode(String prefix, String value) {
+        String v = value == null ? "" : value;
+        // 预留 1/8 的转义余量，代码内容里的换行和引号通常不超过这个比例
+        StringBuilder sb = new StringBuilder(prefix.length() + v.length() + (v.length() >> 3) + SUFFIX.length());
+        sb.append(prefix);
+        appendEscaped(sb, v);
+        sb.append(SUFFIX);
+        return sb.toString();
+    }
+
+    /**
+     * 按 JSON 字符串规则转义，连续的普通字符整段拷贝
+     */
+    static void appendEscaped(StringBuilder sb, String s) {
+        int len = s.length();
+        int runStart = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            String escaped;
+            switch (c) {
+                case '"' -> escaped = "\\\"";
+                case '\\' -> escaped = "\\\\";
+                case '\n' -> escaped = "\\n";
+                case '\r' -> escaped = "\\r";
+                case '\t' -> escaped = "\\t";
+                case '\b' -> escaped = "\\b";
+                case '\f' -> escaped = "\\f";
+                default -> {
+                    // 控制字符以及 JS 中的行分隔符统一输出为 Unicode 转义
+                    if (c < 0x20 || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                        escaped = null;
+                    } else {
+                        continue;
+                    }
+                }
+            }
+            sb.append(s, runStart, i);
+            if (escaped != null) {
+                sb.append(escaped);
+            } else {
+                sb.append("\\u")
+                        .append(HEX[(c >> 12) & 0xF])
+                        .append(HEX[(c >> 8) & 0xF])
+                        .append(HEX[(c >> 4) & 0xF])
+                        .append(HEX[c & 0xF]);
+            }
+            runStart = i + 1;
+        }
+        sb.append(s, runStart, len);
+    }
+}
@@ -11,7 +11,7 @@ import reactor.core.publisher.Flux;
 /**
  * 流处理器执行器
  * 根据代码生成类型创建合适的流处理器：
- * 1. 传统的 Flux<String> 流（HTML、MULTI_FILE） -> SimpleTextStreamHandler
+ * 1. 纯文本流（HTML、MULTI_FILE） -> SimpleTextStreamHandler
  * 2. TokenStream 格式的复杂流（VUE_PROJECT） -> JsonMessageStreamHandler
  */
 @Slf4j
@@ -38,8 +38,8 @@ public class StreamHandlerExecutor {
     /**
      * 处理普通文本流 (HTML, MULTI_FILE)
      */
-    public Flux<String> executeTextStream(Flux<String> originFlux, long appId, User loginUser, CodeGenTypeEnum codeGenType) {
-        return simpleTextStreamHandler.handle(originFlux, appId, loginUser, codeGenType);
+    public Flux<String> executeTextStream(TokenStream tokenStream, long appId, User loginUser, CodeGenTypeEnum codeGenType) {
+        return simpleTextStreamHandler.handle(tokenStream, appId, loginUser, codeGenType);
     }
 
     /**
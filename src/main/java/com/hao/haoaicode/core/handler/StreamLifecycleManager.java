@@ -0,0 +1,279 @@
+package com.hao.haoaicode.core.handler;
+
+import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
+import com.hao.haoaicode.monitor.AppMetricsCollector;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.service.TokenStream;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流式生成生命周期管理
+ * 跟踪所有进行中的生成，客户端断开或者模型长时间没有输出时：
+ * 1. 通过 LangChain4j 的 StreamingHandle 主动关闭到模型的 HTTP 流，不再继续消耗 token；
+ * 2. 执行各处理器注册的释放动作（丢弃合并缓冲、放弃源码上传等）；
+ * 3. 按生成类型估算并记录节省的 token 数。
+ *
+ * StreamingHandle 只能在第一个 token 回调里拿到，取消发生在第一个 token 之前时先打标记，
+ * 等第一个 token 到达时立即关闭。
+ */
+@Slf4j
+@Component
+public class StreamLifecycleManager {
+
+    public static final String REASON_CLIENT_CANCEL = "client_cancel";
+    public static final String REASON_IDLE_TIMEOUT = "idle_timeout";
+
+    // 估算平均输出 token 数的平滑系数
+    private static final double AVG_ALPHA = 0.2d;
+
+    @Resource
+    private AppMetricsCollector appMetricsCollector;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 模型多久没有输出就判定为卡死并主动关闭（秒），0 表示不检测
+     */
+    @Value("${code.stream.idle-timeout-seconds:120}")
+    private long idleTimeoutSeconds;
+
+    private final AtomicLong idGenerator = new AtomicLong();
+    private final Map<Long, Generation> activeGenerations = new ConcurrentHashMap<>();
+    // 生成类型 -> 已完成生成的平均输出 token 数，用于估算取消节省的 token
+    private final Map<CodeGenTypeEnum, Double> avgOutputTokens = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void initMetrics() {
+        Gauge.builder("app.codegen.stream.active", activeGenerations, Map::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 登记一次生成
+     */
+    public Generation register(long appId, long userId, CodeGenTypeEnum codeGenType) {
+        Generation generation = new Generation(idGenerator.incrementAndGet(), appId, userId, codeGenType);
+        activeGenerations.put(generation.id, generation);
+        return generation;
+    }
+
+    /**
+     * 把 TokenStream 适配成 Flux 并纳入生命周期管理：下游取消时关闭上游模型调用
+     * （langchain4j-reactor 的适配器在取消时不会关闭上游）
+     */
+    public Flux<String> track(TokenStream tokenStream, long appId, long userId, CodeGenTypeEnum codeGenType) {
+        return Flux.create(sink -> {
+            Generation generation = register(appId, userId, codeGenType);
+            generation.onIdleTimeout(() -> sink.error(new TimeoutException("模型输出空闲超时")));
+            sink.onCancel(() -> cancel(generation, REASON_CLIENT_CANCEL));
+
+            tokenStream.onPartialResponseWithContext((partial, context) -> {
+                        if (generation.onToken(context.streamingHandle())) {
+                            sink.next(partial.text());
+                        }
+                    })
+                    .onCompleteResponse(response -> {
+                        complete(generation, response);
+                        sink.complete();
+                    })
+                    .onError(error -> {
+                        fail(generation);
+                        sink.error(error);
+                    })
+                    .start();
+        });
+    }
+
+    /**
+     * 模型正常输出结束（上游已关闭，之后的后处理不再受取消影响）
+     */
+    public void complete(Generation generation, ChatResponse response) {
+        if (!generation.finished.compareAndSet(false, true)) {
+            return;
+        }
+        activeGenerations.remove(generation.id);
+        long outputTokens = generation.emittedTokens.sum();
+        TokenUsage usage = response != null ? response.tokenUsage() : null;
+        if (usage != null && usage.outputTokenCount() != null) {
+            outputTokens = usage.outputTokenCount();
+        }
+        long sample = outputTokens;
+        avgOutputTokens.merge(generation.codeGenType, (double) sample,
+                (avg, ignored) -> avg + AVG_ALPHA * (sample - avg));
+    }
+
+    /**
+     * 模型调用出错，上游已经结束，只需要释放资源
+     */
+    public void fail(Generation generation) {
+        if (!generation.finished.compareAndSet(false, true)) {
+            return;
+        }
+        activeGenerations.remove(generation.id);
+        generation.release();
+    }
+
+    /**
+     * 主动终止生成：关闭上游模型流、释放资源、记录节省的 token
+     */
+    public void cancel(Generation generation, String reason) {
+        if (!generation.finished.compareAndSet(false, true)) {
+            return;
+        }
+        activeGenerations.remove(generation.id);
+        generation.cancelled = true;
+        generation.cancelUpstream();
+        generation.release();
+
+        long emitted = generation.emittedTokens.sum();
+        Double avg = avgOutputTokens.get(generation.codeGenType);
+        long saved = avg == null ? 0L : Math.max(0L, Math.round(avg) - emitted);
+        appMetricsCollector.recordStreamTermination(
+                generation.codeGenType != null ? generation.codeGenType.getValue() : null, reason, emitted, saved);
+        log.info("终止流式生成 appId: {}, reason: {}, 已输出token: {}, 估算节省token: {}",
+                generation.appId, reason, emitted, saved);
+    }
+
+    /**
+     * 定时检查空闲的生成，模型卡住时主动关闭，避免连接和缓冲一直挂着
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void sweepIdleGenerations() {
+        if (idleTimeoutSeconds <= 0 || activeGenerations.isEmpty()) {
+            return;
+        }
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        long now = System.nanoTime();
+        for (Generation generation : activeGenerations.values()) {
+            if (now - generation.lastActivityNanos < idleTimeoutNanos) {
+                continue;
+            }
+            cancel(generation, REASON_IDLE_TIMEOUT);
+            Runnable timeoutHook = generation.idleTimeoutHook;
+            if (timeoutHook != null) {
+                try {
+                    timeoutHook.run();
+                } catch (Exception e) {
+                    log.warn("空闲超时回调执行失败 appId: {}, error: {}", generation.appId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次进行中的生成
+     */
+    public static final class Generation {
+
+        private final long id;
+        private final long appId;
+        private final long userId;
+        private final CodeGenTypeEnum codeGenType;
+        private final LongAdder emittedTokens = new LongAdder();
+        private final List<Runnable> releaseHooks = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AtomicBoolean upstreamCancelled = new AtomicBoolean();
+
+        private volatile long lastActivityNanos = System.nanoTime();
+        private volatile StreamingHandle streamingHandle;
+        private volatile boolean cancelled;
+        private volatile Runnable idleTimeoutHook;
+
+        private Generation(long id, long appId, long userId, CodeGenTypeEnum codeGenType) {
+            this.id = id;
+            this.appId = appId;
+            this.userId = userId;
+            this.codeGenType = codeGenType;
+        }
+
+        /**
+         * 每个 token 到达时调用
+         *
+         * @return 生成是否仍然有效，已取消时返回 false，调用方应丢弃该 token
+         */
+        public boolean onToken(StreamingHandle handle) {
+            if (streamingHandle == null && handle != null) {
+                streamingHandle = handle;
+            }
+            if (cancelled) {
+                // 取消发生在拿到 handle 之前，这里补上关闭
+                cancelUpstream();
+                return false;
+            }
+            lastActivityNanos = System.nanoTime();
+            emittedTokens.increment();
+            return true;
+        }
+
+        /**
+         * 注册终止时的释放动作（取消、超时、出错时执行一次）
+         */
+        public void onRelease(Runnable hook) {
+            releaseHooks.add(hook);
+        }
+
+        /**
+         * 注册空闲超时时的通知动作，通常是给下游发送错误信号
+         */
+        public void onIdleTimeout(Runnable hook) {
+            this.idleTimeoutHook = hook;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public long getAppId() {
+            return appId;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        private void cancelUpstream() {
+            StreamingHandle handle = streamingHandle;
+            if (handle == null || !upstreamCancelled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                handle.cancel();
+            } catch (Exception e) {
+                // 模型实现不支持取消时只能等它自然结束，token 会被丢弃
+                log.warn("关闭模型流失败 appId: {}, error: {}", appId, e.getMessage());
+            }
+        }
+
+        private void release() {
+            for (Runnable hook : releaseHooks) {
+                try {
+                    hook.run();
+                } catch (Exception e) {
+                    log.warn("释放生成资源失败 appId: {}, error: {}", appId, e.getMessage());
+                }
+            }
+            releaseHooks.clear();
+        }
+    }
+}
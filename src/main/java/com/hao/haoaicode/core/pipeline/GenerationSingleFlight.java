@@ -0,0 +1,118 @@
+package com.hao.haoaicode.core.pipeline;
+
+import cn.hutool.crypto.SecureUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 相同生成请求的单飞合并
+ *
+ * 用户双击发送、流太慢时重试、开了两个标签页，都会对同一个应用、同一句提示词各跑一次完整生成，
+ * 两次结果还会互相覆盖已生成文件的合并结果和 COS 上传。这里按（appId, 规范化后的提示词）登记进行中的生成：
+ * 1. 第一个请求执行生成，输出流被共享（replay），后到的相同请求作为额外订阅者挂上去，先收到已经输出的内容再接着收后续内容；
+ * 2. 生成结束（完成、出错或所有订阅者都断开）后移除登记，之后的相同请求重新生成；
+ * 3. 所有订阅者都断开后保留一小段宽限期，期间重连的请求仍能接上，超时才取消上游；
+ * 4. 发起方准备生成时出错，同时挂上来的请求收到同一个错误。
+ *
+ * 登记只在本进程内，多节点时依赖按应用的粘性路由。
+ */
+@Slf4j
+@Component
+public class GenerationSingleFlight {
+
+    private final Map<String, Flight> inflight = new ConcurrentHashMap<>();
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 是否合并相同的生成请求
+     */
+    @Value("${code.single-flight.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 所有订阅者断开后，等待重连的宽限期（秒）
+     */
+    @Value("${code.single-flight.grace-seconds:5}")
+    private long graceSeconds;
+
+    private Counter leaderCounter;
+    private Counter joinedCounter;
+
+    @PostConstruct
+    public void init() {
+        leaderCounter = Counter.builder("app.codegen.single_flight")
+                .description("生成请求单飞合并")
+                .tag("result", "leader")
+                .register(meterRegistry);
+        joinedCounter = Counter.builder("app.codegen.single_flight")
+                .description("生成请求单飞合并")
+                .tag("result", "joined")
+                .register(meterRegistry);
+        Gauge.builder("app.codegen.single_flight.inflight", inflight, Map::size)
+                .description("进行中的生成数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 相同 key 有进行中的生成时挂到它的输出上，否则调用 generation 发起生成并登记
+     *
+     * @param key        由 {@link #key(Long, String)} 生成
+     * @param generation 发起生成，在调用线程上同步执行（会设置 ThreadLocal 上下文）
+     */
+    public Flux<String> execute(String key, Supplier<Flux<String>> generation) {
+        if (!enabled) {
+            return generation.get();
+        }
+        Flight flight = new Flight();
+        Flight existing = inflight.putIfAbsent(key, flight);
+        if (existing != null) {
+            joinedCounter.increment();
+            log.info("相同的生成请求正在进行，挂到已有的输出上, key: {}", key);
+            return existing.output.asMono().flatMapMany(shared -> shared);
+        }
+        leaderCounter.increment();
+        Flux<String> shared;
+        try {
+            shared = generation.get()
+                    .doFinally(signalType -> inflight.remove(key, flight))
+                    .replay()
+                    .refCount(1, Duration.ofSeconds(graceSeconds));
+        } catch (RuntimeException e) {
+            inflight.remove(key, flight);
+            flight.output.tryEmitError(e);
+            throw e;
+        }
+        flight.output.tryEmitValue(shared);
+        return shared;
+    }
+
+    /**
+     * 单飞 key：appId + 规范化提示词（去掉首尾空白、连续空白合并为一个空格）的摘要
+     */
+    public static String key(Long appId, String prompt) {
+        String normalized = prompt == null ? "" : prompt.trim().replaceAll("\\s+", " ");
+        return appId + ":" + SecureUtil.sha256(normalized);
+    }
+
+    /**
+     * 一次进行中的生成，输出流准备好之前挂上来的请求等待 output
+     */
+    private static final class Flight {
+        private final Sinks.One<Flux<String>> output = Sinks.one();
+    }
+}
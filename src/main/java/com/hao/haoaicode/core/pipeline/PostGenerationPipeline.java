@@ -0,0 +1,191 @@
+package com.hao.haoaicode.core.pipeline;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 生成后处理流水线
+ * 模型输出结束后的收尾工作（源码落盘/上传、对话历史、版本记录、任务摘要、响应缓存）原先直接跑在模型客户端的回调线程上，
+ * 一次慢的 MySQL/Redis/COS 调用就会拖住回调线程和 SSE 的结束。这里按阶段拆开：
+ * 1. 每个阶段独立的线程池和有界队列，互不抢占；
+ * 2. 队列满时拒绝并记录，调用方按失败处理，不会反过来阻塞回调线程；
+ * 3. 入口处可以通过 isOverloaded 提前拒绝新的生成请求（背压）；
+ * 4. 记录每个阶段的排队时间、执行时间和队列长度。
+ */
+@Slf4j
+@Component
+public class PostGenerationPipeline {
+
+    /**
+     * 流水线阶段
+     */
+    @Getter
+    public enum Stage {
+        // 源码解析结果合并、上传收尾、写入最新版本指针（COS + Redis）
+        PROJECT("project", 8),
+        // 对话历史写入（Redis 缓冲）
+        HISTORY("history", 2),
+        // 版本记录 / 语义缓存（MySQL）
+        VERSION("version", 2),
+        // 任务摘要（Redis + MySQL）
+        SUMMARY("summary", 2),
+        // 生成响应缓存写入（Redis），单独一个阶段，几十 KB 的压缩写入不占用版本记录的线程
+        CACHE("cache", 1);
+
+        private final String value;
+        private final int threads;
+
+        Stage(String value, int threads) {
+            this.value = value;
+            this.threads = threads;
+        }
+    }
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 每个阶段的队列容量
+     */
+    @Value("${code.post-generation.queue-capacity:500}")
+    private int queueCapacity;
+
+    /**
+     * 任一阶段队列占用超过该比例时，入口拒绝新的生成请求
+     */
+    @Value("${code.post-generation.overload-ratio:0.8}")
+    private double overloadRatio;
+
+    private final Map<Stage, ThreadPoolExecutor> executors = new EnumMap<>(Stage.class);
+
+    @PostConstruct
+    public void init() {
+        for (Stage stage : Stage.values()) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    stage.getThreads(),
+                    stage.getThreads(),
+                    60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)),
+                    namedThreadFactory("postgen-" + stage.getValue() + "-"),
+                    new ThreadPoolExecutor.AbortPolicy());
+            executors.put(stage, executor);
+            Gauge.builder("app.postgen.stage.queue_size", executor, e -> e.getQueue().size())
+                    .tag("stage", stage.getValue())
+                    .register(meterRegistry);
+            Gauge.builder("app.postgen.stage.active", executor, ThreadPoolExecutor::getActiveCount)
+                    .tag("stage", stage.getValue())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 在指定阶段异步执行有返回值的任务
+     *
+     * @return 任务结果；执行异常或被拒绝（队列已满）时异常完成
+     */
+    public <T> CompletableFuture<T> supply(Stage stage, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long enqueueNs = System.nanoTime();
+        try {
+            executors.get(stage).execute(() -> {
+                long startNs = System.nanoTime();
+                Timer.builder("app.postgen.stage.queue_wait")
+                        .tag("stage", stage.getValue())
+                        .register(meterRegistry)
+                        .record(startNs - enqueueNs, TimeUnit.NANOSECONDS);
+                String status = "success";
+                try {
+                    future.complete(task.get());
+                } catch (Throwable e) {
+                    status = "error";
+                    log.warn("生成后处理阶段执行失败 stage: {}, error: {}", stage.getValue(), e.getMessage(), e);
+                    future.completeExceptionally(e);
+                } finally {
+                    Timer.builder("app.postgen.stage.duration")
+                            .tag("stage", stage.getValue())
+                            .tag("status", status)
+                            .register(meterRegistry)
+                            .record(System.nanoTime() - startNs, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Counter.builder("app.postgen.stage.rejected")
+                    .tag("stage", stage.getValue())
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("生成后处理队列已满，拒绝任务 stage: {}", stage.getValue());
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 在指定阶段异步执行无返回值的任务
+     */
+    public CompletableFuture<Void> run(Stage stage, Runnable task) {
+        return supply(stage, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 是否已经过载：任一阶段队列占用超过阈值时返回 true，入口应拒绝新的生成请求
+     */
+    public boolean isOverloaded() {
+        int threshold = (int) Math.max(1, queueCapacity * overloadRatio);
+        for (ThreadPoolExecutor executor : executors.values()) {
+            if (executor.getQueue().size() >= threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 先停止接收新任务，再给已排队的历史/摘要写入一点时间完成
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        for (Map.Entry<Stage, ThreadPoolExecutor> entry : executors.entrySet()) {
+            try {
+                if (!entry.getValue().awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("生成后处理阶段未能按时结束 stage: {}, 剩余任务: {}",
+                            entry.getKey().getValue(), entry.getValue().getQueue().size());
+                    entry.getValue().shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entry.getValue().shutdownNow();
+            }
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,347 @@
+package com.hao.haoaicode.manager;
+
+import com.hao.haoaicode.config.CosClientConfig;
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.model.AbortMultipartUploadRequest;
+import com.qcloud.cos.model.COSObject;
+import com.qcloud.cos.model.COSObjectSummary;
+import com.qcloud.cos.model.CompleteMultipartUploadRequest;
+import com.qcloud.cos.model.InitiateMultipartUploadRequest;
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
+import com.qcloud.cos.model.ObjectMetadata;
+import com.qcloud.cos.model.PartETag;
+import com.qcloud.cos.model.PutObjectRequest;
+import com.qcloud.cos.model.UploadPartRequest;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 异步对象存储客户端（COS）
+ *
+ * COS SDK 是阻塞的，原来的目录上传/下载在调用线程上一个对象接一个对象地执行。这里把每个请求放到虚拟线程上：
+ * 1. 所有请求共用一个信号量，进程内同时发往 COS 的请求数有上限，批量操作再多也不会打满连接池；
+ * 2. 方法都返回 CompletableFuture，失败时记录日志并以 false / null 完成（与 CosManager 原有约定一致），不会异常完成；
+ * 3. 超过阈值的对象分片上传，分片并发；
+ * 4. 列举按页回调，调用方可以在拿到第一页时就开始下载，与后续分页并行；
+ * 5. 每个请求记录耗时（app.object_store.latency{op, result}），并暴露进行中和排队中的请求数。
+ *
+ * 对象键统一去掉前导 '/'，与 CosManager 一致。
+ */
+@Slf4j
+@Component
+public class AsyncObjectStore {
+
+    @Resource
+    private COSClient cosClient;
+
+    @Resource
+    private CosClientConfig cosClientConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 同时发往 COS 的最大请求数（进程内共享）
+     */
+    @Value("${code.object-store.max-concurrency:32}")
+    private int maxConcurrency;
+
+    /**
+     * 超过该字节数的对象分片上传
+     */
+    @Value("${code.object-store.multipart-threshold-bytes:16777216}")
+    private long multipartThresholdBytes;
+
+    /**
+     * 分片大小（COS 要求除最后一片外不小于 1MB）
+     */
+    @Value("${code.object-store.part-size-bytes:8388608}")
+    private long partSizeBytes;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(Math.max(1, maxConcurrency));
+        Gauge.builder("app.object_store.inflight", inflight, AtomicInteger::get)
+                .description("进行中的对象存储请求数")
+                .register(meterRegistry);
+        Gauge.builder("app.object_store.waiting", permits, Semaphore::getQueueLength)
+                .description("等待并发额度的对象存储请求数")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 不中断进行中的上传
+        executor.shutdown();
+    }
+
+    /**
+     * 上传文本，按 UTF-8 编码一次，编码结果直接作为请求体
+     */
+    public CompletableFuture<Boolean> putText(String key, String content, String contentType) {
+        return putBytes(key, (content == null ? "" : content).getBytes(StandardCharsets.UTF_8), contentType);
+    }
+
+    /**
+     * 上传字节数组，超过阈值时分片上传（分片直接引用原数组，不复制）
+     */
+    public CompletableFuture<Boolean> putBytes(String key, byte[] bytes, String contentType) {
+        String objectKey = objectKey(key);
+        if (bytes.length > multipartThresholdBytes) {
+            return multipartUpload(objectKey, bytes.length, contentType,
+                    (request, offset, size) -> request.setInputStream(new ByteArrayInputStream(bytes, (int) offset, (int) size)));
+        }
+        return submit("put", objectKey, false, () -> {
+            cosClient.putObject(new PutObjectRequest(cosClientConfig.getBucket(), objectKey,
+                    new ByteArrayInputStream(bytes), metadata(bytes.length, contentType)));
+            return true;
+        });
+    }
+
+    /**
+     * 上传本地文件，超过阈值时分片上传
+     */
+    public CompletableFuture<Boolean> putFile(String key, File file, String contentType) {
+        String objectKey = objectKey(key);
+        long length = file.length();
+        if (length > multipartThresholdBytes) {
+            return multipartUpload(objectKey, length, contentType, (request, offset, size) -> {
+                request.setFile(file);
+                request.setFileOffset(offset);
+            });
+        }
+        return submit("put", objectKey, false, () -> {
+            PutObjectRequest request = new PutObjectRequest(cosClientConfig.getBucket(), objectKey, file);
+            request.setMetadata(metadata(length, contentType));
+            cosClient.putObject(request);
+            return true;
+        });
+    }
+
+    /**
+     * 读取文本对象，失败（包括不存在）时为 null
+     */
+    public CompletableFuture<String> getText(String key) {
+        String objectKey = objectKey(key);
+        return submit("get", objectKey, null, () -> {
+            COSObject cosObject = cosClient.getObject(cosClientConfig.getBucket(), objectKey);
+            try (InputStream in = cosObject.getObjectContent()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        });
+    }
+
+    /**
+     * 下载对象到本地文件（父目录不存在时创建）
+     */
+    public CompletableFuture<Boolean> getToFile(String key, File target) {
+        String objectKey = objectKey(key);
+        return submit("get", objectKey, false, () -> {
+            File parent = target.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+                log.warn("创建本地父目录失败: {}", parent.getAbsolutePath());
+                return false;
+            }
+            COSObject cosObject = cosClient.getObject(cosClientConfig.getBucket(), objectKey);
+            try (InputStream in = cosObject.getObjectContent()) {
+                Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 对象是否存在（HEAD 请求），检查失败时按不存在处理
+     */
+    public CompletableFuture<Boolean> exists(String key) {
+        String objectKey = objectKey(key);
+        return submit("head", objectKey, false, () -> cosClient.doesObjectExist(cosClientConfig.getBucket(), objectKey));
+    }
+
+    public CompletableFuture<Boolean> delete(String key) {
+        String objectKey = objectKey(key);
+        return submit("delete", objectKey, false, () -> {
+            cosClient.deleteObject(cosClientConfig.getBucket(), objectKey);
+            return true;
+        });
+    }
+
+    /**
+     * 分页列举前缀下的对象，每拿到一页就回调 onPage（在列举线程上执行，回调里只应提交异步任务）
+     *
+     * @return 是否完整列举
+     */
+    public CompletableFuture<Boolean> list(String prefix, Consumer<List<COSObjectSummary>> onPage) {
+        String objectPrefix = objectKey(prefix);
+        return CompletableFuture.supplyAsync(() -> {
+            String marker = null;
+            do {
+                ListObjectsRequest request = new ListObjectsRequest();
+                request.setBucketName(cosClientConfig.getBucket());
+                request.setPrefix(objectPrefix);
+                request.setMarker(marker);
+                ObjectListing listing = execute("list", objectPrefix, null, () -> cosClient.listObjects(request));
+                if (listing == null) {
+                    return false;
+                }
+                onPage.accept(listing.getObjectSummaries());
+                marker = listing.isTruncated() ? listing.getNextMarker() : null;
+            } while (marker != null);
+            return true;
+        }, executor);
+    }
+
+    /**
+     * 规范化对象键：统一分隔符，去掉前导 '/'
+     */
+    public static String objectKey(String key) {
+        if (key == null || key.isBlank()) {
+            return "";
+        }
+        String k = key.trim().replace('\\', '/');
+        while (k.startsWith("/")) {
+            k = k.substring(1);
+        }
+        return k;
+    }
+
+    /**
+     * 分片上传：初始化后各分片并发上传（每个分片单独占用并发额度），全部成功才合并，否则放弃本次上传
+     */
+    private CompletableFuture<Boolean> multipartUpload(String objectKey, long length, String contentType, PartSource source) {
+        String bucket = cosClientConfig.getBucket();
+        return submit("multipart_init", objectKey, (String) null, () -> cosClient.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucket, objectKey, metadata(-1, contentType))).getUploadId())
+                .thenCompose(uploadId -> {
+                    if (uploadId == null) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    int partCount = (int) ((length + partSizeBytes - 1) / partSizeBytes);
+                    List<CompletableFuture<PartETag>> parts = new ArrayList<>(partCount);
+                    for (int i = 0; i < partCount; i++) {
+                        int partNumber = i + 1;
+                        long offset = i * partSizeBytes;
+                        long size = Math.min(partSizeBytes, length - offset);
+                        parts.add(submit("multipart_part", objectKey + "#" + partNumber, null, () -> {
+                            UploadPartRequest request = new UploadPartRequest();
+                            request.setBucketName(bucket);
+                            request.setKey(objectKey);
+                            request.setUploadId(uploadId);
+                            request.setPartNumber(partNumber);
+                            request.setPartSize(size);
+                            source.fill(request, offset, size);
+                            return cosClient.uploadPart(request).getPartETag();
+                        }));
+                    }
+                    return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0]))
+                            .thenCompose(ignored -> {
+                                List<PartETag> etags = new ArrayList<>(partCount);
+                                for (CompletableFuture<PartETag> part : parts) {
+                                    PartETag etag = part.join();
+                                    if (etag == null) {
+                                        return CompletableFuture.completedFuture(false);
+                                    }
+                                    etags.add(etag);
+                                }
+                                return submit("multipart_complete", objectKey, false, () -> {
+                                    cosClient.completeMultipartUpload(
+                                            new CompleteMultipartUploadRequest(bucket, objectKey, uploadId, etags));
+                                    return true;
+                                });
+                            })
+                            .thenCompose(ok -> ok
+                                    ? CompletableFuture.completedFuture(true)
+                                    : submit("multipart_abort", objectKey, false, () -> {
+                                        cosClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, objectKey, uploadId));
+                                        return false;
+                                    }));
+                });
+    }
+
+    private <T> CompletableFuture<T> submit(String op, String key, T fallback, Callable<T> call) {
+        return CompletableFuture.supplyAsync(() -> execute(op, key, fallback, call), executor);
+    }
+
+    /**
+     * 在当前（虚拟）线程上执行一次请求：占用一个并发额度，记录耗时，失败时返回 fallback
+     */
+    private <T> T execute(String op, String key, T fallback, Callable<T> call) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallback;
+        }
+        inflight.incrementAndGet();
+        long startNs = System.nanoTime();
+        String result = "success";
+        try {
+            return call.call();
+        } catch (Exception e) {
+            result = "failed";
+            log.warn("对象存储请求失败 op: {}, key: {}, error: {}", op, key, e.getMessage());
+            return fallback;
+        } finally {
+            inflight.decrementAndGet();
+            permits.release();
+            Timer.builder("app.object_store.latency")
+                    .description("单个对象存储请求耗时")
+                    .tag("op", op)
+                    .tag("result", result)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startNs, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private ObjectMetadata metadata(long contentLength, String contentType) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (contentLength >= 0) {
+            metadata.setContentLength(contentLength);
+        }
+        if (contentType != null && !contentType.isBlank()) {
+            metadata.setContentType(contentType);
+        }
+        // 设置内容处置为内联，浏览器会直接显示内容，而不是下载
+        metadata.setContentDisposition("inline");
+        return metadata;
+    }
+
+    /**
+     * 分片的数据来源：把 [offset, offset + size) 这段数据设置到分片请求上
+     */
+    @FunctionalInterface
+    private interface PartSource {
+        void fill(UploadPartRequest request, long offset, long size);
+    }
+}
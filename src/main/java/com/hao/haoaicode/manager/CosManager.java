@@ -1,6 +1,8 @@
 package com.hao.haoaicode.manager;
 
+import cn.hutool.json.JSONUtil;
 import com.hao.haoaicode.config.CosClientConfig;
+import com.hao.haoaicode.model.ProjectManifest;
 import com.hao.haoaicode.monitor.AppMetricsCollector;
 import com.qcloud.cos.COSClient;
 import com.qcloud.cos.model.*;
@@ -12,12 +14,18 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
  * COS对象存储管理器
+ * 同步接口，请求都交给 {@link AsyncObjectStore} 执行；批量上传/下载并发提交后统一等待
  *
  * @author 
  */
@@ -32,6 +40,8 @@ public class CosManager {
     private COSClient cosClient;
     @Resource
     private AppMetricsCollector appMetricsCollector;
+    @Resource
+    private AsyncObjectStore objectStore;
 
     /**
      * 上传对象
@@ -46,24 +56,6 @@ public class CosManager {
         return cosClient.putObject(putObjectRequest);
     }
 
-    public PutObjectResult putObject(String key, File file, String contentType) {
-        String objectKey = normalizeObjectKey(key);
-        com.qcloud.cos.model.ObjectMetadata metadata = createMetadata(file == null ? 0 : file.length(), objectKey, contentType);
-        PutObjectRequest putObjectRequest;
-        if (file == null) {
-            putObjectRequest = new PutObjectRequest(
-                    cosClientConfig.getBucket(),
-                    objectKey,
-                    new java.io.ByteArrayInputStream(new byte[0]),
-                    metadata
-            );
-        } else {
-            putObjectRequest = new PutObjectRequest(cosClientConfig.getBucket(), objectKey, file);
-            putObjectRequest.setMetadata(metadata);
-        }
-        return cosClient.putObject(putObjectRequest);
-    }
-
     /**
      * 上传文件到 COS 并返回访问 URL
      *
@@ -72,28 +64,23 @@ public class CosManager {
      * @return 文件的访问URL，失败返回null
      */
     public String uploadFile(String key, File file) {
-        PutObjectResult result = putObject(key, file);
-        if (result != null) {
+        if (objectStore.putFile(key, file, guessContentType(key)).join()) {
             String url = buildFileUrl(key);
             log.info("文件上传COS成功: {} -> {}", file.getName(), url);
             return url;
         } else {
-            log.error("文件上传COS失败，返回结果为空");
+            log.error("文件上传COS失败: {}", key);
             return null;
         }
     }
 
     public boolean uploadFileWithContentType(String key, File file, String contentType) {
-        String objectKey = normalizeObjectKey(key);
-        try {
-            PutObjectResult result = putObject(objectKey, file, contentType);
-            return result != null;
-        } catch (Exception e) {
-            log.error("上传文件到COS失败: {}, 错误: {}", objectKey, e.getMessage(), e);
-            return false;
-        }
+        return objectStore.putFile(key, file, contentType).join();
     }
 
+    /**
+     * 上传本地目录，目录下的文件并发上传（并发数由 AsyncObjectStore 统一限制）
+     */
     public boolean uploadDirectory(String baseKey, File directory) {
         if (directory == null || !directory.exists() || !directory.isDirectory()) {
             log.warn("上传目录到COS失败：目录不存在或不是目录，baseKey: {}, dir: {}", baseKey, directory == null ? null : directory.getAbsolutePath());
@@ -101,6 +88,7 @@ public class CosManager {
         }
         String normalizedBaseKey = normalizeKey(baseKey);
         Path root = directory.toPath();
+        List<CompletableFuture<Boolean>> uploads = new ArrayList<>();
         try (Stream<Path> stream = Files.walk(root)) {
             for (Path path : (Iterable<Path>) stream::iterator) {
                 if (!Files.isRegularFile(path)) {
@@ -108,17 +96,13 @@ public class CosManager {
                 }
                 Path relPath = root.relativize(path);
                 String relative = relPath.toString().replace('\\', '/');
-                String objectKey = normalizedBaseKey + relative;
-                boolean ok = uploadFileWithContentType(objectKey, path.toFile(), guessContentType(relative));
-                if (!ok) {
-                    return false;
-                }
+                uploads.add(objectStore.putFile(normalizedBaseKey + relative, path.toFile(), guessContentType(relative)));
             }
-            return true;
         } catch (IOException e) {
             log.error("遍历目录失败: {}, error: {}", directory.getAbsolutePath(), e.getMessage(), e);
             return false;
         }
+        return allSucceeded(uploads);
     }
 
 
@@ -131,25 +115,8 @@ public class CosManager {
      * @return 上传成功返回 key，失败返回 null
      */
     public String uploadContent(String key, String content) {
-        try {
-            String objectKey = normalizeObjectKey(key);
-            byte[] bytes = (content == null ? "" : content).getBytes(java.nio.charset.StandardCharsets.UTF_8);
-            com.qcloud.cos.model.ObjectMetadata metadata = createMetadata(bytes.length, objectKey, "application/json; charset=utf-8");
-
-            PutObjectRequest request = new PutObjectRequest(
-                    cosClientConfig.getBucket(),
-                    objectKey,
-                    new java.io.ByteArrayInputStream(bytes),
-                    metadata
-            );
-            cosClient.putObject(request);
-
-            log.info("内容上传COS成功: {}, 大小: {} bytes", objectKey, bytes.length);
-            return objectKey;
-        } catch (Exception e) {
-            log.error("内容上传COS失败: {}", e.getMessage(), e);
-            return null;
-        }
+        String objectKey = normalizeObjectKey(key);
+        return objectStore.putText(objectKey, content, "application/json; charset=utf-8").join() ? objectKey : null;
     }
 
     /**
@@ -160,18 +127,7 @@ public class CosManager {
      * @return 下载的字符串内容，失败返回 null
      */
     public String downloadContent(String key) {
-        try {
-            String objectKey = normalizeObjectKey(key);
-            com.qcloud.cos.model.COSObject cosObject = cosClient.getObject(cosClientConfig.getBucket(), objectKey);
-            try (java.io.InputStream inputStream = cosObject.getObjectContent()) {
-                String content = new String(inputStream.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
-                log.info("内容下载COS成功: {}, 大小: {} bytes", objectKey, content.length());
-                return content;
-            }
-        } catch (Exception e) {
-            log.error("内容下载COS失败: {}, 错误: {}", key, e.getMessage(), e);
-            return null;
-        }
+        return objectStore.getText(key).join();
     }
 
     public String buildFileUrl(String key) {
@@ -221,31 +177,11 @@ public class CosManager {
      * @return
      */
     public boolean uploadTextFile(String key, String content, String contentType) {
-        // 准备对象Key（路径）
-        String objectKey = normalizeObjectKey(key);
-        try {
-            // 准备要上传的数据，转成字节流
-            byte[] bytes = content == null ? new byte[0] : content.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-            // 准备元数据，设置内容类型和大小，这些信息会影响浏览器 / 客户端怎么处理这个对象。
-            String finalContentType = (contentType == null || contentType.isBlank()) ? "application/octet-stream" : contentType;
-            // 创建好元数据
-            ObjectMetadata metadata = createMetadata(bytes.length, objectKey, finalContentType);
-            // 准备上传请求，指定桶、对象键、数据输入流和元数据
-            PutObjectRequest request = new PutObjectRequest(
-                    cosClientConfig.getBucket(),
-                    objectKey,
-                    new java.io.ByteArrayInputStream(bytes),
-                    metadata
-            );
-            cosClient.putObject(request);
-            return true;
-        } catch (Exception e) {
-            log.error("上传文本文件到COS失败: {}, 错误: {}", objectKey, e.getMessage(), e);
-            return false;
-        }
+        String finalContentType = (contentType == null || contentType.isBlank()) ? "application/octet-stream" : contentType;
+        return objectStore.putText(key, content, finalContentType).join();
     }
     /**
-     * 上传多个文本文件到 COS
+     * 上传多个文本文件到 COS，所有文件并发上传
      * @param baseKey 基础键（目录路径）
      * @param relativePathToContent 相对路径到内容的映射
      * @return 是否所有文件上传成功
@@ -259,20 +195,17 @@ public class CosManager {
         }
         // 对 baseKey 进行标准化处理，确保以 '/' 结尾且不包含开头的 '/'，例如deploy/vue/dist/
         String normalizedBaseKey = normalizeKey(baseKey);
-
+        List<CompletableFuture<Boolean>> uploads = new ArrayList<>(relativePathToContent.size());
         for (java.util.Map.Entry<String, String> entry : relativePathToContent.entrySet()) {
             // 对相对路径进行标准化处理，确保不以 '/' 开头，例如index.html
-            String relativePath = normalizeRelativePath(entry.getKey());
-            if (relativePath == null) {
+            String normalizedPath = normalizeRelativePath(entry.getKey());
+            if (normalizedPath == null) {
                 continue;
             }
-            // 拼接完整的对象键（COS 存储路径，示例：source-code/1694582400000（appid）/deploy/vue/dist/index.html）
-            String objectKey = normalizedBaseKey + relativePath;
-            // 上传单文件到 COS
-            boolean ok = uploadTextFile(objectKey, entry.getValue(), guessContentType(relativePath));
-            if (!ok) {
-                return false;
-            }
+            uploads.add(objectStore.putText(normalizedBaseKey + normalizedPath, entry.getValue(), guessContentType(normalizedPath)));
+        }
+        if (!allSucceeded(uploads)) {
+            return false;
         }
         long endTime = System.currentTimeMillis();
         // 进行监控指标收集
@@ -280,81 +213,125 @@ public class CosManager {
         return true;
     }
 
+    /**
+     * 上传单个文本文件到 baseKey 目录下，内容类型按扩展名推断
+     * @param baseKey 基础键（目录路径）
+     * @param relativePath 相对路径，例如 src/App.vue
+     * @param content 文件内容
+     * @return 是否上传成功
+     */
+    public boolean uploadRelativeTextFile(String baseKey, String relativePath, String content) {
+        String normalizedPath = normalizeRelativePath(relativePath);
+        if (normalizedPath == null) {
+            return false;
+        }
+        // 拼接完整的对象键（COS 存储路径，示例：source-code/1694582400000（appid）/deploy/vue/dist/index.html）
+        String objectKey = normalizeKey(baseKey) + normalizedPath;
+        return uploadTextFile(objectKey, content, guessContentType(normalizedPath));
+    }
+
+    /**
+     * 删除单个对象
+     * @param key 对象键
+     * @return 是否删除成功
+     */
+    public boolean deleteObject(String key) {
+        return objectStore.delete(key).join();
+    }
+
+    /**
+     * 对象是否存在（HEAD 请求，不下载内容）
+     */
+    public boolean objectExists(String key) {
+        return objectStore.exists(key).join();
+    }
+
+    /**
+     * 解析源码版本的文件：相对路径 -> 对象键
+     * 内容寻址的版本按清单指向内容对象；没有清单或清单没有内容寻址信息的旧版本列举版本目录
+     *
+     * @param baseKey 版本目录，例如 /source-code/123/1700000000000/
+     * @return 解析失败返回 null
+     */
+    public Map<String, String> resolveSourceObjects(String baseKey) {
+        Map<String, String> objects = new LinkedHashMap<>();
+        return resolveSourceObjects(baseKey, objects::putAll) ? objects : null;
+    }
+
+    /**
+     * 把源码版本下载到本地目录（按 {@link #resolveSourceObjects(String)} 解析文件）
+     * 文件并发下载；旧的目录存储边列举边下载，每拿到一页就开始下载这一页的对象
+     */
     public boolean downloadDirectory(String baseKey, File localDirectory) {
         if (localDirectory == null) {
             log.warn("下载目录到本地失败：localDirectory 为 null, baseKey: {}", baseKey);
             return false;
         }
-        String normalizedBaseKey = normalizeKey(baseKey);
         if (!localDirectory.exists() && !localDirectory.mkdirs()) {
             log.warn("创建本地目录失败: {}", localDirectory.getAbsolutePath());
             return false;
         }
-        try {
-            String maker = null;
-            do {
-                ListObjectsRequest request = new ListObjectsRequest();
-                request.setBucketName(cosClientConfig.getBucket());
-                request.setPrefix(normalizedBaseKey);
-                request.setMarker(maker);
-                ObjectListing listing = cosClient.listObjects(request);
-                List<COSObjectSummary> summaries = listing.getObjectSummaries();
-                for (COSObjectSummary summary : summaries) {
-                    String key = summary.getKey();
-                    if (!key.startsWith(normalizedBaseKey)) {
-                        continue;
-                    }
-                    String relativePath = key.substring(normalizedBaseKey.length());
-                    if (relativePath.isEmpty()) {
-                        continue;
-                    }
-                    File target = new File(localDirectory, relativePath);
-                    File parent = target.getParentFile();
-                    if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                        log.warn("创建本地父目录失败: {}", parent.getAbsolutePath());
-                        return false;
-                    }
-                    COSObject cosObject = cosClient.getObject(cosClientConfig.getBucket(), key);
-                    try (java.io.InputStream in = cosObject.getObjectContent()) {
-                        Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    }
-                }
-                maker = listing.isTruncated() ? listing.getNextMarker() : null;
-            } while (maker != null);
-            return true;
-        } catch (Exception e) {
-            log.error("从COS下载目录失败: baseKey: {}, error: {}", baseKey, e.getMessage(), e);
+        // 列举回调在列举线程上执行，需要线程安全的集合
+        List<CompletableFuture<Boolean>> downloads = new CopyOnWriteArrayList<>();
+        boolean resolved = resolveSourceObjects(baseKey, page -> page.forEach((relativePath, objectKey) ->
+                downloads.add(objectStore.getToFile(objectKey, new File(localDirectory, relativePath)))));
+        boolean downloaded = allSucceeded(downloads);
+        if (!resolved || !downloaded) {
+            log.error("从COS下载目录失败: baseKey: {}", baseKey);
             return false;
         }
+        return true;
     }
-    
-    private String normalizeObjectKey(String key) {
-        if (key == null || key.isBlank()) {
-            return "";
-        }
-        String k = key.trim().replace('\\', '/');
-        while (k.startsWith("/")) {
-            k = k.substring(1);
-        }
-        return k;
-    }
+
     /**
-     * 创建 COS 对象元数据
-     * @param contentLength 内容长度
-     * @param key 对象键（路径）
-     * @param contentType 内容类型
-     * @return 对象元数据
+     * 解析源码版本的文件，按批回调（相对路径 -> 对象键），旧的目录存储每列举一页回调一次
+     *
+     * @return 是否完整解析
      */
-    private ObjectMetadata createMetadata(long contentLength, String key, String contentType) {
-        ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentLength(Math.max(0, contentLength));
+    private boolean resolveSourceObjects(String baseKey, Consumer<Map<String, String>> onBatch) {
+        String manifestKey = ProjectManifest.manifestKey(baseKey);
+        if (objectStore.exists(manifestKey).join()) {
+            String manifestJson = objectStore.getText(manifestKey).join();
+            if (manifestJson == null) {
+                return false;
+            }
+            Map<String, String> blobKeys = JSONUtil.toBean(manifestJson, ProjectManifest.class).resolveBlobKeys();
+            if (blobKeys != null) {
+                Map<String, String> objects = new LinkedHashMap<>();
+                blobKeys.forEach((path, key) -> objects.put(path, normalizeObjectKey(key)));
+                onBatch.accept(objects);
+                return true;
+            }
+        }
+        String normalizedBaseKey = normalizeKey(baseKey);
+        return objectStore.list(normalizedBaseKey, summaries -> {
+            Map<String, String> objects = new LinkedHashMap<>();
+            for (COSObjectSummary summary : summaries) {
+                String key = summary.getKey();
+                if (!key.startsWith(normalizedBaseKey)) {
+                    continue;
+                }
+                String relativePath = key.substring(normalizedBaseKey.length());
+                if (!relativePath.isEmpty()) {
+                    objects.put(relativePath, key);
+                }
+            }
+            onBatch.accept(objects);
+        }).join();
+    }
 
-        if (contentType != null && !contentType.isBlank()) {
-            metadata.setContentType(contentType);
+    private boolean allSucceeded(List<CompletableFuture<Boolean>> futures) {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        for (CompletableFuture<Boolean> future : futures) {
+            if (!Boolean.TRUE.equals(future.join())) {
+                return false;
+            }
         }
-        // 设置内容处置为内联，浏览器会直接显示内容，而不是下载
-        metadata.setContentDisposition("inline");
-        return metadata;
+        return true;
+    }
+    
+    private String normalizeObjectKey(String key) {
+        return AsyncObjectStore.objectKey(key);
     }
     // 标准化 COS 存储路径：/xxx/
     private String normalizeKey(String key) {
@@ -0,0 +1,184 @@
+package com.hao.haoaicode.model;
+
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 项目清单：一个源码版本的文件列表（路径、大小、内容摘要）、路由和依赖
+ * 与版本目录同级存在 COS（{baseKey}.manifest.json），最新版本的清单同时存在 Redis，
+ * 拼装项目规格提示词时只需要读这一份，不用下载整个源码目录
+ *
+ * 源码按内容寻址存储：文件内容存为 {blobPrefix}{sha256 前两位}/{sha256}，版本本身只是这份清单，
+ * 版本目录（baseKey）下不再有对象。blobPrefix 为空的是旧版本，文件仍在版本目录下
+ */
+@Data
+public class ProjectManifest {
+
+    private static final Pattern ROUTE_PATH = Pattern.compile("path\\s*:\\s*['\"`]([^'\"`]+)['\"`]");
+
+    // 版本目录（版本标识，内容寻址的版本下没有对象）
+    private String baseKey;
+    // 内容寻址存储的前缀，例如 /source-code/blobs/；为空表示旧的目录存储
+    private String blobPrefix;
+    private int fileCount;
+    private long createTime;
+    private List<FileEntry> files = new ArrayList<>();
+    // 路由配置文件，例如 src/router/index.ts
+    private String routerFile;
+    // 路由配置中声明的路由路径
+    private List<String> routes = new ArrayList<>();
+    // package.json 的 dependencies + devDependencies（name -> version）
+    private Map<String, String> dependencies = new LinkedHashMap<>();
+
+    @Data
+    public static class FileEntry {
+        private String path;
+        private long size;
+        private String sha256;
+    }
+
+    /**
+     * 由源码文件（filePath -> fileContent）生成清单
+     */
+    public static ProjectManifest from(String baseKey, Map<String, String> files) {
+        ProjectManifest manifest = new ProjectManifest();
+        manifest.setBaseKey(baseKey);
+        manifest.setCreateTime(System.currentTimeMillis());
+        if (files == null) {
+            return manifest;
+        }
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            String content = entry.getValue() == null ? "" : entry.getValue();
+            FileEntry item = new FileEntry();
+            item.setPath(entry.getKey());
+            item.setSize(content.getBytes(StandardCharsets.UTF_8).length);
+            item.setSha256(SecureUtil.sha256(content));
+            manifest.files.add(item);
+        }
+        manifest.setFileCount(manifest.files.size());
+        manifest.setRouterFile(findRouterFile(files.keySet()));
+        if (manifest.routerFile != null) {
+            manifest.setRoutes(parseRoutes(files.get(manifest.routerFile)));
+        }
+        manifest.setDependencies(parseDependencies(files.get("package.json")));
+        return manifest;
+    }
+
+    /**
+     * 清单文件的对象键：与版本目录同级（{baseKey}.manifest.json），不混进源码目录
+     */
+    public static String manifestKey(String baseKey) {
+        String dir = baseKey.replace('\\', '/');
+        if (!dir.startsWith("/")) {
+            dir = "/" + dir;
+        }
+        while (dir.endsWith("/")) {
+            dir = dir.substring(0, dir.length() - 1);
+        }
+        return dir + ".manifest.json";
+    }
+
+    /**
+     * 内容对象的对象键，按摘要前两位分散到不同前缀下
+     */
+    public static String blobKey(String blobPrefix, String sha256) {
+        return blobPrefix + sha256.substring(0, 2) + "/" + sha256;
+    }
+
+    /**
+     * 每个文件在 COS 上的对象键（filePath -> objectKey），旧的目录存储返回 null
+     */
+    public Map<String, String> resolveBlobKeys() {
+        if (blobPrefix == null || blobPrefix.isBlank()) {
+            return null;
+        }
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (FileEntry file : files) {
+            keys.put(file.getPath(), blobKey(blobPrefix, file.getSha256()));
+        }
+        return keys;
+    }
+
+    /**
+     * 视图组件文件（src/views/*.vue）
+     */
+    public List<String> listViewFiles() {
+        List<String> viewFiles = new ArrayList<>();
+        for (FileEntry file : files) {
+            String path = file.getPath();
+            if (path != null && path.startsWith("src/views/") && path.endsWith(".vue")) {
+                viewFiles.add(path);
+            }
+        }
+        return viewFiles;
+    }
+
+    /**
+     * 兼容只有路径和大小的旧版本清单：没有记录路由文件时按文件列表推断
+     */
+    public String resolveRouterFile() {
+        if (routerFile != null) {
+            return routerFile;
+        }
+        List<String> paths = new ArrayList<>(files.size());
+        for (FileEntry file : files) {
+            paths.add(file.getPath());
+        }
+        return findRouterFile(paths);
+    }
+
+    public boolean hasData() {
+        return !files.isEmpty();
+    }
+
+    private static String findRouterFile(Iterable<String> paths) {
+        for (String path : paths) {
+            if ("src/router/index.ts".equals(path) || "src/router/index.js".equals(path)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> parseRoutes(String routerSource) {
+        Set<String> routes = new LinkedHashSet<>();
+        if (routerSource != null) {
+            Matcher matcher = ROUTE_PATH.matcher(routerSource);
+            while (matcher.find()) {
+                routes.add(matcher.group(1));
+            }
+        }
+        return new ArrayList<>(routes);
+    }
+
+    private static Map<String, String> parseDependencies(String packageJson) {
+        Map<String, String> dependencies = new LinkedHashMap<>();
+        if (packageJson == null || !JSONUtil.isTypeJSONObject(packageJson.trim())) {
+            return dependencies;
+        }
+        try {
+            JSONObject json = JSONUtil.parseObj(packageJson);
+            for (String section : List.of("dependencies", "devDependencies")) {
+                JSONObject deps = json.getJSONObject(section);
+                if (deps != null) {
+                    deps.forEach((name, version) -> dependencies.put(name, String.valueOf(version)));
+                }
+            }
+        } catch (Exception ignored) {
+            // 模型生成的 package.json 不合法时只是缺少依赖信息
+        }
+        return dependencies;
+    }
+}
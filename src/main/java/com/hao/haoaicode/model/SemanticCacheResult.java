@@ -6,8 +6,16 @@ import lombok.Data;
 public class SemanticCacheResult {
     // 是否命中
     private boolean hit;
-    // 相似度分数
-    private long score;
+    // 相似度分数（余弦相似度，0-1）
+    private double score;
     // 代码位置
     private String codeLocation;
+    // 命中的版本记录 ID
+    private Long versionId;
+    // 命中的版本所属应用
+    private Long sourceAppId;
+
+    public static SemanticCacheResult miss() {
+        return new SemanticCacheResult();
+    }
 }
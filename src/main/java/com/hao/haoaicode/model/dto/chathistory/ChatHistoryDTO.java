@@ -22,6 +22,11 @@ public class ChatHistoryDTO implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
+    /**
+     * 消息ID（入队时生成，与落库后的主键一致，用于游标分页和重复投递去重）
+     */
+    private Long id;
+
     /**
      * 应用ID
      */
@@ -42,5 +42,11 @@ public class ChatHistoryQueryRequest extends PageRequest implements Serializable
      */
     private LocalDateTime lastCreateTime;
 
+    /**
+     * 游标查询 - 最后一条记录的ID
+     * 与 lastCreateTime 组成 (createTime, id) 键集游标，同一秒内的多条记录也能稳定翻页
+     */
+    private Long lastId;
+
     private static final long serialVersionUID = 1L;
 }
@@ -1,5 +1,6 @@
 package com.hao.haoaicode.model.entity;
 
+import com.hao.haoaicode.codec.CompressedStringTypeHandler;
 import com.mybatisflex.annotation.Column;
 import com.mybatisflex.annotation.Id;
 import com.mybatisflex.annotation.KeyType;
@@ -36,8 +37,9 @@ public class ChatHistory implements Serializable {
     private Long id;
 
     /**
-     * 消息
+     * 消息（超过阈值时压缩存储，读取时自动解压）
      */
+    @Column(typeHandler = CompressedStringTypeHandler.class)
     private String message;
 
     /**
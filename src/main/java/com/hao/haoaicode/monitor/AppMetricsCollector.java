@@ -74,6 +74,36 @@ public class AppMetricsCollector {
                 .record(Math.max(batchSize, 0));
     }
 
+    /**
+     * 记录一次聊天历史批量写入的行数、字节数和耗时
+     * 行数/字节数用计数器累计（按时间求 rate 即为每秒行数/字节数），同时记录单批的吞吐
+     */
+    public void recordHistoricalBatch(String status, int rows, long bytes, long durationMs) {
+        recordHistoricalBatch(status, rows);
+        String s = status != null ? status : "unknown";
+        Counter.builder("app.historical.rows")
+                .tag("status", s)
+                .register(meterRegistry)
+                .increment(Math.max(rows, 0));
+        Counter.builder("app.historical.bytes")
+                .tag("status", s)
+                .register(meterRegistry)
+                .increment(Math.max(bytes, 0));
+        Timer.builder("app.historical.batch.duration")
+                .tag("status", s)
+                .register(meterRegistry)
+                .record(Math.max(durationMs, 0), TimeUnit.MILLISECONDS);
+        if (durationMs > 0) {
+            DistributionSummary.builder("app.historical.batch.rows_per_second")
+                    .register(meterRegistry)
+                    .record(rows * 1000.0 / durationMs);
+            DistributionSummary.builder("app.historical.batch.bytes_per_second")
+                    .baseUnit("bytes")
+                    .register(meterRegistry)
+                    .record(bytes * 1000.0 / durationMs);
+        }
+    }
+
     public void recordCodeGenerationPayload(int generatedFileCount, long generatedChars, int mergedFileCount, long mergedChars) {
         DistributionSummary.builder("app.codegen.generated.files")
                 .register(meterRegistry)
@@ -93,4 +123,35 @@ public class AppMetricsCollector {
                 .register(meterRegistry)
                 .record(Math.max(mergedChars, 0));
     }
+
+    /**
+     * 记录流式生成被主动终止（客户端断开、空闲超时）的次数、已输出和估算节省的 token 数。
+     * @param codeGenType 代码生成类型
+     * @param reason 终止原因，例如：client_cancel、idle_timeout
+     * @param emittedTokens 终止前已输出的 token 数
+     * @param savedTokens 估算节省的 token 数（按该类型已完成生成的平均输出估算）
+     */
+    public void recordStreamTermination(String codeGenType, String reason, long emittedTokens, long savedTokens) {
+        String type = codeGenType != null ? codeGenType : "unknown";
+        String r = reason != null ? reason : "unknown";
+        Counter.builder("app.codegen.stream.terminated")
+                .tag("codeGenType", type)
+                .tag("reason", r)
+                .register(meterRegistry)
+                .increment();
+
+        DistributionSummary.builder("app.codegen.stream.emitted_tokens")
+                .baseUnit("tokens")
+                .tag("codeGenType", type)
+                .tag("reason", r)
+                .register(meterRegistry)
+                .record(Math.max(emittedTokens, 0));
+
+        DistributionSummary.builder("app.codegen.stream.saved_tokens")
+                .baseUnit("tokens")
+                .tag("codeGenType", type)
+                .tag("reason", r)
+                .register(meterRegistry)
+                .record(Math.max(savedTokens, 0));
+    }
 }
@@ -0,0 +1,217 @@
+package com.hao.haoaicode.parser;
+
+import com.hao.haoaicode.ai.model.HtmlCodeResult;
+import com.hao.haoaicode.ai.model.MultiFileCodeResult;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Markdown 代码块增量解析器（```html / ```css / ```js）
+ *
+ * 替代原先每种语言一条正则、每次全量扫描的解析方式：
+ * 1. feed 只扫描本次新增的字符，跨 chunk 维护 “正文 / 围栏信息行 / 代码块内部” 三种状态；
+ * 2. 围栏 ``` 被 chunk 切断时保留最后两个字符，下次重新匹配；
+ * 3. 代码块闭合时立即回调 blockListener，调用方可以边生成边落盘。
+ *
+ * 解析语义与原正则保持一致：每种语言取第一个代码块，内容去掉首尾空白；
+ * 未闭合的代码块不计入结果；HTML 模式下没有 html 代码块时整段内容作为 HTML。
+ * 非线程安全，每个流创建一个实例。
+ */
+public class CodeFenceStreamParser {
+
+    public static final String LANG_HTML = "html";
+    public static final String LANG_CSS = "css";
+    public static final String LANG_JS = "js";
+
+    private static final String FENCE = "```";
+
+    private enum State {
+        // 代码块之外
+        TEXT,
+        // 已读到开头的 ```，等待信息行（语言）结束
+        FENCE_INFO,
+        // 代码块内部，等待结束的 ```
+        IN_BLOCK
+    }
+
+    // 原始响应，唯一的一份缓冲
+    private final StringBuilder raw;
+
+    private State state = State.TEXT;
+    // 下一个待扫描字符的下标
+    private int scanPos = 0;
+    // 信息行起点（紧随开头的 ``` 之后）
+    private int infoStart = -1;
+    // 当前代码块的语言，不关心的语言为 null
+    private String currentLanguage;
+    // 当前代码块内容起点
+    private int contentStart = -1;
+
+    // 语言 -> 该语言第一个代码块的内容（已去掉首尾空白）
+    private final Map<String, String> blocks = new LinkedHashMap<>();
+    // 代码块闭合回调（语言, 内容），每种语言只回调第一个非空代码块
+    private BiConsumer<String, String> blockListener;
+
+    public CodeFenceStreamParser() {
+        this(1024);
+    }
+
+    public CodeFenceStreamParser(int initialCapacity) {
+        this.raw = new StringBuilder(Math.max(initialCapacity, 16));
+    }
+
+    /**
+     * 设置代码块闭合回调，在结束的 ``` 到达后立即调用（调用方线程）
+     *
+     * @param blockListener (语言：html / css / js, 代码内容)
+     */
+    public void setBlockListener(BiConsumer<String, String> blockListener) {
+        this.blockListener = blockListener;
+    }
+
+    /**
+     * 追加一个 chunk
+     */
+    public void feed(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        raw.append(chunk);
+        scan();
+    }
+
+    /**
+     * 流结束时调用，未闭合的代码块直接丢弃
+     */
+    public void finish() {
+        scan();
+        state = State.TEXT;
+        scanPos = raw.length();
+    }
+
+    /**
+     * 指定语言的第一个代码块内容，没有或者内容为空时返回 null
+     */
+    public String getBlock(String language) {
+        String content = blocks.get(language);
+        return content == null || content.isEmpty() ? null : content;
+    }
+
+    /**
+     * 完整的原始响应（用于写入对话历史）
+     */
+    public String getRawText() {
+        return raw.toString();
+    }
+
+    /**
+     * 按 HTML 单文件模式组装结果，没有 html 代码块时整段内容作为 HTML
+     */
+    public HtmlCodeResult toHtmlCodeResult() {
+        HtmlCodeResult result = new HtmlCodeResult();
+        String htmlCode = getBlock(LANG_HTML);
+        result.setHtmlCode(htmlCode != null ? htmlCode : raw.toString().trim());
+        return result;
+    }
+
+    /**
+     * 按多文件模式组装结果（HTML + CSS + JS）
+     */
+    public MultiFileCodeResult toMultiFileCodeResult() {
+        MultiFileCodeResult result = new MultiFileCodeResult();
+        result.setHtmlCode(getBlock(LANG_HTML));
+        result.setCssCode(getBlock(LANG_CSS));
+        result.setJsCode(getBlock(LANG_JS));
+        return result;
+    }
+
+    /**
+     * 一次性解析完整文本（HTML 单文件）
+     */
+    public static HtmlCodeResult parseHtml(String text) {
+        return parseAll(text).toHtmlCodeResult();
+    }
+
+    /**
+     * 一次性解析完整文本（多文件）
+     */
+    public static MultiFileCodeResult parseMultiFile(String text) {
+        return parseAll(text).toMultiFileCodeResult();
+    }
+
+    private static CodeFenceStreamParser parseAll(String text) {
+        String content = text == null ? "" : text;
+        CodeFenceStreamParser parser = new CodeFenceStreamParser(content.length());
+        parser.feed(content);
+        parser.finish();
+        return parser;
+    }
+
+    private void scan() {
+        int len = raw.length();
+        while (scanPos < len) {
+            switch (state) {
+                case TEXT -> {
+                    int fence = raw.indexOf(FENCE, scanPos);
+                    if (fence < 0) {
+                        // ``` 可能被切断，留出两个字符下次重新匹配
+                        scanPos = Math.max(scanPos, len - (FENCE.length() - 1));
+                        return;
+                    }
+                    infoStart = fence + FENCE.length();
+                    scanPos = infoStart;
+                    state = State.FENCE_INFO;
+                }
+                case FENCE_INFO -> {
+                    int lineEnd = raw.indexOf("\n", scanPos);
+                    if (lineEnd < 0) {
+                        scanPos = len;
+                        return;
+                    }
+                    currentLanguage = normalizeLanguage(raw.substring(infoStart, lineEnd));
+                    contentStart = lineEnd + 1;
+                    scanPos = contentStart;
+                    state = State.IN_BLOCK;
+                }
+                case IN_BLOCK -> {
+                    int fence = raw.indexOf(FENCE, scanPos);
+                    if (fence < 0) {
+                        scanPos = Math.max(scanPos, len - (FENCE.length() - 1));
+                        return;
+                    }
+                    onBlockClosed(contentStart, fence);
+                    scanPos = fence + FENCE.length();
+                    state = State.TEXT;
+                }
+            }
+        }
+    }
+
+    private void onBlockClosed(int start, int end) {
+        String language = currentLanguage;
+        currentLanguage = null;
+        contentStart = -1;
+        // 不关心的语言，或者该语言已经有代码块（只取第一个）
+        if (language == null || blocks.containsKey(language)) {
+            return;
+        }
+        String content = raw.substring(start, end).trim();
+        blocks.put(language, content);
+        if (blockListener != null && !content.isEmpty()) {
+            blockListener.accept(language, content);
+        }
+    }
+
+    private static String normalizeLanguage(String info) {
+        String lang = info.trim().toLowerCase(Locale.ROOT);
+        return switch (lang) {
+            case "html" -> LANG_HTML;
+            case "css" -> LANG_CSS;
+            case "js", "javascript" -> LANG_JS;
+            default -> null;
+        };
+    }
+}
@@ -6,16 +6,12 @@ import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
 
 /**
  * 代码解析执行器
- * 根据代码生成类型执行相应的解析逻辑
+ * 根据代码生成类型执行相应的解析逻辑，HTML 与多文件共用同一个代码块解析器
  *
  * @author yupi
  */
 public class CodeParserExecutor {
 
-    private static final HtmlCodeParser htmlCodeParser = new HtmlCodeParser();
-
-    private static final MultiFileCodeParser multiFileCodeParser = new MultiFileCodeParser();
-
     /**
      * 执行代码解析
      *
@@ -25,8 +21,23 @@ public class CodeParserExecutor {
      */
     public static Object executeParser(String codeContent, CodeGenTypeEnum codeGenType) {
         return switch (codeGenType) {
-            case HTML -> htmlCodeParser.parseCode(codeContent);
-            case MULTI_FILE -> multiFileCodeParser.parseCode(codeContent);
+            case HTML -> CodeFenceStreamParser.parseHtml(codeContent);
+            case MULTI_FILE -> CodeFenceStreamParser.parseMultiFile(codeContent);
+            default -> throw new BusinessException(ErrorCode.SYSTEM_ERROR, "不支持的代码生成类型: " + codeGenType);
+        };
+    }
+
+    /**
+     * 从已经增量解析完成的解析器组装结果，无需再扫描一遍完整响应
+     *
+     * @param parser      流式解析器（已调用 finish）
+     * @param codeGenType 代码生成类型
+     * @return 解析结果（HtmlCodeResult 或 MultiFileCodeResult）
+     */
+    public static Object executeParser(CodeFenceStreamParser parser, CodeGenTypeEnum codeGenType) {
+        return switch (codeGenType) {
+            case HTML -> parser.toHtmlCodeResult();
+            case MULTI_FILE -> parser.toMultiFileCodeResult();
             default -> throw new BusinessException(ErrorCode.SYSTEM_ERROR, "不支持的代码生成类型: " + codeGenType);
         };
     }
@@ -0,0 +1,298 @@
+package com.hao.haoaicode.parser;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 多文件协议增量解析器（<<<FILE:path>>> / <<<END_FILE>>> / <<<DONE>>>）
+ *
+ * 单遍扫描，跨 chunk 保持状态：
+ * 1. feed 只扫描本次新增的字符，立即返回去掉协议标记后的展示增量；
+ * 2. 标记被 chunk 切断时（如 "<<<END_" + "FILE>>>"），无法判定的前缀先暂存，下一个 chunk 到达后再判断；
+ * 3. 整个流只保留一份原始文本缓冲，文件内容在 END_FILE 到达时按下标一次性截取；
+ * 4. 每个文件块完成时可以回调 fileListener，让上传等 IO 与模型生成重叠进行。
+ *
+ * 解析语义与原先的全量解析保持一致：最后一个 DONE 之后的文件块不计入结果。
+ * 非线程安全，每个流创建一个实例。
+ */
+public class MultiFileStreamParser {
+
+    public static final String FILE_MARKER_PREFIX = "<<<FILE:";
+    public static final String FILE_MARKER_SUFFIX = ">>>";
+    public static final String END_FILE_MARKER = "<<<END_FILE>>>";
+    public static final String DONE_MARKER = "<<<DONE>>>";
+
+    private static final String[] MARKERS = {FILE_MARKER_PREFIX, END_FILE_MARKER, DONE_MARKER};
+
+    private enum State {
+        // 普通文本（文件块内容也属于普通文本，照常展示）
+        TEXT,
+        // 已读到 <<<FILE:，等待 >>>
+        FILE_HEADER
+    }
+
+    // 原始响应，唯一的一份缓冲
+    private final StringBuilder raw;
+    // 每次 feed 复用的展示增量缓冲
+    private final StringBuilder delta = new StringBuilder();
+
+    private State state = State.TEXT;
+    // 下一个待扫描字符的下标
+    private int scanPos = 0;
+    // 当前 <<<FILE: 标记的起点
+    private int headerStart = -1;
+
+    // 是否处于文件块内部
+    private boolean inFile;
+    // 当前文件块的相对路径（非法路径为 null，内容仍会被消费但不计入结果）
+    private String currentPath;
+    // 当前文件块内容起点（紧随 >>> 之后，换行在截取时再跳过）
+    private int contentStart = -1;
+
+    private boolean doneSeen;
+    // 最后一个 DONE 之前完成的文件
+    private final Map<String, String> committedFiles = new LinkedHashMap<>();
+    // 最后一个 DONE 之后（或尚未出现 DONE 时）完成的文件
+    private final Map<String, String> pendingFiles = new LinkedHashMap<>();
+    // 文件块完成回调（path, content）
+    private BiConsumer<String, String> fileListener;
+
+    public MultiFileStreamParser() {
+        this(1024);
+    }
+
+    public MultiFileStreamParser(int initialCapacity) {
+        this.raw = new StringBuilder(Math.max(initialCapacity, 16));
+    }
+
+    /**
+     * 设置文件块完成回调，在 END_FILE 到达、文件内容截取完成后立即调用（调用方线程）
+     *
+     * @param fileListener (归一化后的相对路径, 文件内容)
+     */
+    public void setFileListener(BiConsumer<String, String> fileListener) {
+        this.fileListener = fileListener;
+    }
+
+    /**
+     * 追加一个 chunk
+     *
+     * @param chunk 模型输出片段
+     * @return 可以立即展示给前端的增量（已去掉协议标记），可能为空串
+     */
+    public String feed(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return "";
+        }
+        raw.append(chunk);
+        delta.setLength(0);
+        scan(false);
+        return delta.toString();
+    }
+
+    /**
+     * 流结束时调用，把暂存的、最终没有构成标记的文本吐出来
+     *
+     * @return 剩余的展示增量，可能为空串
+     */
+    public String finish() {
+        delta.setLength(0);
+        scan(true);
+        return delta.toString();
+    }
+
+    /**
+     * 已解析出的文件（filePath -> fileContent），按出现顺序排列
+     */
+    public Map<String, String> getFiles() {
+        return Collections.unmodifiableMap(doneSeen ? committedFiles : pendingFiles);
+    }
+
+    /**
+     * 完整的原始响应（用于写入对话历史）
+     */
+    public String getRawText() {
+        return raw.toString();
+    }
+
+    public int length() {
+        return raw.length();
+    }
+
+    public boolean isDone() {
+        return doneSeen;
+    }
+
+    /**
+     * 一次性解析完整文本
+     */
+    public static Map<String, String> parse(String text) {
+        if (text == null || text.isBlank()) {
+            return Collections.emptyMap();
+        }
+        MultiFileStreamParser parser = new MultiFileStreamParser(text.length());
+        parser.feed(text);
+        parser.finish();
+        return parser.getFiles();
+    }
+
+    /**
+     * 归一化相对路径，去掉前导 '/' 并检查是否合法
+     *
+     * @return 合法的相对路径，非法时返回 null
+     */
+    public static String normalizeRelativePath(String relativePath) {
+        if (relativePath == null) {
+            return null;
+        }
+        String p = relativePath.replace('\\', '/').trim();
+        // 去掉前导 '/'
+        while (p.startsWith("/")) {
+            p = p.substring(1);
+        }
+        if (p.isBlank()) {
+            return null;
+        }
+        // 禁止目录穿越和非法字符
+        if (p.contains("..") || p.contains(":") || p.contains("\u0000")) {
+            return null;
+        }
+        return p;
+    }
+
+    private void scan(boolean eof) {
+        int len = raw.length();
+        while (scanPos < len) {
+            if (state == State.FILE_HEADER) {
+                int end = raw.indexOf(FILE_MARKER_SUFFIX, scanPos);
+                if (end < 0) {
+                    if (eof) {
+                        // 标记始终没有闭合，按普通文本输出
+                        delta.append(raw, headerStart, len);
+                        scanPos = len;
+                        state = State.TEXT;
+                    } else {
+                        // ">>>" 可能被切断，留出两个字符下次重新匹配
+                        scanPos = Math.max(scanPos, len - (FILE_MARKER_SUFFIX.length() - 1));
+                    }
+                    return;
+                }
+                scanPos = end + FILE_MARKER_SUFFIX.length();
+                state = State.TEXT;
+                onFileHeader(raw.substring(headerStart + FILE_MARKER_PREFIX.length(), end), scanPos);
+                continue;
+            }
+
+            int lt = raw.indexOf("<", scanPos);
+            if (lt < 0) {
+                delta.append(raw, scanPos, len);
+                scanPos = len;
+                return;
+            }
+            delta.append(raw, scanPos, lt);
+            scanPos = lt;
+
+            if (matchesAt(lt, FILE_MARKER_PREFIX)) {
+                headerStart = lt;
+                scanPos = lt + FILE_MARKER_PREFIX.length();
+                state = State.FILE_HEADER;
+            } else if (matchesAt(lt, END_FILE_MARKER)) {
+                onEndFile(lt);
+                scanPos = lt + END_FILE_MARKER.length();
+            } else if (matchesAt(lt, DONE_MARKER)) {
+                onDone();
+                scanPos = lt + DONE_MARKER.length();
+            } else if (!eof && isPartialMarker(lt)) {
+                // 可能是被 chunk 切断的标记，等待更多数据
+                return;
+            } else {
+                delta.append('<');
+                scanPos = lt + 1;
+            }
+        }
+    }
+
+    private void onFileHeader(String rawPath, int start) {
+        if (inFile) {
+            // 文件块内部出现的 FILE 标记只从展示中过滤，内容仍归属当前文件
+            return;
+        }
+        inFile = true;
+        currentPath = normalizeRelativePath(rawPath.trim());
+        contentStart = start;
+    }
+
+    private void onEndFile(int end) {
+        if (!inFile) {
+            return;
+        }
+        inFile = false;
+        int start = contentStart;
+        // 跳过紧随路径结束标记之后的 \r 和 \n
+        if (start < end && raw.charAt(start) == '\r') {
+            start++;
+        }
+        if (start < end && raw.charAt(start) == '\n') {
+            start++;
+        }
+        // 去掉末尾多余的换行符
+        int stop = end;
+        if (stop - start >= 2 && raw.charAt(stop - 2) == '\r' && raw.charAt(stop - 1) == '\n') {
+            stop -= 2;
+        } else if (stop > start && raw.charAt(stop - 1) == '\n') {
+            stop--;
+        }
+        if (currentPath != null) {
+            String content = raw.substring(start, stop);
+            pendingFiles.put(currentPath, content);
+            if (fileListener != null) {
+                fileListener.accept(currentPath, content);
+            }
+        }
+        currentPath = null;
+        contentStart = -1;
+    }
+
+    private void onDone() {
+        doneSeen = true;
+        committedFiles.putAll(pendingFiles);
+        pendingFiles.clear();
+    }
+
+    private boolean matchesAt(int pos, String marker) {
+        if (pos + marker.length() > raw.length()) {
+            return false;
+        }
+        for (int i = 0; i < marker.length(); i++) {
+            if (raw.charAt(pos + i) != marker.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从 pos 到缓冲末尾的内容是否是某个标记的前缀（说明标记可能被切断）
+     */
+    private boolean isPartialMarker(int pos) {
+        int remaining = raw.length() - pos;
+        for (String marker : MARKERS) {
+            if (remaining >= marker.length()) {
+                continue;
+            }
+            boolean prefix = true;
+            for (int i = 0; i < remaining; i++) {
+                if (raw.charAt(pos + i) != marker.charAt(i)) {
+                    prefix = false;
+                    break;
+                }
+            }
+            if (prefix) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
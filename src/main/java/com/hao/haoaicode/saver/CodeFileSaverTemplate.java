@@ -83,6 +83,14 @@ public abstract class CodeFileSaverTemplate<T> {
      */
     protected abstract CodeGenTypeEnum getCodeType();
 
+    /**
+     * 代码块语言对应的文件名（由子类实现）
+     *
+     * @param language 代码块语言（html / css / js）
+     * @return 文件名，不属于当前生成类型的语言返回 null
+     */
+    protected abstract String resolveFileName(String language);
+
     /**
      * 保存文件的具体实现（由子类实现）
      *
@@ -5,6 +5,7 @@ import com.hao.haoaicode.ai.model.HtmlCodeResult;
 import com.hao.haoaicode.exception.BusinessException;
 import com.hao.haoaicode.exception.ErrorCode;
 import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
+import com.hao.haoaicode.parser.CodeFenceStreamParser;
 
 /**
  * HTML代码文件保存器
@@ -18,10 +19,15 @@ public class HtmlCodeFileSaverTemplate extends CodeFileSaverTemplate<HtmlCodeRes
         return CodeGenTypeEnum.HTML;
     }
 
+    @Override
+    protected String resolveFileName(String language) {
+        return CodeFenceStreamParser.LANG_HTML.equals(language) ? "index.html" : null;
+    }
+
     @Override
     protected void saveFiles(HtmlCodeResult result, String baseDirPath) {
         // 保存 HTML 文件
-        writeToFile(baseDirPath, "index.html", result.getHtmlCode());
+        writeToFile(baseDirPath, resolveFileName(CodeFenceStreamParser.LANG_HTML), result.getHtmlCode());
     }
 
     @Override
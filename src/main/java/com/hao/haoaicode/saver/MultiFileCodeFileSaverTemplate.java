@@ -5,6 +5,7 @@ import com.hao.haoaicode.ai.model.MultiFileCodeResult;
 import com.hao.haoaicode.exception.BusinessException;
 import com.hao.haoaicode.exception.ErrorCode;
 import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
+import com.hao.haoaicode.parser.CodeFenceStreamParser;
 
 /**
  * 多文件代码保存器
@@ -18,14 +19,27 @@ public class MultiFileCodeFileSaverTemplate extends CodeFileSaverTemplate<MultiF
         return CodeGenTypeEnum.MULTI_FILE;
     }
 
+    @Override
+    protected String resolveFileName(String language) {
+        if (language == null) {
+            return null;
+        }
+        return switch (language) {
+            case CodeFenceStreamParser.LANG_HTML -> "index.html";
+            case CodeFenceStreamParser.LANG_CSS -> "style.css";
+            case CodeFenceStreamParser.LANG_JS -> "script.js";
+            default -> null;
+        };
+    }
+
     @Override
     protected void saveFiles(MultiFileCodeResult result, String baseDirPath) {
         // 保存 HTML 文件
-        writeToFile(baseDirPath, "index.html", result.getHtmlCode());
+        writeToFile(baseDirPath, resolveFileName(CodeFenceStreamParser.LANG_HTML), result.getHtmlCode());
         // 保存 CSS 文件
-        writeToFile(baseDirPath, "style.css", result.getCssCode());
+        writeToFile(baseDirPath, resolveFileName(CodeFenceStreamParser.LANG_CSS), result.getCssCode());
         // 保存 JavaScript 文件
-        writeToFile(baseDirPath, "script.js", result.getJsCode());
+        writeToFile(baseDirPath, resolveFileName(CodeFenceStreamParser.LANG_JS), result.getJsCode());
     }
 
     @Override
@@ -7,7 +7,10 @@ public interface BuildClient {
      * 构建 Vue 项目并上传 dist 到 COS
      *
      * @param appId     应用 ID（用于日志 / 追踪）
-     * @param sourceKey 源码在 COS 上的目录 key（例如：/source-code/123/1700000000000/）
+     * 请求体除了 sourceKey 还带上按版本清单解析好的 sourceFiles（相对路径 -> COS 对象键），
+     * 构建服务按 sourceFiles 逐个下载到工作目录，不再列举 sourceKey 目录（内容寻址的版本目录下没有对象）
+     *
+     * @param sourceKey 源码版本 key（例如：/source-code/123/1700000000000/），清单在同级的 {sourceKey}.manifest.json
      * @param deployKey 部署 key（例如：app_123_1700000000000）
      * @return 构建结果
      */
@@ -6,7 +6,7 @@ import com.hao.haoaicode.model.entity.User;
 import com.mybatisflex.core.paginate.Page;
 import com.mybatisflex.core.query.QueryWrapper;
 import com.mybatisflex.core.service.IService;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.memory.ChatMemory;
 
 import java.time.LocalDateTime;
 
@@ -38,9 +38,19 @@ public interface ChatHistoryService extends IService<ChatHistory> {
      */
     QueryWrapper getQueryWrapper(ChatHistoryQueryRequest chatHistoryQueryRequest);
 
+    /**
+     * 游标查询应用的对话历史，游标为 (lastCreateTime, lastId)
+     * 不统计总数，返回的 totalRow、totalPage 为 -1
+     */
     Page<ChatHistory> listAppChatHistoryByPage(Long appId, int pageSize,
                                                LocalDateTime lastCreateTime,
+                                               Long lastId,
                                                User loginUser);
 
-    int loadChatHistoryToMemory(Long appId, MessageWindowChatMemory chatMemory, int maxCount);
+    /**
+     * 获取单条消息的完整内容（COS 存储的大消息懒加载）
+     */
+    String getChatMessageContent(Long id, User loginUser);
+
+    int loadChatHistoryToMemory(Long appId, ChatMemory chatMemory, int maxCount);
 }
@@ -1,5 +1,7 @@
 package com.hao.haoaicode.service;
 
+import com.hao.haoaicode.model.ProjectManifest;
+
 import java.util.Map;
 
 public interface ProjectGenerationPostProcessor {
@@ -15,6 +17,26 @@ public interface ProjectGenerationPostProcessor {
      */
     ProjectGenerationResult processGeneration(long appId, String aiResponse);
 
+    /**
+     * 同上，但直接使用已经解析好的文件块（filePath -> fileContent），
+     * 供流式解析器在生成过程中完成解析后调用，避免对完整响应再扫描一遍。
+     */
+    ProjectGenerationResult processGeneration(long appId, Map<String, String> modelFiles);
+
+    /**
+     * 同上，文件已经在生成过程中通过上传会话逐个提交到 COS，
+     * 这里只补传缺失/内容不一致的文件，然后写入版本清单和“最新源码路径”。
+     *
+     * @param uploadSession 生成开始时通过 {@link #openUploadSession(long)} 打开的会话，为 null 时退化为全量上传
+     */
+    ProjectGenerationResult processGeneration(long appId, Map<String, String> modelFiles, SourceUploadSession uploadSession);
+
+    /**
+     * 为一次流式生成打开源码上传会话：确定本次版本目录，
+     * 并立刻开始把上一版本仍在缓存中的文件搬到新目录下，与模型生成并行。
+     */
+    SourceUploadSession openUploadSession(long appId);
+
     /**
      * 获取当前应用的所有生成文件（ filePath -> fileContent）
      * @param appId
@@ -43,6 +65,44 @@ public interface ProjectGenerationPostProcessor {
      */
     boolean uploadToCos(long appId);
 
+    /**
+     * 获取应用最新源码版本的项目清单（文件列表、路由、依赖），没有已上传的版本时返回 null
+     * 只读取清单本身，不下载源码文件
+     * @param appId
+     * @return
+     */
+    ProjectManifest getManifest(long appId);
+
+    /**
+     * 复用已有的源码版本目录（语义缓存命中）：把文件载入内存缓存用于预览，并把“最新源码路径”指向该目录
+     * 版本目录按时间戳命名、写入后不再修改，可以被多个应用共享
+     * @param appId
+     * @param sourceBaseKey 已上传完成的版本目录
+     * @return 是否成功，失败时不修改“最新源码路径”
+     */
+    boolean adoptSource(long appId, String sourceBaseKey);
+
+    /**
+     * 源码上传会话：一次生成对应一个版本目录，文件块完成一个就提交一个，异步上传
+     */
+    interface SourceUploadSession {
+
+        /**
+         * 本次源码版本在 COS 上的目录
+         */
+        String getBaseKey();
+
+        /**
+         * 提交一个文件异步上传，同一路径多次提交时后提交的内容生效
+         */
+        void submit(String relativePath, String content);
+
+        /**
+         * 放弃本次上传（生成失败/取消），未开始的上传任务不再执行，不会更新“最新源码路径”
+         */
+        void abort();
+    }
+
     /**
      * 项目生成结果
      */
@@ -8,10 +8,15 @@ import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
 import com.hao.haoaicode.model.vo.AppCodeVersionVO;
 
 public interface SemanticCacheService {
-    // 判断prompt是否已有相似度高的缓存,如果有,则返回缓存的代码位置
-    SemanticCacheResult checkPrompt(String prompt, Long appId, CodeGenTypeEnum codegenType);
+    // 判断prompt是否已有相似度高的缓存,如果有,则返回缓存的代码位置（未命中时 hit=false，不返回 null）
+    // 只在 userId 自己的应用和精选应用的版本中查找
+    SemanticCacheResult checkPrompt(String prompt, Long appId, Long userId, CodeGenTypeEnum codegenType);
 
-    void savaCache(String prompt, Long appId, Long userId, CodeGenTypeEnum codegenType, String codeLocation, double embeddingScore);
+    // 新增版本记录，并把提示词向量加入语义缓存
+    void savaCache(String prompt, Long appId, Long userId, CodeGenTypeEnum codegenType, String codeLocation);
+
+    // 删除应用时逻辑删除它的版本记录，并移出语义缓存索引
+    void removeAppVersions(Long appId);
 
     // 获取应用的所有代码版本
     List<AppCodeVersionVO> getAppVersions(Long appId);
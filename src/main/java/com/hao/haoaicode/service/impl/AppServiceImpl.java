@@ -5,6 +5,7 @@ import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
+import com.hao.haoaicode.model.ProjectManifest;
 import com.hao.haoaicode.model.SemanticCacheResult;
 import com.hao.haoaicode.model.context.GenerationContext;
 import com.hao.haoaicode.model.context.GenerationContextHolder;
@@ -19,7 +20,10 @@ import com.hao.haoaicode.buffer.ChatMessageRouter;
 import com.hao.haoaicode.constant.AppConstant;
 import com.hao.haoaicode.core.AiCodeGeneratorFacade;
 import com.hao.haoaicode.core.builder.VueProjectBuilder;
+import com.hao.haoaicode.core.handler.StreamFrameEncoder;
 import com.hao.haoaicode.core.handler.StreamHandlerExecutor;
+import com.hao.haoaicode.core.pipeline.GenerationSingleFlight;
+import com.hao.haoaicode.core.pipeline.PostGenerationPipeline;
 import com.hao.haoaicode.exception.BusinessException;
 import com.hao.haoaicode.exception.ErrorCode;
 import com.hao.haoaicode.exception.ThrowUtils;
@@ -51,7 +55,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.File;
 import java.io.Serializable;
@@ -85,6 +91,8 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>  implements AppS
     @Resource
     private StreamHandlerExecutor streamHandlerExecutor;
     @Resource
+    private PostGenerationPipeline postGenerationPipeline;
+    @Resource
     private VueProjectBuilder vueProjectBuilder;
     @Resource
     private ScreenshotService screenshotService;
@@ -112,10 +120,15 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>  implements AppS
     private SemanticCacheService semanticCacheService;
     @Value("${code.deploy-cos-prefix:/deploy}")
     private String deployCosPrefix;
+    // 语义缓存相似度达到该值时直接复用已有项目代码
+    @Value("${code.semantic-cache.reuse-threshold:0.95}")
+    private double semanticReuseThreshold;
     @Resource
     private TaskSummaryService taskSummaryService;
     @Resource
     private ProjectGenerationPostProcessor projectGenerationPostProcessor;
+    @Resource
+    private GenerationSingleFlight generationSingleFlight;
 
     /**
      * 查询应用信息
@@ -323,12 +336,24 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>  implements AppS
         if (!app.getUserId().equals(loginUser.getId())) {
             throw new BusinessException(ErrorCode.NO_AUTH_ERROR, "无权限访问该应用");
         }
+        // 生成后处理流水线积压时直接拒绝，避免收尾任务越堆越多
+        ThrowUtils.throwIf(postGenerationPipeline.isOverloaded(), ErrorCode.TOO_MANY_REQUEST, "系统繁忙，请稍后再试");
         // 4. 获取应用的代码生成类型
         String codeGenTypeStr = app.getCodeGenType();
         CodeGenTypeEnum codeGenTypeEnum = CodeGenTypeEnum.getEnumByValue(codeGenTypeStr);
         if (codeGenTypeEnum == null) {
             throw new BusinessException(ErrorCode.SYSTEM_ERROR, "不支持的代码生成类型");
         }
+        // 相同的请求正在生成时直接挂到它的输出上，不重复记录用户消息、不重复调用模型
+        return generationSingleFlight.execute(GenerationSingleFlight.key(appId, message),
+                () -> startGeneration(appId, message, loginUser, codeGenTypeStr, codeGenTypeEnum, startTime));
+    }
+
+    /**
+     * 发起一次代码生成：记录上下文和用户消息，调用模型并挂上结束时的收尾
+     */
+    private Flux<String> startGeneration(Long appId, String message, User loginUser,
+                                         String codeGenTypeStr, CodeGenTypeEnum codeGenTypeEnum, long startTime) {
         // 记录请求上下文
         GenerationContext generationContext = new GenerationContext();
         generationContext.setAppId(appId);
@@ -346,17 +371,12 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>  implements AppS
                 .appId(appId.toString())
                 .build());
         // 检查积分，扣除积分
-//        // 检查prompt是否重复，若重复且阈值大于0.9可直接复用代码
-//        SemanticCacheResult checkPrompt = semanticCacheService.checkPrompt(message, appId, codeGenTypeEnum);
-//        if(checkPrompt.isHit() && checkPrompt.getScore() >= 0.9){
-//            // 若命中，直接返回缓存的代码位置
-//            return Flux.just(checkPrompt.getCodeLocation());
-//        }else if(checkPrompt.isHit() && checkPrompt.getScore() >= 0.8){
-//            // 若命中，且相似度大于0.8，采取上下文策略
-//
-//        }
-        // 7. 调用模型生成代码
-        Flux<String> codeStream = aiCodeGeneratorFacade.generateAndSaveCodeStream(message, codeGenTypeEnum, appId, loginUser);
+        // 检查prompt是否重复：新应用的需求与已有版本足够相似时直接复用代码，不调用模型
+        Flux<String> codeStream = reuseCachedProject(appId, message, loginUser, codeGenTypeEnum);
+        if (codeStream == null) {
+            // 7. 调用模型生成代码
+            codeStream = aiCodeGeneratorFacade.generateAndSaveCodeStream(message, codeGenTypeEnum, appId, loginUser);
+        }
         // 8. 收集生成的代码
         return codeStream.doFinally(signalType -> {
                 long endTime = System.currentTimeMillis();
@@ -382,30 +402,31 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>  implements AppS
                 generationContext.setEndTime(endTime);
                 generationContext.setSuccess(signalType == SignalType.ON_COMPLETE);
                 generationContext.setErrorMessage(signalType == SignalType.ON_ERROR ? "..." : null); // 如果有异常信息可以传进去
-                try {
-                    String normalizedBaseKey = stringRedisTemplate.opsForValue()
-                            .get(String.format("code:source:latest:%d", appId));
-                    generationContext.setSourceKey(normalizedBaseKey);
-                } catch (Exception ignored) {
-                }
-                if (generationContext.getTouchedFiles() == null || generationContext.getTouchedFiles().isEmpty()) {
+                // Redis 查询最新源码路径、任务摘要入库都交给生成后处理流水线，不阻塞流的结束
+                postGenerationPipeline.run(PostGenerationPipeline.Stage.SUMMARY, () -> {
                     try {
-                        Map<String, String> files = projectGenerationPostProcessor.getGeneratedFiles(appId);
-                        if (files != null && !files.isEmpty()) {
-                            for (String path : files.keySet()) {
-                                generationContext.addTouchedFile(path);
+                        String normalizedBaseKey = stringRedisTemplate.opsForValue()
+                                .get(String.format("code:source:latest:%d", appId));
+                        generationContext.setSourceKey(normalizedBaseKey);
+                    } catch (Exception ignored) {
+                    }
+                    if (generationContext.getTouchedFiles() == null || generationContext.getTouchedFiles().isEmpty()) {
+                        // 只需要文件路径，读项目清单即可，不下载源码
+                        try {
+                            ProjectManifest manifest = projectGenerationPostProcessor.getManifest(appId);
+                            if (manifest != null) {
+                                for (ProjectManifest.FileEntry file : manifest.getFiles()) {
+                                    generationContext.addTouchedFile(file.getPath());
+                                }
                             }
+                        } catch (Exception ignored) {
                         }
-                    } catch (Exception ignored) {
                     }
-                }
-                try {
                     // 把任务级上下文存到数据库
                     taskSummaryService.generateAndSaveSummary(generationContext);
-                } finally  {
-                    // 销毁生成上下文的ThreadLocal
-                    GenerationContextHolder.clearContext();                
-                }
+                });
+                // 销毁生成上下文的ThreadLocal
+                GenerationContextHolder.clearContext();
 
                     MonitorContextHolder.clearContext();
 
@@ -462,7 +483,51 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>  implements AppS
 
     }
     /**
-     * 删除应用时关联删除对话历史
+     * 语义缓存复用：只用于还没有源码的 Vue 项目（已有源码的应用是在迭代修改，别的项目的代码不适用）
+     * 相似度达到复用阈值时，把命中的版本目录作为本应用的源码，返回一条说明代替模型输出
+     * 只会命中当前用户自己的应用或精选应用，不会把别人的私有项目复制过来
+     * 从 COS 取回源码在返回的流里进行（boundedElastic），不阻塞请求线程；取回失败时在流里退回模型生成
+     *
+     * @return 命中时的输出流，未命中时返回 null
+     */
+    private Flux<String> reuseCachedProject(Long appId, String message, User loginUser, CodeGenTypeEnum codeGenTypeEnum) {
+        if (codeGenTypeEnum != CodeGenTypeEnum.VUE_PROJECT) {
+            return null;
+        }
+        String latestSource = stringRedisTemplate.opsForValue().get(String.format("code:source:latest:%d", appId));
+        if (StrUtil.isNotBlank(latestSource)) {
+            return null;
+        }
+        SemanticCacheResult cached = semanticCacheService.checkPrompt(message, appId, loginUser.getId(), codeGenTypeEnum);
+        if (!cached.isHit() || cached.getScore() < semanticReuseThreshold) {
+            return null;
+        }
+        // 退回模型生成时在新线程上恢复请求上下文
+        GenerationContext generationContext = GenerationContextHolder.getContext();
+        MonitorContext monitorContext = MonitorContextHolder.getContext();
+        return Mono.fromCallable(() -> projectGenerationPostProcessor.adoptSource(appId, cached.getCodeLocation()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(adopted -> {
+                    if (!adopted) {
+                        log.warn("语义缓存复用失败，改为调用模型生成 appId: {}, versionId: {}", appId, cached.getVersionId());
+                        GenerationContextHolder.setContext(generationContext);
+                        MonitorContextHolder.setContext(monitorContext);
+                        return aiCodeGeneratorFacade.generateAndSaveCodeStream(message, codeGenTypeEnum, appId, loginUser);
+                    }
+                    log.info("语义缓存复用已有项目 appId: {}, sourceAppId: {}, versionId: {}, score: {}",
+                            appId, cached.getSourceAppId(), cached.getVersionId(), cached.getScore());
+                    String reply = String.format("【语义缓存】与已有项目的需求高度相似（相似度 %.2f），已直接复用该项目代码，可立即预览。"
+                            + "如需调整，请继续描述要修改的地方。\n", cached.getScore());
+                    postGenerationPipeline.run(PostGenerationPipeline.Stage.HISTORY,
+                            () -> conversationHistoryRecorder.recordAiMessage(appId, reply, loginUser.getId()));
+                    postGenerationPipeline.run(PostGenerationPipeline.Stage.VERSION,
+                            () -> semanticCacheService.savaCache(message, appId, loginUser.getId(), codeGenTypeEnum, cached.getCodeLocation()));
+                    return Flux.just(StreamFrameEncoder.aiResponse(reply));
+                });
+    }
+
+    /**
+     * 删除应用时关联删除对话历史和代码版本记录
      *
      * @param id 应用ID
      * @return 是否成功
@@ -484,6 +549,13 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>  implements AppS
             // 记录日志但不阻止应用删除
             log.error("删除应用关联对话历史失败: {}", e.getMessage());
         }
+        // 删除版本记录和语义缓存索引，已删除应用的代码不能再被复用
+        try {
+            semanticCacheService.removeAppVersions(appId);
+        } catch (Exception e) {
+            // 命中时还会回表确认应用存在，这里失败不阻止应用删除
+            log.error("删除应用版本记录失败: {}", e.getMessage());
+        }
         // 删除应用
         return super.removeById(id);
     }
@@ -1,7 +1,10 @@
 package com.hao.haoaicode.service.impl;
 
+import com.hao.haoaicode.manager.CosManager;
 import com.hao.haoaicode.model.BuildResult;
+import com.hao.haoaicode.model.ProjectManifest;
 import com.hao.haoaicode.service.BuildClient;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
@@ -22,6 +25,9 @@ public class BuildClientImpl implements BuildClient {
 
     private final RestTemplate restTemplate;
 
+    @Resource
+    private CosManager cosManager;
+
     public BuildClientImpl(RestTemplateBuilder restTemplateBuilder) {
         this.restTemplate = restTemplateBuilder
                 .setConnectTimeout(Duration.ofSeconds(10))
@@ -41,9 +47,16 @@ public class BuildClientImpl implements BuildClient {
         String url = buildServiceBaseUrl + "/build/vue";
 
         try {
+            // 按版本清单解析出每个文件的对象键，兼容旧的目录存储
+            Map<String, String> sourceFiles = cosManager.resolveSourceObjects(sourceKey);
+            if (sourceFiles == null || sourceFiles.isEmpty()) {
+                return BuildResult.fail("源码版本不存在或解析失败: " + sourceKey, null);
+            }
             Map<String, Object> requestBody = new HashMap<>();
             requestBody.put("appId", appId);
             requestBody.put("sourceKey", sourceKey);
+            requestBody.put("manifestKey", ProjectManifest.manifestKey(sourceKey));
+            requestBody.put("sourceFiles", sourceFiles);
             requestBody.put("deployKey", deployKey);
 
             log.info("调用构建服务，url: {}, appId: {}, sourceKey: {}, deployKey: {}", url, appId, sourceKey, deployKey);
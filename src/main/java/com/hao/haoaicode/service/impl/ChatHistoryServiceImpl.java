@@ -3,6 +3,8 @@ package com.hao.haoaicode.service.impl;
 
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.StrUtil;
+import com.hao.haoaicode.buffer.ChatHistoryContentStore;
+import com.hao.haoaicode.buffer.ChatHistoryHotTail;
 import com.hao.haoaicode.constant.UserConstant;
 import com.hao.haoaicode.exception.ErrorCode;
 import com.hao.haoaicode.exception.ThrowUtils;
@@ -19,14 +21,19 @@ import com.mybatisflex.core.query.QueryWrapper;
 import com.mybatisflex.spring.service.impl.ServiceImpl;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.UserMessage;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.memory.ChatMemory;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 对话历史 服务层实现。
@@ -39,6 +46,12 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
     @Lazy
     @Autowired
     AppService appService;
+
+    @Resource
+    private ChatHistoryHotTail chatHistoryHotTail;
+
+    @Resource
+    private ChatHistoryContentStore chatHistoryContentStore;
     /**
      * 增加对话历史
      * @param appId
@@ -74,7 +87,9 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
     public boolean deleteChatMessage(Long appId) {
         ThrowUtils.throwIf(appId == null || appId < 0, ErrorCode.PARAMS_ERROR, "app不存在");
         QueryWrapper queryWrapper = new QueryWrapper().eq("appId", appId);
-        return this.remove(queryWrapper);
+        boolean removed = this.remove(queryWrapper);
+        chatHistoryHotTail.evict(appId);
+        return removed;
     }
     /**
      * 获取查询包装类
@@ -94,6 +109,7 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
         Long appId = chatHistoryQueryRequest.getAppId();
         Long userId = chatHistoryQueryRequest.getUserId();
         LocalDateTime lastCreateTime = chatHistoryQueryRequest.getLastCreateTime();
+        Long lastId = chatHistoryQueryRequest.getLastId();
         String sortField = chatHistoryQueryRequest.getSortField();
         String sortOrder = chatHistoryQueryRequest.getSortOrder();
         // 拼接查询条件
@@ -102,31 +118,40 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
                 .eq("messageType", messageType)
                 .eq("appId", appId)
                 .eq("userId", userId);
-        // 游标查询逻辑 - 只使用 createTime 作为游标
+        // 游标查询逻辑 - (createTime, id) 键集，没有 lastId 时只按 createTime
         if (lastCreateTime != null) {
-            queryWrapper.lt("createTime", lastCreateTime);
+            if (lastId != null) {
+                queryWrapper.and((Consumer<QueryWrapper>) wrapper -> wrapper.lt("createTime", lastCreateTime)
+                        .or((Consumer<QueryWrapper>) inner -> inner.eq("createTime", lastCreateTime).lt("id", lastId)));
+            } else {
+                queryWrapper.lt("createTime", lastCreateTime);
+            }
         }
         // 排序
         if (StrUtil.isNotBlank(sortField)) {
             queryWrapper.orderBy(sortField, "ascend".equals(sortOrder));
         } else {
-            // 默认按创建时间降序排列
-            queryWrapper.orderBy("createTime", false);
+            // 默认按创建时间降序排列，同一时间按 id 降序，与键集游标一致
+            queryWrapper.orderBy("createTime", false).orderBy("id", false);
         }
         return queryWrapper;
     }
 
     /**
      * 游标查询方法
+     * 先读热尾（最近 N 条，含尚未刷盘的消息），够一页直接返回；不够时用同一个键集游标查 MySQL 再合并去重。
+     * 游标分页不统计总数，totalRow 和 totalPage 固定为 -1（Page.INIT_VALUE，表示未知），本页条数小于 pageSize 表示没有更早的记录。
      * @param appId
      * @param pageSize
      * @param lastCreateTime
+     * @param lastId
      * @param loginUser
      * @return
      */
     @Override
     public Page<ChatHistory> listAppChatHistoryByPage(Long appId, int pageSize,
                                                       LocalDateTime lastCreateTime,
+                                                      Long lastId,
                                                       User loginUser) {
         ThrowUtils.throwIf(appId == null || appId <= 0, ErrorCode.PARAMS_ERROR, "应用ID不能为空");
         ThrowUtils.throwIf(pageSize <= 0 || pageSize > 50, ErrorCode.PARAMS_ERROR, "页面大小必须在1-50之间");
@@ -137,13 +162,48 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
         boolean isAdmin = UserConstant.ADMIN_ROLE.equals(loginUser.getUserRole());
         boolean isCreator = app.getUserId().equals(loginUser.getId());
         ThrowUtils.throwIf(!isAdmin && !isCreator, ErrorCode.NO_AUTH_ERROR, "无权查看该应用的对话历史");
-        // 构建查询条件
-        ChatHistoryQueryRequest queryRequest = new ChatHistoryQueryRequest();
-        queryRequest.setAppId(appId);
-        queryRequest.setLastCreateTime(lastCreateTime);
-        QueryWrapper queryWrapper = this.getQueryWrapper(queryRequest);
-        // 查询数据
-        return this.page(Page.of(1, pageSize), queryWrapper);
+        // 热尾里没有的消息一定比热尾中的更早，热尾够一页时就是正确结果
+        List<ChatHistory> records = chatHistoryHotTail.listBefore(appId, lastCreateTime, lastId);
+        if (records.size() < pageSize) {
+            // 构建查询条件
+            ChatHistoryQueryRequest queryRequest = new ChatHistoryQueryRequest();
+            queryRequest.setAppId(appId);
+            queryRequest.setLastCreateTime(lastCreateTime);
+            queryRequest.setLastId(lastId);
+            QueryWrapper queryWrapper = this.getQueryWrapper(queryRequest).limit(pageSize);
+            // 合并热尾和数据库的结果（已刷盘的消息两边都有，按 id 去重）
+            Map<Long, ChatHistory> merged = new LinkedHashMap<>();
+            records.forEach(record -> merged.put(record.getId(), record));
+            this.list(queryWrapper).forEach(record -> merged.putIfAbsent(record.getId(), record));
+            records = new ArrayList<>(merged.values());
+            records.sort(ChatHistoryHotTail.NEWEST_FIRST);
+        }
+        if (records.size() > pageSize) {
+            records = new ArrayList<>(records.subList(0, pageSize));
+        }
+        return new Page<>(records, 1, pageSize, Page.INIT_VALUE);
+    }
+
+    /**
+     * 获取单条消息的完整内容
+     * 分页结果里大消息只有预览，前端展开时调用；COS 存储的正文在这里懒加载
+     * @param id
+     * @param loginUser
+     * @return
+     */
+    @Override
+    public String getChatMessageContent(Long id, User loginUser) {
+        ThrowUtils.throwIf(id == null || id <= 0, ErrorCode.PARAMS_ERROR, "消息ID不能为空");
+        ThrowUtils.throwIf(loginUser == null, ErrorCode.NOT_LOGIN_ERROR);
+        ChatHistory history = this.getById(id);
+        ThrowUtils.throwIf(history == null, ErrorCode.NOT_FOUND_ERROR, "消息不存在");
+        // 验证权限：只有应用创建者和管理员可以查看
+        App app = appService.getById(history.getAppId());
+        ThrowUtils.throwIf(app == null, ErrorCode.NOT_FOUND_ERROR, "应用不存在");
+        boolean isAdmin = UserConstant.ADMIN_ROLE.equals(loginUser.getUserRole());
+        boolean isCreator = app.getUserId().equals(loginUser.getId());
+        ThrowUtils.throwIf(!isAdmin && !isCreator, ErrorCode.NO_AUTH_ERROR, "无权查看该应用的对话历史");
+        return chatHistoryContentStore.loadFullMessage(history);
     }
 
     /**
@@ -154,7 +214,7 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
      * @return
      */
     @Override
-    public int loadChatHistoryToMemory(Long appId, MessageWindowChatMemory chatMemory, int maxCount) {
+    public int loadChatHistoryToMemory(Long appId, ChatMemory chatMemory, int maxCount) {
         try {
             // 直接构造查询条件，起始点为 1 而不是 0，用于排除最新的用户消息
             QueryWrapper queryWrapper = QueryWrapper.create()
@@ -171,12 +231,15 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
             int loadedCount = 0;
             // 先清理历史缓存，防止重复加载
             chatMemory.clear();
-            for (ChatHistory history : historyList) {
+            // 对话记忆需要完整内容，COS 存储的大消息在这里并发加载
+            List<String> contents = chatHistoryContentStore.loadFullMessages(historyList);
+            for (int i = 0; i < historyList.size(); i++) {
+                ChatHistory history = historyList.get(i);
                 if (ChatHistoryMessageTypeEnum.USER.getValue().equals(history.getMessageType())) {
-                    chatMemory.add(UserMessage.from(history.getMessage()));
+                    chatMemory.add(UserMessage.from(contents.get(i)));
                     loadedCount++;
                 } else if (ChatHistoryMessageTypeEnum.AI.getValue().equals(history.getMessageType())) {
-                    chatMemory.add(AiMessage.from(history.getMessage()));
+                    chatMemory.add(AiMessage.from(contents.get(i)));
                     loadedCount++;
                 }
             }
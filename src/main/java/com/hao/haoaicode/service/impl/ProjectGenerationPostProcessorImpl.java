@@ -3,10 +3,13 @@ package com.hao.haoaicode.service.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAdder;
 
 import org.checkerframework.checker.units.qual.C;
@@ -17,24 +20,35 @@ import org.springframework.stereotype.Service;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.manager.AsyncObjectStore;
 import com.hao.haoaicode.manager.CosManager;
+import com.hao.haoaicode.model.ProjectManifest;
 import com.hao.haoaicode.model.context.GenerationContext;
 import com.hao.haoaicode.model.context.GenerationContextHolder;
 import com.hao.haoaicode.monitor.AppMetricsCollector;
+import com.hao.haoaicode.parser.MultiFileStreamParser;
 import com.hao.haoaicode.service.ProjectGenerationPostProcessor;
 
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
 /**
  * 项目生成后处理服务实现类
  * 1. 解析多文件协议，提取 filePath -> fileContent 的映射。
  * 2. 缓存每个文件内容到内存（Caffeine Cache），用于预览。
- * 3. 上传每个文件到 COS 存储桶，更新 Redis 里的“最新源码路径”。
+ * 3. 源码按内容寻址存到 COS（{prefix}/blobs/{sha256 前两位}/{sha256}），流式生成时每个文件块完成即上传，
+ *    已存在的内容不再上传；版本只是一份指向内容对象的清单，写入后更新 Redis 里的“最新源码路径”。
+ *    上传量和存储增长只和本次修改的文件有关，与项目大小无关。
+ * 3.1 内存缓存未命中（其他节点生成、重启、过期）时按最新版本的清单从 COS 取回源码。
  * 4. 记录指标（如缓存命中率、上传耗时等）。
  */
+@Slf4j
 @Service
 public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPostProcessor {
 
@@ -48,17 +62,26 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
     AppMetricsCollector appMetricsCollector;
     @Resource
     MeterRegistry meterRegistry;
+    @Resource
+    AsyncObjectStore objectStore;
+    // 最新版本的项目清单，与“最新源码路径”一起更新
+    private static final String MANIFEST_KEY = "code:source:manifest:%d";
+    // 生成结束后等待剩余上传完成的最长时间
+    @Value("${code.source-upload-timeout-seconds:60}")
+    long sourceUploadTimeoutSeconds;
     // - 含义：记录每个 appId 当前在内存缓存里占用的体量快照（文件数、字符数）。
     // - 用途：当同一个 appId 再次生成（覆盖/增量合并）时，可以拿到旧快照 prev ，与新快照 next 做差量更新（ next - prev ），避免每次都全量遍历整个缓存来算总量。
     private final ConcurrentMap<Long, CacheStats> cacheStatsByAppId = new ConcurrentHashMap<>();
     private final LongAdder totalCachedFiles = new LongAdder();
     private final LongAdder totalCachedChars = new LongAdder();
-
-    // 多文件协议相关标记
-    private static final String FILE_MARKER_PREFIX = "<<<FILE:";
-    private static final String FILE_MARKER_SUFFIX = ">>>";
-    private static final String END_FILE_MARKER = "<<<END_FILE>>>";
-    private static final String DONE_MARKER = "<<<DONE>>>";
+    // 已确认存在于 COS 的内容对象（sha256），内容对象写入后不再修改，命中时不需要再检查或上传
+    private final Cache<String, Boolean> KNOWN_BLOBS = Caffeine.newBuilder()
+            .maximumSize(200_000)
+            .build();
+    // 正在从 COS 取回源码的应用，并发未命中的请求等待同一次下载
+    private final ConcurrentMap<Long, CompletableFuture<Map<String, String>>> LOADING_FILES = new ConcurrentHashMap<>();
+    private Counter blobUploadedCounter;
+    private Counter blobReusedCounter;
 
     // 缓存：appId -> 所有生成的文件:（ filePath -> fileContent）
     private final Cache<Long, Map<String, String>> APP_ID_TO_FILES = Caffeine.newBuilder()
@@ -77,6 +100,14 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
         Gauge.builder("app.codegen.cache.total_chars", totalCachedChars, LongAdder::sum)
                 .baseUnit("chars")
                 .register(meterRegistry);
+        blobUploadedCounter = Counter.builder("app.codegen.source_blob")
+                .description("源码内容对象（上传 / 已存在复用）")
+                .tag("result", "uploaded")
+                .register(meterRegistry);
+        blobReusedCounter = Counter.builder("app.codegen.source_blob")
+                .description("源码内容对象（上传 / 已存在复用）")
+                .tag("result", "reused")
+                .register(meterRegistry);
     }
     
     /**
@@ -85,7 +116,25 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
      */
     @Override
     public ProjectGenerationResult processGeneration(long appId, String aiResponse) {
-        Map<String, String> modelFiles = parseMultiFileProtocol(aiResponse);
+        return processGeneration(appId, parseMultiFileProtocol(aiResponse));
+    }
+
+    /**
+     * 处理已经解析好的文件块（流式解析器在生成过程中已完成解析，无需再全量扫描一遍）
+     */
+    @Override
+    public ProjectGenerationResult processGeneration(long appId, Map<String, String> modelFiles) {
+        return processGeneration(appId, modelFiles, null);
+    }
+
+    /**
+     * 处理流式生成结果：文件块在生成过程中已经逐个提交上传，这里只做收尾
+     */
+    @Override
+    public ProjectGenerationResult processGeneration(long appId, Map<String, String> modelFiles, SourceUploadSession uploadSession) {
+        if (modelFiles == null) {
+            modelFiles = Collections.emptyMap();
+        }
         // 把修改的文件路径添加到上下文
         GenerationContext ctx = GenerationContextHolder.getContext();
         if (ctx != null) {
@@ -94,6 +143,9 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
             }
         }
         if (modelFiles.isEmpty()) {
+            if (uploadSession != null) {
+                uploadSession.abort();
+            }
             APP_ID_TO_FILES.invalidate(appId);
             appMetricsCollector.recordProjectGenerationResult("no_files");
             return new ProjectGenerationResult(false, false, null);
@@ -101,9 +153,10 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
         int generatedFileCount = modelFiles.size();
         long generatedChars = countChars(modelFiles);
         Map<String, String> mergedFiles = new LinkedHashMap<>();
-        Map<String, String> previous = APP_ID_TO_FILES.getIfPresent(appId);
+        // 内存缓存过期时按最新版本的清单取回，保证新版本在上一版本的基础上合并
+        Map<String, String> previous = getGeneratedFiles(appId);
 
-        if (previous != null && !previous.isEmpty()) {
+        if (!previous.isEmpty()) {
             mergedFiles.putAll(previous);
         }
         mergedFiles.putAll(modelFiles);
@@ -113,11 +166,14 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
 
         updateCacheStatsOnPut(appId, mergedFiles);
         APP_ID_TO_FILES.put(appId, Collections.unmodifiableMap(mergedFiles));
-        String baseKey = buildSourceBaseKey(appId);
+        CosUploadSession session = uploadSession instanceof CosUploadSession cosSession
+                ? cosSession
+                : new CosUploadSession(appId, buildSourceBaseKey(appId));
+        String baseKey = session.getBaseKey();
         if (ctx != null) {
             ctx.setSourceKey(baseKey);
         }
-        boolean uploaded = uploadFilesToCos(baseKey, appId, mergedFiles);
+        boolean uploaded = session.complete(mergedFiles);
         if (uploaded) {
             appMetricsCollector.recordProjectGenerationResult("upload_success");
         } else {
@@ -127,95 +183,116 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
         return new ProjectGenerationResult(true, uploaded, normalizedBaseKey);
     }
 
+    @Override
+    public SourceUploadSession openUploadSession(long appId) {
+        // 上一版本原样保留的文件内容对象已经存在，不需要搬运，新版本的清单直接指向它们
+        return new CosUploadSession(appId, buildSourceBaseKey(appId));
+    }
+
     /**
      * 解析多文件，返回文件路径到文件内容的映射
+     * 复用流式解析器，保证与生成过程中的增量解析结果一致
      */
     @Override
     public Map<String, String> parseMultiFileProtocol(String text) {
-        // 判空：没有任何内容时，直接返回空 Map
-        if (text == null || text.isBlank()) {
-            return Collections.emptyMap();
-        }
-
-        // DONE_MARKER 作为整体结束标记，只取它之前的内容参与解析
-        int doneIndex = text.lastIndexOf(DONE_MARKER);//获取结束标记的位置
-        String input = doneIndex >= 0 ? text.substring(0, doneIndex) : text; // 截取结束标记之前的内容
-
-        // 使用 LinkedHashMap 保证文件插入顺序
-        Map<String, String> files = new LinkedHashMap<>();
-        int idx = 0;
-
-        // 循环解析每个文件块，直到没有更多的 FILE_MARKER_PREFIX 出现
-        while (true) {
-            // 查找文件块起始标记，从索引idx开始查找
-            int start = input.indexOf(FILE_MARKER_PREFIX, idx);//指定起始位置查找字符串
-            if (start < 0) {
-                break;
-            }
+        return MultiFileStreamParser.parse(text);
+    }
 
-            // 找到路径起始的索引
-            int pathStart = start + FILE_MARKER_PREFIX.length();
-            // 找到相对路径结束的索引
-            int pathEnd = input.indexOf(FILE_MARKER_SUFFIX, pathStart);
-            if (pathEnd < 0) {
-                // 缺少路径结束标记，认为协议格式异常
-                break;
-            }
-            // 把相对路径截取出来，示例：<<<FILE:src/main/java/
-            String rawPath = input.substring(pathStart, pathEnd).trim();
-            // 处理相对路径，去除首尾空格和路径分隔符。解析出干净的相对路径
-            String relativePath = normalizeRelativePath(rawPath);
-
-            // 文件内容起点：紧随路径结束标记之后，跳过紧邻的 \r 和 \n
-            int contentStart = pathEnd + FILE_MARKER_SUFFIX.length();
-            if (contentStart < input.length() && input.charAt(contentStart) == '\r') {
-                contentStart++;
-            }
-            if (contentStart < input.length() && input.charAt(contentStart) == '\n') {
-                contentStart++;
+    @Override
+    public Map<String, String> getGeneratedFiles(long appId) {
+        Map<String, String> files = APP_ID_TO_FILES.getIfPresent(appId);
+        if (files != null) {
+            return files;
+        }
+        // 下载在 Caffeine 的原子计算之外进行，不会阻塞其他应用的缓存写入；同一应用并发未命中时只下载一次
+        CompletableFuture<Map<String, String>> mine = new CompletableFuture<>();
+        CompletableFuture<Map<String, String>> loading = LOADING_FILES.putIfAbsent(appId, mine);
+        if (loading != null) {
+            files = loading.join();
+            return files != null ? files : Collections.emptyMap();
+        }
+        try {
+            files = loadLatestFiles(appId);
+            if (files != null) {
+                // 加载期间本应用可能已经生成了新版本，不覆盖更新的缓存
+                Map<String, String> current = APP_ID_TO_FILES.asMap().putIfAbsent(appId, files);
+                if (current == null) {
+                    updateCacheStatsOnPut(appId, files);
+                } else {
+                    files = current;
+                }
             }
+        } catch (Exception e) {
+            log.warn("取回最新源码失败 appId: {}, error: {}", appId, e.getMessage());
+            files = null;
+        } finally {
+            mine.complete(files);
+            LOADING_FILES.remove(appId, mine);
+        }
+        return files != null ? files : Collections.emptyMap();
+    }
 
-            // 查找当前文件块的结束标记
-            int end = input.indexOf(END_FILE_MARKER, contentStart);
-            if (end < 0) {
-                // 未找到结束标记，认为协议格式已损坏
-                break;
-            }
+    /**
+     * 按“最新源码路径”指向的版本取回源码，没有已上传的版本返回 null
+     */
+    private Map<String, String> loadLatestFiles(Long appId) {
+        String latestKey = stringRedisTemplate.opsForValue().get(String.format("code:source:latest:%d", appId));
+        if (latestKey == null || latestKey.isBlank()) {
+            return null;
+        }
+        Map<String, String> files = loadVersionFiles(latestKey);
+        if (files == null || files.isEmpty()) {
+            return null;
+        }
+        return Collections.unmodifiableMap(files);
+    }
 
-            // 截取文件内容（不包含 END_FILE_MARKER 本身）
-            String content = input.substring(contentStart, end);
-            // 对截取的文件内容做清洗，去掉末尾多余的换行符
-            if (content.endsWith("\r\n")) {
-                content = content.substring(0, content.length() - 2);
-            } else if (content.endsWith("\n")) {
-                content = content.substring(0, content.length() - 1);
+    /**
+     * 并发下载一个源码版本的所有文件（按清单解析，兼容旧的目录存储）
+     *
+     * @return 任何一个文件下载失败都返回 null
+     */
+    private Map<String, String> loadVersionFiles(String baseKey) {
+        Map<String, String> objects = cosManager.resolveSourceObjects(baseKey);
+        if (objects == null) {
+            return null;
+        }
+        Map<String, CompletableFuture<String>> downloads = new LinkedHashMap<>();
+        objects.forEach((path, objectKey) -> downloads.put(path,
+                objectStore.getText(objectKey)));
+        try {
+            CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture[0]))
+                    .get(sourceUploadTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            log.warn("下载源码版本失败 baseKey: {}, error: {}", baseKey, e.getMessage());
+            return null;
+        }
+        String blobPrefix = blobPrefix().substring(1);
+        Map<String, String> files = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<String>> entry : downloads.entrySet()) {
+            String content = entry.getValue().getNow(null);
+            if (content == null) {
+                return null;
             }
-
-            // 把清洗好的相对路径和对应的内容写入 Map
-            if (relativePath != null) {
-                files.put(relativePath, content);
+            files.put(entry.getKey(), content);
+            String objectKey = objects.get(entry.getKey());
+            if (objectKey.startsWith(blobPrefix)) {
+                KNOWN_BLOBS.put(objectKey.substring(objectKey.lastIndexOf('/') + 1), Boolean.TRUE);
             }
-
-            // 将扫描指针移动到本次 END_FILE_MARKER 之后，准备解析下一个文件块
-            idx = end + END_FILE_MARKER.length();
         }
-
         return files;
     }
 
-    @Override
-    public Map<String, String> getGeneratedFiles(long appId) {
-        Map<String, String> files = APP_ID_TO_FILES.getIfPresent(appId);
-        return files != null ? files : Collections.emptyMap();
-    }
-
     @Override
     public String getGeneratedFileContent(long appId, String filePath) {
         if (filePath == null || filePath.isBlank()) {
             return null;
         }
-        Map<String, String> files = APP_ID_TO_FILES.getIfPresent(appId);
-        if (files == null || files.isEmpty()) {
+        Map<String, String> files = getGeneratedFiles(appId);
+        if (files.isEmpty()) {
             return null;
         }
         String normalizedPath = normalizeRelativePath(filePath);
@@ -236,59 +313,212 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
         if (files == null || files.isEmpty()) {
             return false;
         }
-        String baseKey = buildSourceBaseKey(appId);
-        return uploadFilesToCos(baseKey, appId, files);
+        return new CosUploadSession(appId, buildSourceBaseKey(appId)).complete(files);
     }
 
-
     /**
-     * 上传文件到 COS
-     * @param baseKey
-     * @param appId
-     * @param files
-     * @return
+     * 读取最新版本的项目清单：内存缓存里有文件时直接生成；否则读 Redis（与“最新源码路径”一起写入）；
+     * 两者都没有或不一致时（清单功能上线前的版本），只下载 COS 上的清单文件并回填 Redis
      */
-    private boolean uploadFilesToCos(String baseKey, long appId, Map<String, String> files) {
-        if (files == null || files.isEmpty()) {
+    @Override
+    public ProjectManifest getManifest(long appId) {
+        Map<String, String> files = APP_ID_TO_FILES.getIfPresent(appId);
+        if (files != null && !files.isEmpty()) {
+            return ProjectManifest.from(null, files);
+        }
+        // 指针和清单一次往返读出
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(List.of(
+                String.format("code:source:latest:%d", appId), String.format(MANIFEST_KEY, appId)));
+        String latestKey = values != null ? values.get(0) : null;
+        if (latestKey == null || latestKey.isBlank()) {
+            return null;
+        }
+        String manifestJson = values.get(1);
+        try {
+            if (manifestJson != null) {
+                ProjectManifest manifest = JSONUtil.toBean(manifestJson, ProjectManifest.class);
+                if (latestKey.equals(manifest.getBaseKey())) {
+                    return manifest;
+                }
+            }
+            manifestJson = objectStore.getText(ProjectManifest.manifestKey(latestKey)).join();
+            if (manifestJson == null) {
+                return null;
+            }
+            ProjectManifest manifest = JSONUtil.toBean(manifestJson, ProjectManifest.class);
+            manifest.setBaseKey(latestKey);
+            stringRedisTemplate.opsForValue().set(String.format(MANIFEST_KEY, appId), JSONUtil.toJsonStr(manifest));
+            return manifest;
+        } catch (Exception e) {
+            log.warn("读取项目清单失败 appId: {}, baseKey: {}, error: {}", appId, latestKey, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean adoptSource(long appId, String sourceBaseKey) {
+        if (sourceBaseKey == null || sourceBaseKey.isBlank()) {
             return false;
         }
-        long startNs = System.nanoTime();
-        boolean uploaded = false;
         try {
-            uploaded = cosManager.uploadTextFiles(baseKey, files);
-            return uploaded;
-        } finally {
-            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
-            appMetricsCollector.recordCosUpload(uploaded ? "success" : "failed", durationMs);
-            if (uploaded) {
-                String normalizedBaseKey = ensureDirKey(baseKey);
-                stringRedisTemplate.opsForValue()
-                        .set(String.format("code:source:latest:%d", appId), normalizedBaseKey);
+            Map<String, String> files = loadVersionFiles(sourceBaseKey);
+            if (files == null || files.isEmpty()) {
+                return false;
             }
+            updateCacheStatsOnPut(appId, files);
+            APP_ID_TO_FILES.put(appId, Collections.unmodifiableMap(files));
+            stringRedisTemplate.opsForValue().set(String.format(MANIFEST_KEY, appId),
+                    JSONUtil.toJsonStr(ProjectManifest.from(ensureDirKey(sourceBaseKey), files)));
+            stringRedisTemplate.opsForValue()
+                    .set(String.format("code:source:latest:%d", appId), ensureDirKey(sourceBaseKey));
+            return true;
+        } catch (Exception e) {
+            log.warn("复用源码版本失败 appId: {}, baseKey: {}, error: {}", appId, sourceBaseKey, e.getMessage());
+            return false;
         }
     }
+
     /**
-     * 归一化相对路径，去掉前导 '/' 并检查是否合法
-     * @param relativePath
-     * @return
+     * COS 源码上传会话
+     * - submit：按内容摘要提交异步上传，同一内容在会话内只上传一次，已存在的内容对象不上传
+     * - complete：补传最终结果里还没提交过的内容，等这些内容对象全部就绪后写入版本清单，
+     *   最后才更新“最新源码路径”，保证指针指向的版本一定是完整的
      */
-    private String normalizeRelativePath(String relativePath) {
-        if (relativePath == null) {
-            return null;
+    private final class CosUploadSession implements SourceUploadSession {
+
+        private final long appId;
+        private final String baseKey;
+        // sha256 -> 该内容对象的上传任务
+        private final ConcurrentMap<String, CompletableFuture<Boolean>> uploads = new ConcurrentHashMap<>();
+        private volatile boolean aborted;
+
+        private CosUploadSession(long appId, String baseKey) {
+            this.appId = appId;
+            this.baseKey = baseKey;
         }
-        String p = relativePath.replace('\\', '/').trim();
-        // 去掉前导 '/'
-        while (p.startsWith("/")) {
-            p = p.substring(1);
+
+        @Override
+        public String getBaseKey() {
+            return baseKey;
         }
-        if (p.isBlank()) {
-            return null;
+
+        @Override
+        public void submit(String relativePath, String content) {
+            if (normalizeRelativePath(relativePath) == null || aborted) {
+                return;
+            }
+            ensureBlob(content == null ? "" : content);
         }
-        // 禁止目录穿越和非法字符
-        if (p.contains("..") || p.contains(":") || p.contains("\u0000")) {
-            return null;
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+
+        private CompletableFuture<Boolean> ensureBlob(String content) {
+            String sha256 = SecureUtil.sha256(content);
+            return uploads.computeIfAbsent(sha256, hash -> {
+                if (KNOWN_BLOBS.getIfPresent(hash) != null) {
+                    blobReusedCounter.increment();
+                    return CompletableFuture.completedFuture(true);
+                }
+                return uploadBlob(hash, content);
+            });
+        }
+
+        private CompletableFuture<Boolean> uploadBlob(String sha256, String content) {
+            if (aborted) {
+                return CompletableFuture.completedFuture(true);
+            }
+            String objectKey = ProjectManifest.blobKey(blobPrefix(), sha256);
+            // 其他应用、其他节点可能已经写过同样的内容
+            return objectStore.exists(objectKey).thenCompose(exists -> {
+                if (exists) {
+                    blobReusedCounter.increment();
+                    KNOWN_BLOBS.put(sha256, Boolean.TRUE);
+                    return CompletableFuture.completedFuture(true);
+                }
+                if (aborted) {
+                    return CompletableFuture.completedFuture(true);
+                }
+                return objectStore.putText(objectKey, content, "text/plain; charset=utf-8").thenApply(ok -> {
+                    if (ok) {
+                        blobUploadedCounter.increment();
+                        KNOWN_BLOBS.put(sha256, Boolean.TRUE);
+                    } else {
+                        log.warn("源码内容上传失败 appId: {}, sha256: {}", appId, sha256);
+                    }
+                    return ok;
+                });
+            });
+        }
+
+        /**
+         * 以 files 为本次版本的最终内容完成上传
+         *
+         * @return 是否全部上传成功（成功时已更新“最新源码路径”）
+         */
+        private boolean complete(Map<String, String> files) {
+            if (files == null || files.isEmpty()) {
+                abort();
+                return false;
+            }
+            long startNs = System.nanoTime();
+            boolean uploaded = false;
+            String manifestJson = null;
+            try {
+                // 生成期间已提交的内容直接拿到已有的任务；没提交过的（上一版本保留的文件、DONE 之后又输出的文件块）
+                // 大多已经存在，只需要确认
+                List<CompletableFuture<Boolean>> pending = new ArrayList<>(files.size());
+                for (String content : files.values()) {
+                    pending.add(ensureBlob(content == null ? "" : content));
+                }
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+                        .get(sourceUploadTimeoutSeconds, TimeUnit.SECONDS);
+                for (CompletableFuture<Boolean> future : pending) {
+                    if (!Boolean.TRUE.equals(future.getNow(false))) {
+                        return false;
+                    }
+                }
+                ProjectManifest manifest = ProjectManifest.from(ensureDirKey(baseKey), files);
+                manifest.setBlobPrefix(blobPrefix());
+                manifestJson = JSONUtil.toJsonStr(manifest);
+                uploaded = objectStore.putText(ProjectManifest.manifestKey(baseKey), manifestJson,
+                        "application/json; charset=utf-8").join();
+                return uploaded;
+            } catch (TimeoutException e) {
+                log.warn("等待源码上传超时 appId: {}, baseKey: {}", appId, baseKey);
+                abort();
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                return false;
+            } catch (Exception e) {
+                log.warn("源码上传失败 appId: {}, baseKey: {}, error: {}", appId, baseKey, e.getMessage());
+                return false;
+            } finally {
+                // 只统计生成结束后的等待时间，这部分才是用户真正感知到的上传耗时
+                long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+                appMetricsCollector.recordCosUpload(uploaded ? "success" : "failed", durationMs);
+                if (uploaded) {
+                    // 先写清单再移动指针，读到新指针时清单一定已经就绪
+                    stringRedisTemplate.opsForValue().set(String.format(MANIFEST_KEY, appId), manifestJson);
+                    String normalizedBaseKey = ensureDirKey(baseKey);
+                    stringRedisTemplate.opsForValue()
+                            .set(String.format("code:source:latest:%d", appId), normalizedBaseKey);
+                }
+            }
         }
-        return p;
+    }
+
+    /**
+     * 归一化相对路径，去掉前导 '/' 并检查是否合法
+     * @param relativePath
+     * @return
+     */
+    private String normalizeRelativePath(String relativePath) {
+        return MultiFileStreamParser.normalizeRelativePath(relativePath);
     }
     /**
      * 构建 COS 存储路径的基础目录,示例：source-code/1694582400000（appid）128000（当前时间戳）
@@ -296,6 +526,18 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
      * @return
      */
     private String buildSourceBaseKey(long appId) {
+        // 这里用时间戳作为一个版本号，避免覆盖历史源码
+        return String.format("%s/%d/%d", sourcePrefix(), appId, System.currentTimeMillis());
+    }
+
+    /**
+     * 内容对象前缀，所有应用共享，例如 /source-code/blobs/
+     */
+    private String blobPrefix() {
+        return sourcePrefix() + "/blobs/";
+    }
+
+    private String sourcePrefix() {
         String prefix = (sourceCosPrefix == null || sourceCosPrefix.isBlank()) ? "/source-code" : sourceCosPrefix.trim();
         // 替换 Windows 风格的路径分隔符为 '/'
         prefix = prefix.replace('\\', '/');
@@ -306,9 +548,7 @@ public class ProjectGenerationPostProcessorImpl implements ProjectGenerationPost
             // 把结尾的 '/' 去掉
             prefix = prefix.substring(0, prefix.length() - 1);
         }
-
-        // 这里用时间戳作为一个版本号，避免覆盖历史源码
-        return String.format("%s/%d/%d", prefix, appId, System.currentTimeMillis());
+        return prefix;
     }
     /**
      * 确保 COS 存储路径以 '/' 结尾
@@ -4,6 +4,7 @@ import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hao.haoaicode.exception.ErrorCode;
 import com.hao.haoaicode.exception.ThrowUtils;
+import com.hao.haoaicode.manager.AsyncObjectStore;
 import com.hao.haoaicode.manager.CosManager;
 import com.hao.haoaicode.model.entity.App;
 import com.hao.haoaicode.service.ScreenshotService;
@@ -24,6 +25,9 @@ public class ScreenshotServiceImpl implements ScreenshotService{
     @Resource
     private CosManager cosManager;
 
+    @Resource
+    private AsyncObjectStore objectStore;
+
     @Override
     public String generateAndUploadScreenshot(String webUrl) {
         ThrowUtils.throwIf(StrUtil.isBlank(webUrl), ErrorCode.PARAMS_ERROR, "网页URL不能为空");
@@ -61,7 +65,11 @@ public class ScreenshotServiceImpl implements ScreenshotService{
         // 生成 COS 对象键
         String fileName = UUID.randomUUID().toString().substring(0, 8) + "_compressed.jpg";
         String cosKey = generateScreenshotKey(fileName);
-        return cosManager.uploadFile(cosKey, screenshotFile);
+        if (!objectStore.putFile(cosKey, screenshotFile, "image/jpeg").join()) {
+            log.error("截图上传COS失败: {}", cosKey);
+            return null;
+        }
+        return cosManager.buildFileUrl(cosKey);
     }
 
     /**
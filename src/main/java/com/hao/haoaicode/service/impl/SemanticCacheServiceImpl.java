@@ -1,20 +1,56 @@
 package com.hao.haoaicode.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.github.jelmerk.hnswlib.core.DistanceFunctions;
+import com.github.jelmerk.hnswlib.core.Item;
+import com.github.jelmerk.hnswlib.core.SearchResult;
+import com.github.jelmerk.hnswlib.core.hnsw.HnswIndex;
+import com.hao.haoaicode.constant.AppConstant;
 import com.hao.haoaicode.mapper.AppCodeVersionMapper;
+import com.hao.haoaicode.mapper.AppMapper;
 import com.hao.haoaicode.model.SemanticCacheResult;
+import com.hao.haoaicode.model.entity.App;
 import com.hao.haoaicode.model.entity.AppCodeVersion;
 import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
 import com.hao.haoaicode.model.vo.AppCodeVersionVO;
 import com.hao.haoaicode.service.SemanticCacheService;
-import com.mybatisflex.core.query.QueryOrderBy;
 import com.mybatisflex.core.query.QueryWrapper;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 语义缓存
+ *
+ * 相近的需求（"做一个待办应用" / "帮我写个 todo list"）没必要每次都跑一分钟的生成：
+ * 1. 提示词用进程内的中文向量模型转成向量（归一化），和版本记录一起存到 app_code_version.promptEmbedding；
+ * 2. 向量放进内存里的 HNSW 近似最近邻索引，按 codeGenType 分区，查询是毫秒级；
+ * 3. 启动时在后台按 ID 分页扫描 app_code_version 重建索引，缺少向量（旧数据）的补算后回写，重建完成前查询照常进行（只是命中少）；
+ * 4. 只复用调用者自己的版本或精选应用的版本，别人的私有项目即使相似也不命中；
+ * 5. 命中后回表确认版本记录和所属应用仍然存在且仍可复用（已删除的应用、取消精选的应用不能被复用），已删除的从索引里移除。
+ */
 @Slf4j
 @Service
 public class SemanticCacheServiceImpl implements SemanticCacheService {
@@ -22,28 +58,153 @@ public class SemanticCacheServiceImpl implements SemanticCacheService {
     @Resource
     private AppCodeVersionMapper appCodeVersionMapper;
 
+    @Resource
+    private AppMapper appMapper;
+
+    @Resource(name = "promptEmbeddingModel")
+    private EmbeddingModel embeddingModel;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${code.semantic-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 相似度达到该值才算命中
+     */
+    @Value("${code.semantic-cache.hit-threshold:0.9}")
+    private double hitThreshold;
+
+    /**
+     * 每次查询取回的最近邻候选数（不可复用的候选会被跳过）
+     */
+    @Value("${code.semantic-cache.max-candidates:20}")
+    private int maxCandidates;
+
+    /**
+     * 每个分区索引的初始容量，写满后翻倍
+     */
+    @Value("${code.semantic-cache.index.initial-capacity:10000}")
+    private int initialCapacity;
+
+    /**
+     * HNSW 每个节点的邻居数
+     */
+    @Value("${code.semantic-cache.index.m:16}")
+    private int m;
+
+    /**
+     * 查询时的候选集大小，越大召回越准、越慢
+     */
+    @Value("${code.semantic-cache.index.ef:64}")
+    private int ef;
+
+    @Value("${code.semantic-cache.index.ef-construction:200}")
+    private int efConstruction;
+
+    /**
+     * 启动重建时每页读取的版本记录数
+     */
+    @Value("${code.semantic-cache.rebuild-page-size:500}")
+    private int rebuildPageSize;
+
+    // codeGenType -> 该类型的索引
+    private final Map<String, HnswIndex<Long, float[], PromptItem, Float>> partitions = new ConcurrentHashMap<>();
+
+    private ExecutorService rebuildExecutor;
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("app.semantic_cache.index_size", partitions,
+                        p -> p.values().stream().mapToInt(HnswIndex::size).sum())
+                .description("语义缓存索引中的向量数")
+                .register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "semantic-cache-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuildExecutor.execute(this::rebuild);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdownNow();
+        }
+    }
+
     @Override
-    public SemanticCacheResult checkPrompt(String prompt, Long appId, CodeGenTypeEnum codegenType) {
-        if (prompt == null || appId == null) {
-            return null;
+    public SemanticCacheResult checkPrompt(String prompt, Long appId, Long userId, CodeGenTypeEnum codegenType) {
+        if (!enabled || StrUtil.isBlank(prompt) || appId == null || userId == null || codegenType == null) {
+            return SemanticCacheResult.miss();
         }
-        return null;
+        HnswIndex<Long, float[], PromptItem, Float> index = partitions.get(codegenType.getValue());
+        if (index == null || index.size() == 0) {
+            return SemanticCacheResult.miss();
+        }
+        long start = System.nanoTime();
+        SemanticCacheResult result = SemanticCacheResult.miss();
+        try {
+            float[] vector = embed(prompt);
+            for (SearchResult<PromptItem, Float> candidate : index.findNearest(vector, maxCandidates)) {
+                // 向量已归一化，内积距离 = 1 - 余弦相似度
+                double score = 1 - candidate.distance();
+                if (score < hitThreshold) {
+                    break;
+                }
+                PromptItem item = candidate.item();
+                AppCodeVersion version = appCodeVersionMapper.selectOneById(item.id());
+                App sourceApp = version != null ? appMapper.selectOneById(version.getAppId()) : null;
+                if (sourceApp == null) {
+                    // 版本记录或所属应用已删除，不再复用
+                    index.remove(item.id(), item.version());
+                    continue;
+                }
+                if (!canReuse(sourceApp, userId)) {
+                    continue;
+                }
+                result.setHit(true);
+                result.setScore(score);
+                result.setCodeLocation(item.codeLocation());
+                result.setVersionId(item.id());
+                result.setSourceAppId(item.appId());
+                break;
+            }
+        } catch (Exception e) {
+            log.warn("语义缓存查询失败 appId={}, error={}", appId, e.getMessage());
+        }
+        Timer.builder("app.semantic_cache.lookup")
+                .tag("type", codegenType.getValue())
+                .tag("result", result.isHit() ? "hit" : "miss")
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (result.isHit()) {
+            DistributionSummary.builder("app.semantic_cache.hit_score")
+                    .tag("type", codegenType.getValue())
+                    .register(meterRegistry)
+                    .record(result.getScore());
+            log.info("语义缓存命中 appId={}, score={}, versionId={}, ready={}",
+                    appId, String.format("%.4f", result.getScore()), result.getVersionId(), ready);
+        }
+        return result;
     }
+
     /**
-     * 保存语义缓存
-     * @param prompt
-     * @param appId
-     * @param codegenType
-     * @param codeLocation
-     * @param embedding
+     * 保存语义缓存：新增版本记录（附带提示词向量），并加入索引
      */
     @Override
     public void savaCache(String prompt,
                           Long appId,
                           Long userId,
                           CodeGenTypeEnum codegenType,
-                          String codeLocation,
-                          double embedding) {
+                          String codeLocation) {
         if (prompt == null || appId == null || codeLocation == null) {
             return;
         }
@@ -56,27 +217,64 @@ public class SemanticCacheServiceImpl implements SemanticCacheService {
         } catch (Exception e) {
             log.warn("重置 app 当前版本标记失败 appId={}, error={}", appId, e.getMessage());
         }
+        float[] vector = null;
+        if (enabled) {
+            try {
+                vector = embed(prompt);
+            } catch (Exception e) {
+                // 向量计算失败不影响版本记录，下次启动重建时补算
+                log.warn("计算提示词向量失败 appId={}, error={}", appId, e.getMessage());
+            }
+        }
         AppCodeVersion record = AppCodeVersion.builder()
                 .appId(appId)
                 .userId(userId)
                 .codeGenType(codegenType != null ? codegenType.getValue() : null)
                 .prompt(prompt)
-                .promptEmbedding(null)
+                .promptEmbedding(vector != null ? encodeVector(vector) : null)
                 .codeLocation(codeLocation)
                 .deployKey(null)
                 .deployStatus(0)
                 .modelName(null)
-                .score(embedding)
                 .isCurrent(1)
                 .createTime(LocalDateTime.now())
                 .build();
         appCodeVersionMapper.insert(record);
+        if (vector != null && record.getCodeGenType() != null) {
+            addToIndex(record.getCodeGenType(), new PromptItem(record.getId(), vector, appId, codeLocation));
+        }
         log.info("记录语义缓存并新增版本记录 appId={}, type={}, location={}", appId,
                 codegenType != null ? codegenType.getValue() : null,
                 codeLocation);
     }
 
 
+    /**
+     * 删除应用时调用：逻辑删除该应用的版本记录，并把它们从索引里移除
+     */
+    @Override
+    public void removeAppVersions(Long appId) {
+        if (appId == null) {
+            return;
+        }
+        QueryWrapper wrapper = QueryWrapper.create()
+                .select(AppCodeVersion::getId, AppCodeVersion::getCodeGenType)
+                .eq(AppCodeVersion::getAppId, appId);
+        List<AppCodeVersion> versions = appCodeVersionMapper.selectListByQuery(wrapper);
+        if (versions.isEmpty()) {
+            return;
+        }
+        appCodeVersionMapper.deleteByQuery(QueryWrapper.create().eq(AppCodeVersion::getAppId, appId));
+        for (AppCodeVersion version : versions) {
+            HnswIndex<Long, float[], PromptItem, Float> index =
+                    version.getCodeGenType() != null ? partitions.get(version.getCodeGenType()) : null;
+            if (index != null) {
+                index.get(version.getId()).ifPresent(item -> index.remove(item.id(), item.version()));
+            }
+        }
+        log.info("删除应用的版本记录和语义缓存索引 appId={}, 版本数={}", appId, versions.size());
+    }
+
     @Override
     public List<AppCodeVersionVO> getAppVersions(Long appId) {
         if (appId == null || appId <= 0) {
@@ -112,5 +310,148 @@ public class SemanticCacheServiceImpl implements SemanticCacheService {
         return voList;
     }
 
+    /**
+     * 只能复用自己的应用或精选应用的代码
+     */
+    private static boolean canReuse(App sourceApp, Long userId) {
+        return userId.equals(sourceApp.getUserId())
+                || AppConstant.GOOD_APP_PRIORITY.equals(sourceApp.getPriority());
+    }
+
+    /**
+     * 按 ID 分页扫描版本记录重建索引，缺少向量或维度不符的补算并回写
+     */
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        long lastId = 0;
+        int indexed = 0;
+        int backfilled = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                QueryWrapper wrapper = QueryWrapper.create()
+                        .select(AppCodeVersion::getId, AppCodeVersion::getAppId, AppCodeVersion::getCodeGenType,
+                                AppCodeVersion::getPrompt, AppCodeVersion::getPromptEmbedding,
+                                AppCodeVersion::getCodeLocation)
+                        .gt(AppCodeVersion::getId, lastId)
+                        .isNotNull(AppCodeVersion::getCodeLocation)
+                        .orderBy(AppCodeVersion::getId, true)
+                        .limit(rebuildPageSize);
+                List<AppCodeVersion> page = appCodeVersionMapper.selectListByQuery(wrapper);
+                if (page.isEmpty()) {
+                    break;
+                }
+                lastId = page.get(page.size() - 1).getId();
+                List<AppCodeVersion> missing = new ArrayList<>();
+                for (AppCodeVersion version : page) {
+                    if (StrUtil.isBlank(version.getPrompt()) || StrUtil.isBlank(version.getCodeGenType())) {
+                        continue;
+                    }
+                    float[] vector = decodeVector(version.getPromptEmbedding());
+                    if (vector == null || vector.length != embeddingModel.dimension()) {
+                        missing.add(version);
+                        continue;
+                    }
+                    addToIndex(version.getCodeGenType(), toItem(version, vector));
+                    indexed++;
+                }
+                if (!missing.isEmpty()) {
+                    List<TextSegment> segments = missing.stream().map(v -> TextSegment.from(v.getPrompt())).toList();
+                    List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+                    for (int i = 0; i < missing.size(); i++) {
+                        AppCodeVersion version = missing.get(i);
+                        float[] vector = normalize(embeddings.get(i).vector());
+                        AppCodeVersion update = new AppCodeVersion();
+                        update.setId(version.getId());
+                        update.setPromptEmbedding(encodeVector(vector));
+                        appCodeVersionMapper.update(update);
+                        addToIndex(version.getCodeGenType(), toItem(version, vector));
+                        indexed++;
+                        backfilled++;
+                    }
+                }
+            }
+            ready = true;
+            log.info("语义缓存索引重建完成, 向量数: {}, 补算: {}, 耗时 {} ms",
+                    indexed, backfilled, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("语义缓存索引重建失败, 已加载 {} 条: {}", indexed, e.getMessage(), e);
+        }
+    }
+
+    private void addToIndex(String codeGenType, PromptItem item) {
+        HnswIndex<Long, float[], PromptItem, Float> index = partitions.computeIfAbsent(codeGenType, type ->
+                HnswIndex.newBuilder(embeddingModel.dimension(), DistanceFunctions.FLOAT_INNER_PRODUCT, initialCapacity)
+                        .withM(m)
+                        .withEf(ef)
+                        .withEfConstruction(efConstruction)
+                        .withRemoveEnabled()
+                        .build());
+        // 写入很少（每次生成一条），串行化后扩容和写入不会交错
+        synchronized (index) {
+            if (index.size() >= index.getMaxItemCount()) {
+                index.resize(index.getMaxItemCount() * 2);
+            }
+            index.add(item);
+        }
+    }
+
+    private float[] embed(String prompt) {
+        return normalize(embeddingModel.embed(prompt).content().vector());
+    }
+
+    private static PromptItem toItem(AppCodeVersion version, float[] vector) {
+        return new PromptItem(version.getId(), vector, version.getAppId(), version.getCodeLocation());
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] * scale;
+        }
+        return result;
+    }
+
+    /**
+     * 向量存储格式：float32 小端序的 Base64（512 维约 2.7 KB）
+     */
+    static String encodeVector(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
 
+    static float[] decodeVector(String value) {
+        if (StrUtil.isBlank(value)) {
+            return null;
+        }
+        try {
+            byte[] bytes = Base64.getDecoder().decode(value);
+            if (bytes.length == 0 || bytes.length % Float.BYTES != 0) {
+                return null;
+            }
+            float[] vector = new float[bytes.length / Float.BYTES];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+            return vector;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 索引中的一条提示词向量
+     */
+    private record PromptItem(Long id, float[] vector, Long appId, String codeLocation) implements Item<Long, float[]> {
+        @Override
+        public int dimensions() {
+            return vector.length;
+        }
+    }
 }
@@ -0,0 +1,116 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.config.CosClientConfig;
+import com.hao.haoaicode.manager.AsyncObjectStore;
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.model.AbortMultipartUploadRequest;
+import com.qcloud.cos.model.CompleteMultipartUploadRequest;
+import com.qcloud.cos.model.CompleteMultipartUploadResult;
+import com.qcloud.cos.model.InitiateMultipartUploadRequest;
+import com.qcloud.cos.model.InitiateMultipartUploadResult;
+import com.qcloud.cos.model.PutObjectRequest;
+import com.qcloud.cos.model.PutObjectResult;
+import com.qcloud.cos.model.UploadPartRequest;
+import com.qcloud.cos.model.UploadPartResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AsyncObjectStoreTest {
+
+    private COSClient cosClient;
+    private AsyncObjectStore store;
+
+    @BeforeEach
+    void setUp() {
+        cosClient = mock(COSClient.class);
+        CosClientConfig config = new CosClientConfig();
+        config.setBucket("test-bucket");
+        store = new AsyncObjectStore();
+        ReflectionTestUtils.setField(store, "cosClient", cosClient);
+        ReflectionTestUtils.setField(store, "cosClientConfig", config);
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "maxConcurrency", 2);
+        ReflectionTestUtils.setField(store, "multipartThresholdBytes", 10L);
+        ReflectionTestUtils.setField(store, "partSizeBytes", 4L);
+        store.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    void concurrentRequestsAreBounded() {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        when(cosClient.putObject(any(PutObjectRequest.class))).thenAnswer(invocation -> {
+            peak.accumulateAndGet(current.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            current.decrementAndGet();
+            return new PutObjectResult();
+        });
+        List<CompletableFuture<Boolean>> puts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            puts.add(store.putText("/a/" + i + ".txt", "x", "text/plain"));
+        }
+        puts.forEach(put -> assertTrue(put.join()));
+        assertEquals(2, peak.get());
+        verify(cosClient, times(10)).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    void largeObjectUsesMultipartUpload() {
+        InitiateMultipartUploadResult init = new InitiateMultipartUploadResult();
+        init.setUploadId("upload-1");
+        when(cosClient.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(init);
+        when(cosClient.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag-" + request.getPartNumber());
+            return result;
+        });
+        when(cosClient.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(new CompleteMultipartUploadResult());
+
+        assertTrue(store.putBytes("/big.bin", new byte[11], "application/octet-stream").join());
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(cosClient).completeMultipartUpload(complete.capture());
+        assertEquals("big.bin", complete.getValue().getKey());
+        assertEquals(3, complete.getValue().getPartETags().size());
+        verify(cosClient, never()).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    void failedPartAbortsUpload() {
+        InitiateMultipartUploadResult init = new InitiateMultipartUploadResult();
+        init.setUploadId("upload-2");
+        when(cosClient.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(init);
+        when(cosClient.uploadPart(any(UploadPartRequest.class))).thenThrow(new RuntimeException("network"));
+
+        assertFalse(store.putBytes("big.bin", new byte[11], null).join());
+        verify(cosClient).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(cosClient, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+}
@@ -0,0 +1,89 @@
+package com.hao.haoaicode;
+
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.codec.ChatBinaryCodec;
+import com.hao.haoaicode.codec.DeflatePayloadCodec;
+import com.hao.haoaicode.codec.PayloadCompressor;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatBinaryCodecTest {
+
+    @Test
+    void roundTripsMessagesAndDto() {
+        ToolExecutionRequest request = ToolExecutionRequest.builder()
+                .id("call_1").name("writeFile").arguments("{\"path\":\"index.html\"}").build();
+        List<ChatMessage> messages = List.of(
+                SystemMessage.from("系统提示词"),
+                UserMessage.from("alice", "写一个待办事项应用 🎉"),
+                AiMessage.from(List.of(request)),
+                ToolExecutionResultMessage.from(request, "ok"),
+                AiMessage.from("完成")
+        );
+        assertEquals(messages, ChatBinaryCodec.decodeMessages(ChatBinaryCodec.encodeMessages(messages)));
+        for (ChatMessage message : messages) {
+            assertEquals(message, ChatBinaryCodec.decodeMessage(ChatBinaryCodec.encodeMessage(message)));
+        }
+
+        ChatHistoryDTO dto = new ChatHistoryDTO();
+        dto.setId(-5L);
+        dto.setAppId(1983457289347500000L);
+        dto.setMessageType("user");
+        dto.setMessage("你好");
+        dto.setCreateTime(LocalDateTime.of(2026, 10, 16, 12, 30, 1, 123456789));
+        ChatHistoryDTO decoded = ChatBinaryCodec.decodeDto(ChatBinaryCodec.encodeDto(dto));
+        assertEquals(JSONUtil.toJsonStr(dto), JSONUtil.toJsonStr(decoded));
+        assertNull(decoded.getUserId());
+        assertNull(decoded.getContentRef());
+    }
+
+    @Test
+    void decodesLegacyJsonAndCompressedBinary() {
+        // 升级前写入的 JSON 和压缩 JSON
+        AiMessage ai = AiMessage.from("旧数据");
+        byte[] legacy = ChatMessageSerializer.messageToJson(ai).getBytes(StandardCharsets.UTF_8);
+        assertEquals(ai, ChatBinaryCodec.decodeMessage(legacy));
+
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            code.append("<div class=\"item-").append(i).append("\">{{ message }}</div>\n");
+        }
+        ChatHistoryDTO dto = new ChatHistoryDTO();
+        dto.setAppId(1L);
+        dto.setMessage(code.toString());
+        String compressedJson = PayloadCompressor.encode(JSONUtil.toJsonStr(dto), new DeflatePayloadCodec(6), 512);
+        assertTrue(PayloadCompressor.isEncoded(compressedJson));
+        assertEquals(dto.getMessage(),
+                ChatBinaryCodec.decodeDto(compressedJson.getBytes(StandardCharsets.UTF_8)).getMessage());
+
+        PayloadCompressor compressor = new PayloadCompressor();
+        ReflectionTestUtils.setField(compressor, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(compressor, "enabled", true);
+        ReflectionTestUtils.setField(compressor, "thresholdBytes", 512);
+        ReflectionTestUtils.setField(compressor, "algorithm", "deflate");
+        ReflectionTestUtils.setField(compressor, "level", 6);
+        compressor.init();
+        byte[] binary = ChatBinaryCodec.encodeDto(dto);
+        byte[] compressed = compressor.encodeBinary(binary, "test");
+        assertEquals(ChatBinaryCodec.FORMAT_V1_DEFLATE, compressed[0]);
+        assertTrue(compressed.length * 3 < binary.length);
+        assertEquals(dto.getMessage(), ChatBinaryCodec.decodeDto(compressed).getMessage());
+    }
+}
@@ -0,0 +1,201 @@
+package com.hao.haoaicode;
+
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.buffer.ChatHistoryHotTail;
+import com.hao.haoaicode.mapper.ChatHistoryMapper;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import com.hao.haoaicode.model.entity.App;
+import com.hao.haoaicode.model.entity.ChatHistory;
+import com.hao.haoaicode.model.entity.User;
+import com.hao.haoaicode.service.AppService;
+import com.hao.haoaicode.service.impl.ChatHistoryServiceImpl;
+import com.mybatisflex.core.paginate.Page;
+import com.mybatisflex.core.query.QueryWrapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatHistoryHotTailTest {
+
+    private static final long APP_ID = 1L;
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 1, 1, 10, 0, 0);
+
+    private final Map<String, LinkedList<String>> redis = new ConcurrentHashMap<>();
+    /**
+     * 已刷盘的消息（模拟 MySQL，createTime 精度为秒）
+     */
+    private final List<ChatHistory> mysql = new ArrayList<>();
+    private final List<String> executedSql = new ArrayList<>();
+    private StringRedisTemplate redisTemplate;
+    private ChatHistoryHotTail hotTail;
+    private ChatHistoryServiceImpl service;
+    private User owner;
+
+    /**
+     * 游标由测试在每次查询前设置，模拟 MySQL 按 (createTime, id) 键集过滤
+     */
+    private LocalDateTime cursorTime;
+    private Long cursorId;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenAnswer(invocation -> {
+            String key = invocation.<List<String>>getArgument(1).get(0);
+            LinkedList<String> list = redis.computeIfAbsent(key, k -> new LinkedList<>());
+            list.addFirst(invocation.getArgument(2));
+            int size = Integer.parseInt(invocation.getArgument(3));
+            while (list.size() > size) {
+                list.removeLast();
+            }
+            return 1L;
+        });
+        ListOperations<String, String> listOps = mock(ListOperations.class);
+        when(listOps.range(anyString(), anyLong(), anyLong()))
+                .thenAnswer(invocation -> redis.containsKey(invocation.<String>getArgument(0))
+                        ? new ArrayList<>(redis.get(invocation.<String>getArgument(0))) : null);
+        when(redisTemplate.opsForList()).thenReturn(listOps);
+        when(redisTemplate.delete(anyString())).thenAnswer(invocation -> redis.remove(invocation.<String>getArgument(0)) != null);
+
+        hotTail = new ChatHistoryHotTail();
+        ReflectionTestUtils.setField(hotTail, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(hotTail, "tailSize", 3);
+        ReflectionTestUtils.setField(hotTail, "ttlSeconds", 60L);
+
+        ChatHistoryMapper mapper = mock(ChatHistoryMapper.class);
+        when(mapper.selectListByQuery(any(QueryWrapper.class))).thenAnswer(invocation -> {
+            executedSql.add(invocation.<QueryWrapper>getArgument(0).toSQL());
+            return mysql.stream()
+                    .filter(row -> cursorTime == null || row.getCreateTime().isBefore(cursorTime)
+                            || row.getCreateTime().isEqual(cursorTime) && (cursorId == null || row.getId() < cursorId))
+                    .sorted(ChatHistoryHotTail.NEWEST_FIRST)
+                    .limit(2)
+                    .toList();
+        });
+
+        owner = new User();
+        owner.setId(7L);
+        owner.setUserRole("user");
+        App app = new App();
+        app.setId(APP_ID);
+        app.setUserId(owner.getId());
+        AppService appService = mock(AppService.class);
+        when(appService.getById(APP_ID)).thenReturn(app);
+
+        service = new ChatHistoryServiceImpl();
+        ReflectionTestUtils.setField(service, "mapper", mapper);
+        ReflectionTestUtils.setField(service, "appService", appService);
+        ReflectionTestUtils.setField(service, "chatHistoryHotTail", hotTail);
+    }
+
+    private ChatHistoryDTO message(long id, LocalDateTime createTime) {
+        return ChatHistoryDTO.builder()
+                .id(id)
+                .appId(APP_ID)
+                .userId(owner.getId())
+                .messageType("user")
+                .message("消息" + id)
+                .createTime(createTime)
+                .build();
+    }
+
+    private ChatHistory row(ChatHistoryDTO dto) {
+        return ChatHistory.builder()
+                .id(dto.getId())
+                .appId(dto.getAppId())
+                .userId(dto.getUserId())
+                .messageType(dto.getMessageType())
+                .message(dto.getMessage())
+                .createTime(dto.getCreateTime())
+                .build();
+    }
+
+    private List<Long> ids(Page<ChatHistory> page) {
+        return page.getRecords().stream().map(ChatHistory::getId).toList();
+    }
+
+    private Page<ChatHistory> page(LocalDateTime lastCreateTime, Long lastId) {
+        cursorTime = lastCreateTime;
+        cursorId = lastId;
+        return service.listAppChatHistoryByPage(APP_ID, 2, lastCreateTime, lastId, owner);
+    }
+
+    @Test
+    void pagesMergeTailAndMysqlAcrossSameSecondRows() {
+        // 3、4 两条消息落在同一秒；1~5 已刷盘，6 还在缓冲队列里，只在热尾中
+        List<ChatHistoryDTO> messages = List.of(
+                message(1, T0),
+                message(2, T0.plusSeconds(1)),
+                message(3, T0.plusSeconds(2)),
+                message(4, T0.plusSeconds(2)),
+                message(5, T0.plusSeconds(3)),
+                message(6, T0.plusSeconds(4)));
+        messages.forEach(hotTail::append);
+        messages.stream().limit(5).map(this::row).forEach(mysql::add);
+
+        List<Long> seen = new ArrayList<>();
+        Page<ChatHistory> page = page(null, null);
+        // 热尾（4、5、6）够一页，不查 MySQL
+        assertEquals(List.of(6L, 5L), ids(page));
+        assertTrue(executedSql.isEmpty());
+        assertEquals(Page.INIT_VALUE, page.getTotalRow());
+        assertEquals(Page.INIT_VALUE, page.getTotalPage());
+        seen.addAll(ids(page));
+        while (page.getRecords().size() == 2) {
+            ChatHistory last = page.getRecords().get(1);
+            page = page(last.getCreateTime(), last.getId());
+            seen.addAll(ids(page));
+        }
+        // 4 同时在热尾和 MySQL 中只出现一次；3、4 之间的分页切点不丢不重
+        assertEquals(List.of(6L, 5L, 4L, 3L, 2L, 1L), seen);
+        assertTrue(executedSql.get(0).contains("(createTime < '2026-01-01 10:00:03' OR "
+                + "(createTime = '2026-01-01 10:00:03' AND id < 5))"), executedSql.get(0));
+        assertTrue(executedSql.get(0).endsWith("ORDER BY createTime DESC, id DESC LIMIT 2"), executedSql.get(0));
+    }
+
+    @Test
+    void cursorInsideSameSecondUsesId() {
+        hotTail.append(message(3, T0));
+        hotTail.append(message(4, T0));
+        hotTail.append(message(5, T0));
+        assertEquals(List.of(4L, 3L), hotTail.listBefore(APP_ID, T0, 5L).stream().map(ChatHistory::getId).toList());
+        assertEquals(List.of(), hotTail.listBefore(APP_ID, T0, null));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failedAppendEvictsTail() {
+        hotTail.append(message(1, T0));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any()))
+                .thenThrow(new RuntimeException("redis down"));
+        hotTail.append(message(2, T0.plusSeconds(1)));
+
+        verify(redisTemplate).delete("chat:history:tail:" + APP_ID);
+        assertTrue(hotTail.listBefore(APP_ID, null, null).isEmpty());
+        // 热尾被清空后查询完全回落到 MySQL，不会只返回热尾里残缺的部分
+        mysql.add(row(message(1, T0)));
+        mysql.add(row(message(2, T0.plusSeconds(1))));
+        assertEquals(List.of(2L, 1L), ids(page(null, null)));
+    }
+}
@@ -0,0 +1,68 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.ai.model.MultiFileCodeResult;
+import com.hao.haoaicode.parser.CodeFenceStreamParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CodeFenceStreamParserTest {
+
+    private static final String RESPONSE = """
+            下面是网页代码：
+            ```html
+            <!DOCTYPE html>
+            <html><body><h1>Hi</h1></body></html>
+            ```
+            样式：
+            ```CSS
+            h1 { color: blue; }
+            ```
+            ```python
+            print("ignored")
+            ```
+            ```javascript
+            console.log(`a`);
+            ```
+            ```js
+            console.log('second js block is ignored');
+            ```
+            完成！
+            """;
+
+    @Test
+    void parseWholeText() {
+        MultiFileCodeResult result = CodeFenceStreamParser.parseMultiFile(RESPONSE);
+        assertEquals("<!DOCTYPE html>\n<html><body><h1>Hi</h1></body></html>", result.getHtmlCode());
+        assertEquals("h1 { color: blue; }", result.getCssCode());
+        assertEquals("console.log(`a`);", result.getJsCode());
+    }
+
+    @Test
+    void blocksCompleteAsChunksArrive() {
+        CodeFenceStreamParser parser = new CodeFenceStreamParser();
+        Map<String, String> closed = new LinkedHashMap<>();
+        parser.setBlockListener(closed::put);
+        // 逐字符喂入，模拟围栏被任意切断
+        for (int i = 0; i < RESPONSE.length(); i++) {
+            parser.feed(String.valueOf(RESPONSE.charAt(i)));
+        }
+        parser.finish();
+        assertEquals(Map.of(
+                CodeFenceStreamParser.LANG_HTML, "<!DOCTYPE html>\n<html><body><h1>Hi</h1></body></html>",
+                CodeFenceStreamParser.LANG_CSS, "h1 { color: blue; }",
+                CodeFenceStreamParser.LANG_JS, "console.log(`a`);"), closed);
+        assertEquals(RESPONSE, parser.getRawText());
+    }
+
+    @Test
+    void unterminatedBlockIsIgnoredAndHtmlFallsBackToWholeText() {
+        String text = "<html><body>no fence</body></html>\n```css\nh1 {}";
+        assertNull(CodeFenceStreamParser.parseMultiFile(text).getCssCode());
+        assertEquals(text, CodeFenceStreamParser.parseHtml(text).getHtmlCode());
+    }
+}
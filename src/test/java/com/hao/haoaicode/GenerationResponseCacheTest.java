@@ -0,0 +1,312 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.ai.AiCodeGeneratorServiceFactory;
+import com.hao.haoaicode.ai.cache.GenerationResponseCache;
+import com.hao.haoaicode.codec.PayloadCompressor;
+import com.hao.haoaicode.core.pipeline.PostGenerationPipeline;
+import com.hao.haoaicode.model.enums.CodeGenTypeEnum;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.tool.ToolExecution;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GenerationResponseCacheTest {
+
+    private static final String PROMPT = "做一个待办应用";
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+    private final Map<Object, ChatMemory> memories = new ConcurrentHashMap<>();
+    private StreamingChatModel model;
+    private GenerationResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        model = mock(StreamingChatModel.class);
+        when(model.defaultRequestParameters()).thenReturn(ChatRequestParameters.builder().temperature(0.2).build());
+        cache = newCache(200_000, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private GenerationResponseCache newCache(int maxChars, boolean freshOnly) {
+        AiCodeGeneratorServiceFactory factory = mock(AiCodeGeneratorServiceFactory.class);
+        when(factory.getChatMemory(any(), any())).thenAnswer(invocation -> memories.computeIfAbsent(
+                invocation.getArgument(1), id -> MessageWindowChatMemory.withMaxMessages(20)));
+
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(ops.get(anyString())).thenAnswer(invocation -> redis.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> redis.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(ops).set(anyString(), anyString(), any(Duration.class));
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+
+        // 流水线同步执行，store 之后立刻能读到
+        PostGenerationPipeline pipeline = mock(PostGenerationPipeline.class);
+        when(pipeline.run(any(), any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        PayloadCompressor compressor = new PayloadCompressor();
+        ReflectionTestUtils.setField(compressor, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(compressor, "enabled", true);
+        ReflectionTestUtils.setField(compressor, "thresholdBytes", 512);
+        ReflectionTestUtils.setField(compressor, "algorithm", "deflate");
+        ReflectionTestUtils.setField(compressor, "level", 6);
+        compressor.init();
+
+        GenerationResponseCache responseCache = new GenerationResponseCache();
+        ReflectionTestUtils.setField(responseCache, "aiCodeGeneratorServiceFactory", factory);
+        ReflectionTestUtils.setField(responseCache, "reasoningStreamingChatModel", model);
+        ReflectionTestUtils.setField(responseCache, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(responseCache, "payloadCompressor", compressor);
+        ReflectionTestUtils.setField(responseCache, "postGenerationPipeline", pipeline);
+        ReflectionTestUtils.setField(responseCache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(responseCache, "enabled", true);
+        ReflectionTestUtils.setField(responseCache, "replaySpeed", 0d);
+        ReflectionTestUtils.setField(responseCache, "ttlHours", 1L);
+        ReflectionTestUtils.setField(responseCache, "maxChars", maxChars);
+        ReflectionTestUtils.setField(responseCache, "freshOnly", freshOnly);
+        responseCache.init();
+        return responseCache;
+    }
+
+    private String key(GenerationResponseCache responseCache, String prompt, List<ChatMessage> window) {
+        return ReflectionTestUtils.invokeMethod(responseCache, "key", CodeGenTypeEnum.HTML, prompt, window);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void keyIsStableAndCoversEveryInput() {
+        List<ChatMessage> window = List.of();
+        String key = key(cache, PROMPT, window);
+        // 另一个实例（相当于重启后）算出同样的 key
+        GenerationResponseCache another = newCache(200_000, true);
+        assertEquals(key, key(another, PROMPT, window));
+        another.shutdown();
+
+        assertNotEquals(key, key(cache, PROMPT + "。", window));
+        assertNotEquals(key, key(cache, PROMPT, List.of(UserMessage.from("上一轮"), AiMessage.from("好的"))));
+
+        when(model.defaultRequestParameters()).thenReturn(ChatRequestParameters.builder().temperature(0.7).build());
+        assertNotEquals(key, key(cache, PROMPT, window));
+        when(model.defaultRequestParameters()).thenReturn(ChatRequestParameters.builder().temperature(0.2).build());
+
+        Map<CodeGenTypeEnum, String> fingerprints = (Map<CodeGenTypeEnum, String>)
+                ReflectionTestUtils.getField(cache, "systemPromptFingerprints");
+        fingerprints.put(CodeGenTypeEnum.HTML, fingerprints.get(CodeGenTypeEnum.HTML) + "-changed");
+        assertNotEquals(key, key(cache, PROMPT, window));
+    }
+
+    @Test
+    void storesCompletedGenerationAndReplaysItInOrder() throws Exception {
+        AtomicInteger generations = new AtomicInteger();
+        Collected first = run(cache.wrap(CodeGenTypeEnum.HTML, "s1", PROMPT, () -> {
+            generations.incrementAndGet();
+            return new FakeTokenStream(List.of("<html>", "<body>", "</body></html>"), FinishReason.STOP, false);
+        }));
+        assertEquals(List.of("<html>", "<body>", "</body></html>"), first.chunks);
+        assertEquals(1, redis.size());
+
+        // 另一个会话同样的首轮请求：不调用模型，回放录制的增量
+        Collected replayed = run(cache.wrap(CodeGenTypeEnum.HTML, "s2", PROMPT, () -> {
+            generations.incrementAndGet();
+            return new FakeTokenStream(List.of("x"), FinishReason.STOP, false);
+        }));
+        assertEquals(1, generations.get());
+        assertEquals(first.chunks, replayed.chunks);
+        assertEquals("<html><body></body></html>", replayed.complete.aiMessage().text());
+
+        List<ChatMessageType> types = memories.get("s2").messages().stream().map(ChatMessage::type).toList();
+        assertEquals(List.of(ChatMessageType.SYSTEM, ChatMessageType.USER, ChatMessageType.AI), types);
+        assertEquals("<html><body></body></html>", ((AiMessage) memories.get("s2").messages().get(2)).text());
+    }
+
+    @Test
+    void skipsTruncatedCancelledAndOversizedRecordings() throws Exception {
+        run(cache.wrap(CodeGenTypeEnum.HTML, "s1", PROMPT,
+                () -> new FakeTokenStream(List.of("<html>"), FinishReason.LENGTH, false)));
+        run(cache.wrap(CodeGenTypeEnum.HTML, "s2", PROMPT,
+                () -> new FakeTokenStream(List.of("<html>"), FinishReason.STOP, true)));
+        assertTrue(redis.isEmpty());
+
+        GenerationResponseCache small = newCache(5, true);
+        run(small.wrap(CodeGenTypeEnum.HTML, "s3", PROMPT,
+                () -> new FakeTokenStream(List.of("<html>", "</html>"), FinishReason.STOP, false)));
+        small.shutdown();
+        assertTrue(redis.isEmpty());
+    }
+
+    @Test
+    void cancelStopsReplay() throws Exception {
+        run(cache.wrap(CodeGenTypeEnum.HTML, "s1", PROMPT,
+                () -> new FakeTokenStream(List.of("a", "b", "c", "d"), FinishReason.STOP, false)));
+
+        List<String> chunks = new ArrayList<>();
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+        TokenStream replay = cache.wrap(CodeGenTypeEnum.HTML, "s2", PROMPT, () -> {
+            throw new AssertionError("命中时不应调用模型");
+        });
+        replay.onPartialResponseWithContext((partial, context) -> {
+                    chunks.add(partial.text());
+                    if (chunks.size() == 2) {
+                        context.streamingHandle().cancel();
+                        cancelled.countDown();
+                    }
+                })
+                .onCompleteResponse(response -> completed.incrementAndGet())
+                .onError(e -> { })
+                .start();
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(List.of("a", "b"), chunks);
+        assertEquals(0, completed.get());
+        // 被取消的回放不写入 AI 消息
+        assertEquals(2, memories.get("s2").messages().size());
+    }
+
+    private static Collected run(TokenStream stream) throws InterruptedException {
+        Collected collected = new Collected();
+        CountDownLatch done = new CountDownLatch(1);
+        stream.onPartialResponse(collected.chunks::add)
+                .onCompleteResponse(response -> {
+                    collected.complete = response;
+                    done.countDown();
+                })
+                .onError(e -> done.countDown())
+                .start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return collected;
+    }
+
+    private static final class Collected {
+        private final List<String> chunks = new ArrayList<>();
+        private ChatResponse complete;
+    }
+
+    /**
+     * 同步发出固定增量的模型流，cancelled 为 true 时模拟生成过程中被取消（仍然触发完成回调）
+     */
+    private static final class FakeTokenStream implements TokenStream, StreamingHandle {
+        private final List<String> chunks;
+        private final FinishReason finishReason;
+        private final boolean cancelDuringStream;
+        private BiConsumer<PartialResponse, PartialResponseContext> partialHandler;
+        private Consumer<ChatResponse> completeHandler;
+        private boolean cancelled;
+
+        FakeTokenStream(List<String> chunks, FinishReason finishReason, boolean cancelDuringStream) {
+            this.chunks = chunks;
+            this.finishReason = finishReason;
+            this.cancelDuringStream = cancelDuringStream;
+        }
+
+        @Override
+        public TokenStream onPartialResponse(Consumer<String> consumer) {
+            return onPartialResponseWithContext((partial, context) -> consumer.accept(partial.text()));
+        }
+
+        @Override
+        public TokenStream onPartialResponseWithContext(BiConsumer<PartialResponse, PartialResponseContext> consumer) {
+            this.partialHandler = consumer;
+            return this;
+        }
+
+        @Override
+        public TokenStream onRetrieved(Consumer<List<Content>> consumer) {
+            return this;
+        }
+
+        @Override
+        public TokenStream onToolExecuted(Consumer<ToolExecution> consumer) {
+            return this;
+        }
+
+        @Override
+        public TokenStream onCompleteResponse(Consumer<ChatResponse> consumer) {
+            this.completeHandler = consumer;
+            return this;
+        }
+
+        @Override
+        public TokenStream onError(Consumer<Throwable> consumer) {
+            return this;
+        }
+
+        @Override
+        public TokenStream ignoreErrors() {
+            return this;
+        }
+
+        @Override
+        public void start() {
+            StringBuilder full = new StringBuilder();
+            for (String chunk : chunks) {
+                full.append(chunk);
+                partialHandler.accept(new PartialResponse(chunk), new PartialResponseContext(this));
+                if (cancelDuringStream) {
+                    cancel();
+                }
+            }
+            completeHandler.accept(ChatResponse.builder()
+                    .aiMessage(AiMessage.from(full.toString()))
+                    .finishReason(finishReason)
+                    .build());
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.core.pipeline.GenerationSingleFlight;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class GenerationSingleFlightTest {
+
+    private GenerationSingleFlight newSingleFlight() {
+        GenerationSingleFlight singleFlight = new GenerationSingleFlight();
+        ReflectionTestUtils.setField(singleFlight, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(singleFlight, "enabled", true);
+        ReflectionTestUtils.setField(singleFlight, "graceSeconds", 5L);
+        singleFlight.init();
+        return singleFlight;
+    }
+
+    @Test
+    void laterIdenticalRequestReplaysAndSharesOneGeneration() {
+        GenerationSingleFlight singleFlight = newSingleFlight();
+        AtomicInteger generations = new AtomicInteger();
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        String key = GenerationSingleFlight.key(1L, "  做一个  待办应用 ");
+        assertEquals(key, GenerationSingleFlight.key(1L, "做一个 待办应用"));
+        assertNotEquals(key, GenerationSingleFlight.key(2L, "做一个 待办应用"));
+
+        Flux<String> first = singleFlight.execute(key, () -> {
+            generations.incrementAndGet();
+            return upstream.asFlux();
+        });
+        List<String> firstChunks = new ArrayList<>();
+        first.subscribe(firstChunks::add);
+        upstream.tryEmitNext("a");
+        upstream.tryEmitNext("b");
+
+        Flux<String> second = singleFlight.execute(key, () -> {
+            generations.incrementAndGet();
+            return Flux.just("x");
+        });
+        List<String> secondChunks = new ArrayList<>();
+        second.subscribe(secondChunks::add);
+        upstream.tryEmitNext("c");
+        upstream.tryEmitComplete();
+
+        assertEquals(1, generations.get());
+        assertEquals(List.of("a", "b", "c"), firstChunks);
+        assertEquals(List.of("a", "b", "c"), secondChunks);
+
+        // 结束后再来的相同请求重新生成
+        assertEquals(List.of("x"), singleFlight.execute(key, () -> {
+            generations.incrementAndGet();
+            return Flux.just("x");
+        }).collectList().block());
+        assertEquals(2, generations.get());
+    }
+}
@@ -0,0 +1,89 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.parser.MultiFileStreamParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiFileStreamParserTest {
+
+    private static final String RESPONSE = """
+            好的，下面是项目文件：
+            <<<FILE:src/App.vue>>>
+            <template>
+              <div id="app"><router-view /></div>
+            </template>
+            <<<END_FILE>>>
+            <<<FILE: /src/main.ts >>>
+            const a = 1 << 2;
+            <<<END_FILE>>>
+            <<<DONE>>>
+            """;
+
+    @Test
+    void parseWholeText() {
+        Map<String, String> files = MultiFileStreamParser.parse(RESPONSE);
+        assertEquals(2, files.size());
+        assertEquals("<template>\n  <div id=\"app\"><router-view /></div>\n</template>", files.get("src/App.vue"));
+        assertEquals("const a = 1 << 2;", files.get("src/main.ts"));
+    }
+
+    @Test
+    void markersSplitAcrossChunks() {
+        MultiFileStreamParser parser = new MultiFileStreamParser();
+        StringBuilder display = new StringBuilder();
+        // 逐字符喂入，模拟标记被任意切断
+        for (int i = 0; i < RESPONSE.length(); i++) {
+            display.append(parser.feed(String.valueOf(RESPONSE.charAt(i))));
+        }
+        display.append(parser.finish());
+
+        String expectedDisplay = RESPONSE
+                .replaceAll("(?s)<<<FILE:.*?>>>", "")
+                .replaceAll("<<<END_FILE>>>", "")
+                .replaceAll("<<<DONE>>>", "");
+        assertEquals(expectedDisplay, display.toString());
+        assertEquals(MultiFileStreamParser.parse(RESPONSE), parser.getFiles());
+        assertEquals(RESPONSE, parser.getRawText());
+        assertTrue(parser.isDone());
+    }
+
+    @Test
+    void filesAfterLastDoneAreIgnored() {
+        String text = "<<<FILE:a.js>>>\n1\n<<<END_FILE>>>\n<<<DONE>>>\n<<<FILE:b.js>>>\n2\n<<<END_FILE>>>";
+        Map<String, String> files = MultiFileStreamParser.parse(text);
+        assertEquals(Map.of("a.js", "1"), files);
+    }
+
+    @Test
+    void unterminatedMarkerIsFlushedOnFinish() {
+        MultiFileStreamParser parser = new MultiFileStreamParser();
+        String display = parser.feed("a <<<END_") + parser.finish();
+        assertEquals("a <<<END_", display);
+        assertFalse(parser.isDone());
+        assertTrue(parser.getFiles().isEmpty());
+    }
+
+    @Test
+    void illegalPathIsSkipped() {
+        Map<String, String> files = MultiFileStreamParser.parse("<<<FILE:../etc/passwd>>>\nx\n<<<END_FILE>>>");
+        assertTrue(files.isEmpty());
+    }
+
+    @Test
+    void fileListenerFiresAsEachFileCompletes() {
+        MultiFileStreamParser parser = new MultiFileStreamParser();
+        Map<String, String> completed = new LinkedHashMap<>();
+        parser.setFileListener(completed::put);
+        parser.feed("<<<FILE:a.js>>>\n1\n<<<END_FILE>>>\n<<<FILE:b.js>>>\n2");
+        // 第二个文件还没结束，只回调了第一个
+        assertEquals(Map.of("a.js", "1"), completed);
+        parser.feed("\n<<<END_FILE>>>\n<<<DONE>>>");
+        assertEquals(parser.getFiles(), completed);
+    }
+}
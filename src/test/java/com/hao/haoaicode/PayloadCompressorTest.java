@@ -0,0 +1,47 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.codec.DeflatePayloadCodec;
+import com.hao.haoaicode.codec.PayloadCompressor;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadCompressorTest {
+
+    private final DeflatePayloadCodec codec = new DeflatePayloadCodec(6);
+
+    @Test
+    void compressesSourceCodeAndRoundTrips() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            source.append("<template>\n  <div class=\"item-").append(i).append("\">{{ message }} 你好 🎉</div>\n</template>\n");
+        }
+        String raw = source.toString();
+        String encoded = PayloadCompressor.encode(raw, codec, 512);
+        assertTrue(PayloadCompressor.isEncoded(encoded));
+        assertTrue(encoded.length() * 3 < raw.length());
+        assertEquals(raw, PayloadCompressor.decode(encoded));
+    }
+
+    @Test
+    void keepsSmallOrIncompressibleValuesAsIs() {
+        String small = "写一个待办事项应用";
+        assertEquals(small, PayloadCompressor.encode(small, codec, 512));
+
+        StringBuilder random = new StringBuilder();
+        Random rnd = new Random(42);
+        for (int i = 0; i < 600; i++) {
+            random.append((char) ('!' + rnd.nextInt(90)));
+        }
+        String noise = random.toString();
+        assertEquals(noise, PayloadCompressor.encode(noise, codec, 512));
+
+        // 压缩前写入的数据原样读出
+        assertFalse(PayloadCompressor.isEncoded(noise));
+        assertEquals(noise, PayloadCompressor.decode(noise));
+    }
+}
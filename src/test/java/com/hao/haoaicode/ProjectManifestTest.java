@@ -0,0 +1,72 @@
+package com.hao.haoaicode;
+
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.model.ProjectManifest;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ProjectManifestTest {
+
+    @Test
+    void buildsRoutesAndDependenciesAndRoundTrips() {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("package.json", "{\"dependencies\":{\"vue\":\"^3.4.0\"},\"devDependencies\":{\"vite\":\"^5.0.0\"}}");
+        files.put("src/router/index.ts", """
+                const routes = [
+                  { path: '/', component: Home },
+                  { path: "/about", component: () => import('../views/About.vue') },
+                ]
+                """);
+        files.put("src/views/Home.vue", "<template>首页</template>");
+        files.put("src/views/About.vue", "<template>关于</template>");
+
+        ProjectManifest manifest = ProjectManifest.from("/source-code/1/100/", files);
+        ProjectManifest restored = JSONUtil.toBean(JSONUtil.toJsonStr(manifest), ProjectManifest.class);
+
+        assertEquals(4, restored.getFileCount());
+        assertEquals("/source-code/1/100/", restored.getBaseKey());
+        assertEquals(List.of("src/views/Home.vue", "src/views/About.vue"), restored.listViewFiles());
+        assertEquals("src/router/index.ts", restored.resolveRouterFile());
+        assertEquals(List.of("/", "/about"), restored.getRoutes());
+        assertEquals(Map.of("vue", "^3.4.0", "vite", "^5.0.0"), restored.getDependencies());
+        assertEquals(manifest.getFiles().get(2).getSha256(), restored.getFiles().get(2).getSha256());
+        assertEquals("<template>首页</template>".getBytes().length, restored.getFiles().get(2).getSize());
+    }
+
+    @Test
+    void readsLegacyManifestWithoutRoutes() {
+        String legacy = "{\"fileCount\":2,\"createTime\":1,\"files\":["
+                + "{\"path\":\"src/views/Home.vue\",\"size\":10},{\"path\":\"src/router/index.js\",\"size\":20}]}";
+
+        ProjectManifest manifest = JSONUtil.toBean(legacy, ProjectManifest.class);
+
+        assertEquals(List.of("src/views/Home.vue"), manifest.listViewFiles());
+        assertEquals("src/router/index.js", manifest.resolveRouterFile());
+        assertNull(manifest.getBaseKey());
+        assertEquals(0, manifest.getDependencies().size());
+    }
+
+    @Test
+    void resolvesContentAddressedKeys() {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("src/App.vue", "<template>app</template>");
+        files.put("src/Copy.vue", "<template>app</template>");
+        ProjectManifest manifest = ProjectManifest.from("/source-code/1/100/", files);
+
+        assertNull(manifest.resolveBlobKeys());
+        manifest.setBlobPrefix("/source-code/blobs/");
+        Map<String, String> keys = manifest.resolveBlobKeys();
+
+        String sha256 = manifest.getFiles().get(0).getSha256();
+        assertEquals("/source-code/blobs/" + sha256.substring(0, 2) + "/" + sha256, keys.get("src/App.vue"));
+        // 相同内容指向同一个内容对象
+        assertEquals(keys.get("src/App.vue"), keys.get("src/Copy.vue"));
+        assertEquals("/source-code/1/100.manifest.json", ProjectManifest.manifestKey("/source-code/1/100/"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.hao.haoaicode;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.core.handler.StreamDeltaCoalescer;
+import com.hao.haoaicode.core.handler.StreamFrameEncoder;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamDeltaCoalescerTest {
+
+    @Test
+    void encoderProducesValidJson() {
+        String text = "<div class=\"a\">\\n\t</div>\r\n\u0001 中文  ";
+        JSONObject frame = JSONUtil.parseObj(StreamFrameEncoder.aiResponse(text));
+        assertEquals("ai_response", frame.getStr("type"));
+        assertEquals(text, frame.getStr("data"));
+        assertEquals(text, JSONUtil.parseObj(StreamFrameEncoder.sseData(text)).getStr("d"));
+    }
+
+    @Test
+    void burstIsMergedWithoutLosingContent() {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            tokens.add("tok" + i + " ");
+        }
+        List<String> frames = StreamDeltaCoalescer.coalesce(Flux.fromIterable(tokens), 40, 4096)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertEquals(String.join("", tokens), String.join("", frames));
+        // 同步到达的一批 token 只会按字节上限切分成少量帧
+        assertTrue(frames.size() < 10, "frames: " + frames.size());
+    }
+
+    @Test
+    void firstDeltaIsEmittedImmediatelyAndTailAfterWindow() throws InterruptedException {
+        List<String> out = new ArrayList<>();
+        StreamDeltaCoalescer coalescer = new StreamDeltaCoalescer(1000, 4096, s -> {
+            synchronized (out) {
+                out.add(s);
+            }
+        });
+        coalescer.append("a");
+        coalescer.append("b");
+        coalescer.append("c");
+        synchronized (out) {
+            assertEquals(List.of("a"), out);
+        }
+        Thread.sleep(2000);
+        synchronized (out) {
+            assertEquals(List.of("a", "bc"), out);
+        }
+        coalescer.close();
+    }
+}
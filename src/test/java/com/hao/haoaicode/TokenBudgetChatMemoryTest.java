@@ -0,0 +1,122 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.ai.memory.ChatMemorySummarizer;
+import com.hao.haoaicode.ai.memory.TokenBudgetChatMemory;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBudgetChatMemoryTest {
+
+    /**
+     * 按字符数计 token，便于断言
+     */
+    private static final TokenCountEstimator CHAR_ESTIMATOR = new TokenCountEstimator() {
+        @Override
+        public int estimateTokenCountInText(String text) {
+            return text.length();
+        }
+
+        @Override
+        public int estimateTokenCountInMessage(ChatMessage message) {
+            if (message instanceof UserMessage user) {
+                return user.singleText().length();
+            }
+            if (message instanceof AiMessage ai) {
+                return ai.text() != null ? ai.text().length() : 10;
+            }
+            if (message instanceof ToolExecutionResultMessage result) {
+                return result.text().length();
+            }
+            return ((SystemMessage) message).text().length();
+        }
+
+        @Override
+        public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+            int total = 0;
+            for (ChatMessage message : messages) {
+                total += estimateTokenCountInMessage(message);
+            }
+            return total;
+        }
+    };
+
+    private static class RecordingSummarizer extends ChatMemorySummarizer {
+        final List<ChatMessage> evicted = new ArrayList<>();
+        String summary = "";
+
+        @Override
+        public void compactAsync(Object memoryId, List<ChatMessage> messages) {
+            evicted.addAll(messages);
+        }
+
+        @Override
+        public String getSummary(Object memoryId) {
+            return summary;
+        }
+    }
+
+    private final DistributionSummary windowTokens = DistributionSummary.builder("test").register(new SimpleMeterRegistry());
+
+    @Test
+    void evictsOldestTurnsBeyondBudgetAndKeepsSystemMessage() {
+        RecordingSummarizer summarizer = new RecordingSummarizer();
+        TokenBudgetChatMemory memory = new TokenBudgetChatMemory("app:1", new InMemoryChatMemoryStore(),
+                CHAR_ESTIMATOR, 20, summarizer, windowTokens);
+
+        memory.add(SystemMessage.from("system prompt that is long"));
+        memory.add(UserMessage.from("aaaaaaaaaa"));
+        memory.add(AiMessage.from("bbbbbbbbbb"));
+        memory.add(UserMessage.from("cccccccccc"));
+        // 同样的系统消息重复添加不改变窗口
+        memory.add(SystemMessage.from("system prompt that is long"));
+
+        List<ChatMessage> messages = memory.messages();
+        assertEquals(3, messages.size());
+        assertInstanceOf(SystemMessage.class, messages.get(0));
+        assertEquals("bbbbbbbbbb", ((AiMessage) messages.get(1)).text());
+        assertEquals(List.of(UserMessage.from("aaaaaaaaaa")), summarizer.evicted);
+
+        // 超过预算的最新一条消息也保留
+        memory.add(AiMessage.from("x".repeat(50)));
+        messages = memory.messages();
+        assertEquals(2, messages.size());
+        assertEquals("x".repeat(50), ((AiMessage) messages.get(1)).text());
+    }
+
+    @Test
+    void evictsToolResultsWithTheirCallAndAppendsSummary() {
+        RecordingSummarizer summarizer = new RecordingSummarizer();
+        TokenBudgetChatMemory memory = new TokenBudgetChatMemory("app:2", new InMemoryChatMemoryStore(),
+                CHAR_ESTIMATOR, 25, summarizer, windowTokens);
+        ToolExecutionRequest request = ToolExecutionRequest.builder().id("1").name("writeFile").arguments("{}").build();
+
+        memory.add(UserMessage.from("uuuuu"));
+        memory.add(AiMessage.from(List.of(request)));
+        memory.add(ToolExecutionResultMessage.from(request, "ok"));
+        memory.add(UserMessage.from("vvvvvvvvvvvvvvvvvvvv"));
+
+        assertEquals(3, summarizer.evicted.size());
+        assertInstanceOf(ToolExecutionResultMessage.class, summarizer.evicted.get(2));
+
+        summarizer.summary = "用户要做一个待办应用";
+        List<ChatMessage> messages = memory.messages();
+        assertEquals(2, messages.size());
+        assertTrue(((SystemMessage) messages.get(0)).text().endsWith("用户要做一个待办应用"));
+    }
+}
@@ -0,0 +1,137 @@
+package com.hao.haoaicode;
+
+import com.hao.haoaicode.buffer.impl.MpscRingBuffer;
+import com.hao.haoaicode.buffer.impl.WriteAheadLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+
+    @Test
+    void ringBufferKeepsEveryElementFromConcurrentProducers() throws Exception {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(1000);
+        assertEquals(1024, ring.capacity());
+
+        int producers = 4;
+        int perProducer = 20_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ring.offer(base + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        Set<Integer> seen = new HashSet<>();
+        int[] lastPerProducer = new int[producers];
+        Arrays.fill(lastPerProducer, -1);
+        while (seen.size() < producers * perProducer) {
+            Integer value = ring.poll();
+            if (value == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            assertTrue(seen.add(value));
+            // 同一个生产者的元素保持先进先出
+            int producer = value / perProducer;
+            assertTrue(value > lastPerProducer[producer]);
+            lastPerProducer[producer] = value;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    void replaysOnlyUnackedRecordsAcrossSegments(@TempDir Path dir) throws Exception {
+        List<WriteAheadLog.Position> positions = new ArrayList<>();
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 64)) {
+            wal.open((position, payload) -> { });
+            for (int i = 0; i < 10; i++) {
+                positions.add(wal.append(("message-" + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            // 超过段大小的记录单独成段
+            positions.add(wal.append("x".repeat(200).getBytes(StandardCharsets.UTF_8)));
+            for (int i = 0; i < 10; i += 2) {
+                wal.markAcked(positions.get(i));
+            }
+        }
+
+        List<String> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 64)) {
+            wal.open((position, payload) -> replayed.add(new String(payload, StandardCharsets.UTF_8)));
+            assertEquals(List.of("message-1", "message-3", "message-5", "message-7", "message-9", "x".repeat(200)), replayed);
+        }
+
+        // 全部确认后旧段被删除，只剩新的写入段
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 64)) {
+            List<WriteAheadLog.Position> live = new ArrayList<>();
+            wal.open((position, payload) -> live.add(position));
+            live.forEach(wal::markAcked);
+            assertEquals(1, wal.segmentCount());
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 64)) {
+            List<String> again = new ArrayList<>();
+            wal.open((position, payload) -> again.add(new String(payload, StandardCharsets.UTF_8)));
+            assertTrue(again.isEmpty());
+        }
+    }
+
+    @Test
+    void unfinishedRecordDoesNotHideLaterRecords(@TempDir Path dir) throws Exception {
+        byte[] first = "message-0".getBytes(StandardCharsets.UTF_8);
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 1024)) {
+            wal.open((position, payload) -> { });
+            wal.append(first);
+            wal.append("message-1".getBytes(StandardCharsets.UTF_8));
+            wal.append("message-2".getBytes(StandardCharsets.UTF_8));
+        }
+        // 模拟崩溃时第一条记录只预留了区间：保留长度，状态、CRC 和内容都还是 0
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.sorted().findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(5 + first.length), 4);
+        }
+
+        List<String> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 1024)) {
+            wal.open((position, payload) -> replayed.add(new String(payload, StandardCharsets.UTF_8)));
+        }
+        assertEquals(List.of("message-1", "message-2"), replayed);
+    }
+}
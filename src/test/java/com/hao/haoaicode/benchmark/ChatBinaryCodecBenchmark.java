@@ -0,0 +1,138 @@
+package com.hao.haoaicode.benchmark;
+
+import cn.hutool.json.JSONUtil;
+import com.hao.haoaicode.codec.ChatBinaryCodec;
+import com.hao.haoaicode.model.dto.chathistory.ChatHistoryDTO;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话消息编解码基准：文本 JSON 与 ChatBinaryCodec 对比
+ *
+ * 不随单元测试运行，直接执行 main 方法。启动时先打印两种格式的编码字节数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatBinaryCodecBenchmark {
+
+    private List<ChatMessage> messages;
+    private ChatHistoryDTO dto;
+
+    private String messagesJson;
+    private byte[] messagesBinary;
+    private String dtoJson;
+    private byte[] dtoBinary;
+
+    @Setup
+    public void setup() {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            code.append("  <div class=\"item-").append(i).append("\">{{ items[").append(i).append("].title }}</div>\n");
+        }
+        ToolExecutionRequest request = ToolExecutionRequest.builder()
+                .id("call_1")
+                .name("writeFile")
+                .arguments("{\"path\":\"src/App.vue\",\"content\":\"<template></template>\"}")
+                .build();
+        messages = List.of(
+                SystemMessage.from("你是一个前端代码生成助手，按要求输出完整的项目文件。"),
+                UserMessage.from("帮我做一个待办事项应用，支持增删改查和本地存储"),
+                AiMessage.from("好的，下面是完整代码：\n```html\n" + code + "```"),
+                AiMessage.from(List.of(request)),
+                ToolExecutionResultMessage.from(request, "写入成功"),
+                UserMessage.from("把按钮改成蓝色")
+        );
+        dto = new ChatHistoryDTO();
+        dto.setId(1983457289347584001L);
+        dto.setAppId(1983457289347500000L);
+        dto.setUserId(1L);
+        dto.setMessageType("ai");
+        dto.setMessage(code.toString());
+        dto.setStorageType("direct");
+        dto.setCreateTime(LocalDateTime.now());
+
+        messagesJson = ChatMessageSerializer.messagesToJson(messages);
+        messagesBinary = ChatBinaryCodec.encodeMessages(messages);
+        dtoJson = JSONUtil.toJsonStr(dto);
+        dtoBinary = ChatBinaryCodec.encodeDto(dto);
+    }
+
+    @Benchmark
+    public String messagesEncodeJson() {
+        return ChatMessageSerializer.messagesToJson(messages);
+    }
+
+    @Benchmark
+    public byte[] messagesEncodeBinary() {
+        return ChatBinaryCodec.encodeMessages(messages);
+    }
+
+    @Benchmark
+    public List<ChatMessage> messagesDecodeJson() {
+        return ChatMessageDeserializer.messagesFromJson(messagesJson);
+    }
+
+    @Benchmark
+    public List<ChatMessage> messagesDecodeBinary() {
+        return ChatBinaryCodec.decodeMessages(messagesBinary);
+    }
+
+    @Benchmark
+    public String dtoEncodeJson() {
+        return JSONUtil.toJsonStr(dto);
+    }
+
+    @Benchmark
+    public byte[] dtoEncodeBinary() {
+        return ChatBinaryCodec.encodeDto(dto);
+    }
+
+    @Benchmark
+    public ChatHistoryDTO dtoDecodeJson() {
+        return JSONUtil.toBean(dtoJson, ChatHistoryDTO.class);
+    }
+
+    @Benchmark
+    public ChatHistoryDTO dtoDecodeBinary() {
+        return ChatBinaryCodec.decodeDto(dtoBinary);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ChatBinaryCodecBenchmark sizes = new ChatBinaryCodecBenchmark();
+        sizes.setup();
+        System.out.printf("messages: json %d bytes, binary %d bytes%n",
+                sizes.messagesJson.getBytes(StandardCharsets.UTF_8).length, sizes.messagesBinary.length);
+        System.out.printf("dto: json %d bytes, binary %d bytes%n",
+                sizes.dtoJson.getBytes(StandardCharsets.UTF_8).length, sizes.dtoBinary.length);
+        new Runner(new OptionsBuilder()
+                .include(ChatBinaryCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}